@@ -0,0 +1,139 @@
+package com.joeyoey.simpleschem.benchmarks;
+
+import com.joeyoey.simpleschem.io.CompactFormat;
+import com.joeyoey.simpleschem.io.SchematicCodec;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares save and load time of the sectioned compact format under each codec, through
+ * {@link CompactFormat#write(File, Schematic, SchematicCodec)} and {@link CompactFormat#read(File)}
+ * on files in the temporary directory. The file size of each combination is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CodecBenchmark {
+
+    public enum Shape {
+        /**
+         * Layered ground 128x64x128 with a bumpy surface and 8 states, mostly long runs
+         */
+        TERRAIN,
+        /**
+         * Random states out of 200 everywhere in 64x64x64, the worst case for run-length encoding
+         */
+        NOISE
+    }
+
+    @Param({"NONE", "FAST", "DEFLATE_3", "DEFLATE", "SMALLEST"})
+    public String codec;
+
+    @Param({"TERRAIN", "NOISE"})
+    public Shape shape;
+
+    private SchematicCodec schematicCodec;
+    private Schematic schematic;
+    private File saved;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        schematicCodec = codec(codec);
+        schematic = shape == Shape.TERRAIN ? terrain(128, 64, 128, 8) : noise(64, 64, 64, 200);
+        saved = Files.createTempFile("bench", ".schem").toFile();
+        target = Files.createTempFile("bench", ".schem").toFile();
+        CompactFormat.write(saved, schematic, schematicCodec);
+        System.out.println(shape + " " + schematicCodec + ": " + schematic.getBlockCount() + " blocks in "
+                + saved.length() + " bytes");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(saved.toPath());
+        Files.deleteIfExists(target.toPath());
+    }
+
+    @Benchmark
+    public File save() throws IOException {
+        CompactFormat.write(target, schematic, schematicCodec);
+        return target;
+    }
+
+    @Benchmark
+    public Schematic load() throws IOException {
+        return CompactFormat.read(saved);
+    }
+
+    private static SchematicCodec codec(String name) {
+        switch (name) {
+            case "NONE":
+                return SchematicCodec.NONE;
+            case "FAST":
+                return SchematicCodec.FAST;
+            case "DEFLATE_3":
+                return SchematicCodec.deflate(3);
+            case "DEFLATE":
+                return SchematicCodec.DEFLATE;
+            case "SMALLEST":
+                return SchematicCodec.SMALLEST;
+            default:
+                throw new IllegalArgumentException("Unknown codec: " + name);
+        }
+    }
+
+    /**
+     * Layered ground with a bumpy surface, mostly long runs
+     */
+    private static Schematic terrain(int sizeX, int sizeY, int sizeZ, int states) {
+        Random random = new Random(1);
+        SchematicBuilder builder = new SchematicBuilder(0, 0, 0, sizeX - 1, sizeY - 1, sizeZ - 1);
+        for (int x = 0; x < sizeX; x++) {
+            for (int z = 0; z < sizeZ; z++) {
+                int surface = sizeY / 2 + random.nextInt(4);
+                for (int y = 0; y < surface; y++) {
+                    builder.addBlock(x, y, z, "minecraft:layer_" + (y * states / sizeY));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Random states everywhere, the worst case for run-length encoding
+     */
+    private static Schematic noise(int sizeX, int sizeY, int sizeZ, int states) {
+        Random random = new Random(2);
+        SchematicBuilder builder = new SchematicBuilder(0, 0, 0, sizeX - 1, sizeY - 1, sizeZ - 1);
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                for (int x = 0; x < sizeX; x++) {
+                    builder.addBlock(x, y, z, "minecraft:state_" + random.nextInt(states));
+                }
+            }
+        }
+        return builder.build();
+    }
+}
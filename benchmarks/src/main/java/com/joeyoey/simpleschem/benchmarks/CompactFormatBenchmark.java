@@ -0,0 +1,78 @@
+package com.joeyoey.simpleschem.benchmarks;
+
+import com.joeyoey.simpleschem.SimpleSchem;
+import com.joeyoey.simpleschem.benchmarks.SyntheticSchematics.Variety;
+import com.joeyoey.simpleschem.io.SchematicInfo;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading through {@link SimpleSchem#saveCompactSchematic(File, Schematic)} and
+ * {@link SimpleSchem#loadCompactSchematic(File)}, on files in the temporary directory
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class CompactFormatBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int blocks;
+
+    @Param({"LOW", "HIGH"})
+    public Variety variety;
+
+    private Schematic schematic;
+    private File saved;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        schematic = SyntheticSchematics.generate(blocks, variety);
+        saved = Files.createTempFile("bench", ".schem").toFile();
+        target = Files.createTempFile("bench", ".schem").toFile();
+        if (!SimpleSchem.saveCompactSchematic(saved, schematic)) {
+            throw new IOException("Failed to write " + saved);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(saved.toPath());
+        Files.deleteIfExists(target.toPath());
+    }
+
+    @Benchmark
+    public boolean save() {
+        return SimpleSchem.saveCompactSchematic(target, schematic);
+    }
+
+    @Benchmark
+    public Schematic load() {
+        return SimpleSchem.loadCompactSchematic(saved);
+    }
+
+    @Benchmark
+    public SchematicInfo readInfo() {
+        return SimpleSchem.readSchematicInfo(saved);
+    }
+}
@@ -0,0 +1,86 @@
+package com.joeyoey.simpleschem.benchmarks;
+
+import com.joeyoey.simpleschem.benchmarks.SyntheticSchematics.Variety;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.bukkit.util.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a {@link Schematic} and its palette from block data strings, with and without known
+ * bounds, and through the map constructor older callers use. The map for 10M blocks takes a few
+ * gigabytes of heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class ConstructionBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int blocks;
+
+    @Param({"LOW", "HIGH"})
+    public Variety variety;
+
+    private int[] size;
+    private String[] states;
+    private short[] cells;
+    private Map<Vector, String> map;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        size = SyntheticSchematics.size(blocks);
+        states = SyntheticSchematics.states(variety);
+        cells = SyntheticSchematics.cells(blocks, variety);
+        map = new HashMap<>(blocks * 4 / 3 + 1);
+        for (int cell = 0; cell < blocks; cell++) {
+            map.put(new Vector(SyntheticSchematics.x(size, cell), SyntheticSchematics.y(size, cell),
+                    SyntheticSchematics.z(size, cell)), states[cells[cell]]);
+        }
+    }
+
+    @Benchmark
+    public Schematic boundedBuilder() {
+        int minX = SyntheticSchematics.minX(size);
+        int minZ = SyntheticSchematics.minZ(size);
+        SchematicBuilder builder = new SchematicBuilder(minX, 0, minZ,
+                minX + size[0] - 1, size[1] - 1, minZ + size[2] - 1);
+        return fill(builder);
+    }
+
+    @Benchmark
+    public Schematic unboundedBuilder() {
+        return fill(new SchematicBuilder());
+    }
+
+    @Benchmark
+    public Schematic fromMap() {
+        return new Schematic(map, size[0], size[1], size[2]);
+    }
+
+    private Schematic fill(SchematicBuilder builder) {
+        for (int cell = 0; cell < blocks; cell++) {
+            builder.addBlock(SyntheticSchematics.x(size, cell), SyntheticSchematics.y(size, cell),
+                    SyntheticSchematics.z(size, cell), states[cells[cell]]);
+        }
+        return builder.build();
+    }
+}
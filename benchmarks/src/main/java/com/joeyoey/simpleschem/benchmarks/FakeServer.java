@@ -0,0 +1,119 @@
+package com.joeyoey.simpleschem.benchmarks;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.block.data.BlockData;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.logging.Logger;
+
+/**
+ * A stand-in for the server, installed into {@link Bukkit} so code that parses block data runs
+ * outside of one. Parsed block data only carries its string.
+ */
+public final class FakeServer {
+
+    private static final Logger LOGGER = Logger.getLogger(FakeServer.class.getName());
+
+    private FakeServer() {
+    }
+
+    /**
+     * Install the fake server unless a server is already set
+     */
+    public static synchronized void install() {
+        if (Bukkit.getServer() != null) {
+            return;
+        }
+        Bukkit.setServer(proxy(Server.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "createBlockData":
+                    if (args != null && args.length == 1 && args[0] instanceof String) {
+                        return blockData((String) args[0]);
+                    }
+                    throw new UnsupportedOperationException("Unsupported overload: " + method);
+                case "getLogger":
+                    return LOGGER;
+                case "getName":
+                    return "SimpleSchem benchmarks";
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "1.16.5-R0.1-SNAPSHOT";
+                default:
+                    return object(proxy, method, args);
+            }
+        }));
+    }
+
+    /**
+     * Create block data that only knows its string, equal to any other with the same string
+     */
+    public static BlockData blockData(String data) {
+        return proxy(BlockData.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getAsString":
+                case "toString":
+                    return data;
+                case "clone":
+                    return proxy;
+                case "matches":
+                case "equals":
+                    return args[0] instanceof BlockData && data.equals(((BlockData) args[0]).getAsString());
+                case "hashCode":
+                    return data.hashCode();
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Answer the {@link Object} methods by identity and anything else with a default value
+     */
+    static Object object(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return method.getDeclaringClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+}
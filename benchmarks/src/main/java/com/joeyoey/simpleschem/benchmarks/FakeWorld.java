@@ -0,0 +1,158 @@
+package com.joeyoey.simpleschem.benchmarks;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An in-memory world of always loaded chunks, 256 blocks high. Blocks set through the Bukkit API
+ * or {@link StubNMS} are stored per chunk, so a paste does a comparable amount of memory work to a
+ * real one without the server behind it. Not thread-safe, like the main thread it stands in for.
+ */
+public final class FakeWorld {
+
+    public static final int MAX_HEIGHT = 256;
+
+    private final World world;
+    private final Map<Long, FakeChunk> chunks = new HashMap<>();
+    private long writes;
+
+    public FakeWorld() {
+        this.world = FakeServer.proxy(World.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getChunkAt":
+                    if (args.length == 2 && args[0] instanceof Integer) {
+                        return chunk((Integer) args[0], (Integer) args[1]).chunk;
+                    }
+                    throw new UnsupportedOperationException("Unsupported overload: " + method);
+                case "getBlockAt":
+                    if (args.length == 3 && args[0] instanceof Integer) {
+                        int x = (Integer) args[0];
+                        int z = (Integer) args[2];
+                        return chunk(x >> 4, z >> 4).block(x & 15, (Integer) args[1], z & 15);
+                    }
+                    throw new UnsupportedOperationException("Unsupported overload: " + method);
+                case "isChunkLoaded":
+                    return true;
+                case "getMaxHeight":
+                    return MAX_HEIGHT;
+                case "getName":
+                    return "benchmark";
+                default:
+                    return FakeServer.object(proxy, method, args);
+            }
+        });
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * @return the number of blocks set since the world was created or last cleared
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * Forget every block
+     */
+    public void clear() {
+        chunks.clear();
+        writes = 0;
+    }
+
+    /**
+     * Set a block in a chunk of this world
+     * @param chunk a chunk handed out by this world
+     * @param x x within the chunk
+     * @param y world y
+     * @param z z within the chunk
+     * @param blockData the block data
+     */
+    public void setBlock(Chunk chunk, int x, int y, int z, BlockData blockData) {
+        ((FakeChunk) Proxy.getInvocationHandler(chunk)).set(x, y, z, blockData);
+    }
+
+    private FakeChunk chunk(int chunkX, int chunkZ) {
+        return chunks.computeIfAbsent(((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL),
+                key -> new FakeChunk(chunkX, chunkZ));
+    }
+
+    private final class FakeChunk implements InvocationHandler {
+
+        final int chunkX;
+        final int chunkZ;
+        final Chunk chunk;
+        final BlockData[] blocks = new BlockData[16 * 16 * MAX_HEIGHT];
+
+        FakeChunk(int chunkX, int chunkZ) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.chunk = FakeServer.proxy(Chunk.class, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getX":
+                    return chunkX;
+                case "getZ":
+                    return chunkZ;
+                case "getWorld":
+                    return world;
+                case "getBlock":
+                    return block((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+                case "isLoaded":
+                case "load":
+                    return true;
+                default:
+                    return FakeServer.object(proxy, method, args);
+            }
+        }
+
+        Block block(int x, int y, int z) {
+            return FakeServer.proxy(Block.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setBlockData":
+                        set(x, y, z, (BlockData) args[0]);
+                        return null;
+                    case "getBlockData":
+                        return get(x, y, z);
+                    case "getX":
+                        return (chunkX << 4) + x;
+                    case "getY":
+                        return y;
+                    case "getZ":
+                        return (chunkZ << 4) + z;
+                    case "getChunk":
+                        return chunk;
+                    case "getWorld":
+                        return world;
+                    default:
+                        return FakeServer.object(proxy, method, args);
+                }
+            });
+        }
+
+        void set(int x, int y, int z, BlockData blockData) {
+            if (y < 0 || y >= MAX_HEIGHT) {
+                throw new IllegalArgumentException("Block y outside the world: " + y);
+            }
+            blocks[(y << 8) | (z << 4) | x] = blockData;
+            writes++;
+        }
+
+        BlockData get(int x, int y, int z) {
+            return blocks[(y << 8) | (z << 4) | x];
+        }
+    }
+}
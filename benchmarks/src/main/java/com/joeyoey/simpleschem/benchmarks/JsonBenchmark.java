@@ -0,0 +1,56 @@
+package com.joeyoey.simpleschem.benchmarks;
+
+import com.joeyoey.simpleschem.SimpleSchem;
+import com.joeyoey.simpleschem.benchmarks.SyntheticSchematics.Variety;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SimpleSchem#schematicToJson(Schematic)} and {@link SimpleSchem#schematicFromJson(String)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class JsonBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int blocks;
+
+    @Param({"LOW", "HIGH"})
+    public Variety variety;
+
+    private Schematic schematic;
+    private String json;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        schematic = SyntheticSchematics.generate(blocks, variety);
+        json = SimpleSchem.schematicToJson(schematic);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return SimpleSchem.schematicToJson(schematic);
+    }
+
+    @Benchmark
+    public Schematic fromJson() {
+        return SimpleSchem.schematicFromJson(json);
+    }
+}
@@ -0,0 +1,84 @@
+package com.joeyoey.simpleschem.benchmarks;
+
+import com.joeyoey.simpleschem.SimpleSchem;
+import com.joeyoey.simpleschem.benchmarks.SyntheticSchematics.Variety;
+import com.joeyoey.simpleschem.paste.PastePlan;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pastes into a {@link FakeWorld} through a {@link StubNMS}: preparing a {@link PastePlan}, applying
+ * a prepared plan through the NMS bulk path and the Bukkit API, and the whole
+ * {@link SimpleSchem#chunkPaste(Location, Schematic, com.joeyoey.simpleschem.nms.NMSAbstraction)}.
+ * Block data is parsed by {@link FakeServer}, so parsing costs only the cache lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class PasteBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int blocks;
+
+    @Param({"LOW", "HIGH"})
+    public Variety variety;
+
+    private Schematic schematic;
+    private FakeWorld world;
+    private StubNMS nms;
+    private Location center;
+    private PastePlan plan;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FakeServer.install();
+        schematic = SyntheticSchematics.generate(blocks, variety);
+        world = new FakeWorld();
+        nms = new StubNMS(world);
+        center = new Location(world.getWorld(), 0, 0, 0);
+        plan = PastePlan.prepare(center, schematic);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearWorld() {
+        world.clear();
+    }
+
+    @Benchmark
+    public PastePlan prepare() {
+        return PastePlan.prepare(center, schematic);
+    }
+
+    @Benchmark
+    public int apply() {
+        return plan.apply(nms);
+    }
+
+    @Benchmark
+    public long applyWithBukkit() {
+        plan.applyWithBukkit(false);
+        return world.getWrites();
+    }
+
+    @Benchmark
+    public int chunkPaste() {
+        return SimpleSchem.chunkPaste(center, schematic, nms);
+    }
+}
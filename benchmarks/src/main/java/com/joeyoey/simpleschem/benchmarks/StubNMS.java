@@ -0,0 +1,72 @@
+package com.joeyoey.simpleschem.benchmarks;
+
+import com.joeyoey.simpleschem.nms.NMSAbstraction;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.util.Vector;
+
+import java.util.Map;
+
+/**
+ * An {@link NMSAbstraction} writing straight into a {@link FakeWorld}, so benchmarks measure the
+ * library's side of a paste. Tile entity data is counted and dropped.
+ */
+public final class StubNMS implements NMSAbstraction {
+
+    private final FakeWorld world;
+    private long refreshes;
+    private long tileEntities;
+
+    public StubNMS(FakeWorld world) {
+        this.world = world;
+    }
+
+    @Override
+    public void setBlockSuperFast(Block block, BlockData blockData, boolean applyPhysics) {
+        block.setBlockData(blockData, applyPhysics);
+    }
+
+    @Override
+    public String getBlockDataString(Block block) {
+        BlockData blockData = block.getBlockData();
+        return blockData == null ? "minecraft:air" : blockData.getAsString();
+    }
+
+    @Override
+    public void setBlockFromNMSString(Block block, String nmsBlockData, boolean applyPhysics) {
+        block.setBlockData(Bukkit.createBlockData(nmsBlockData), applyPhysics);
+    }
+
+    @Override
+    public void refreshChunk(Chunk chunk) {
+        refreshes++;
+    }
+
+    @Override
+    public void setBlocksInChunk(Chunk chunk, Map<Vector, BlockData> blockDataMap) {
+        for (Map.Entry<Vector, BlockData> entry : blockDataMap.entrySet()) {
+            Vector position = entry.getKey();
+            world.setBlock(chunk, position.getBlockX(), position.getBlockY(), position.getBlockZ(), entry.getValue());
+        }
+    }
+
+    @Override
+    public String getTileEntityData(Block block) {
+        return null;
+    }
+
+    @Override
+    public void setTileEntityData(Block block, String nbtData) {
+        tileEntities++;
+    }
+
+    public long getRefreshes() {
+        return refreshes;
+    }
+
+    public long getTileEntities() {
+        return tileEntities;
+    }
+}
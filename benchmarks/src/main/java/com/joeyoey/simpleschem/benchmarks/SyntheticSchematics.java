@@ -0,0 +1,125 @@
+package com.joeyoey.simpleschem.benchmarks;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+
+import java.util.Random;
+
+/**
+ * Generates the schematics the benchmarks run on. A schematic of n blocks fills the first n cells
+ * of a box at most 256 blocks high, centered on x and z so pastes cross chunk borders. The same
+ * arguments always give the same blocks.
+ */
+public final class SyntheticSchematics {
+
+    private static final int MAX_HEIGHT = 256;
+
+    private static final String[] LOW_STATES = {
+            "minecraft:bedrock", "minecraft:stone", "minecraft:andesite", "minecraft:dirt",
+            "minecraft:grass_block[snowy=false]", "minecraft:oak_log[axis=y]",
+            "minecraft:oak_leaves[distance=1,persistent=false]", "minecraft:air"
+    };
+
+    private static final int HIGH_STATES = 4096;
+
+    /**
+     * How many distinct block states a schematic uses
+     */
+    public enum Variety {
+        /**
+         * Eight states in horizontal layers, so cells form long runs like natural terrain
+         */
+        LOW,
+        /**
+         * 4096 states picked at random per cell, the worst case for palettes and run lengths
+         */
+        HIGH
+    }
+
+    private SyntheticSchematics() {
+    }
+
+    /**
+     * Get the size of the box a schematic of the given block count fills
+     * @param blocks the block count
+     * @return the size along x, y and z
+     */
+    public static int[] size(int blocks) {
+        int sizeY = Math.max(1, Math.min(MAX_HEIGHT, (int) Math.ceil(Math.cbrt(blocks))));
+        int sizeXZ = Math.max(1, (int) Math.ceil(Math.sqrt((double) blocks / sizeY)));
+        return new int[]{sizeXZ, (blocks + sizeXZ * sizeXZ - 1) / (sizeXZ * sizeXZ), sizeXZ};
+    }
+
+    /**
+     * @return the block data strings of a variety, indexed as by {@link #cells(int, Variety)}
+     */
+    public static String[] states(Variety variety) {
+        if (variety == Variety.LOW) {
+            return LOW_STATES.clone();
+        }
+        String[] states = new String[HIGH_STATES];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = "minecraft:note_block[instrument=" + (i / 25) + ",note=" + (i % 25) + ",powered=false]";
+        }
+        return states;
+    }
+
+    /**
+     * Get the state of every block, in cell order (x fastest, then z, then y)
+     * @param blocks the block count
+     * @param variety the variety
+     * @return the index into {@link #states(Variety)} of each block
+     */
+    public static short[] cells(int blocks, Variety variety) {
+        int[] size = size(blocks);
+        int layer = size[0] * size[2];
+        short[] cells = new short[blocks];
+        Random random = new Random(blocks);
+        for (int cell = 0; cell < blocks; cell++) {
+            if (variety == Variety.LOW) {
+                cells[cell] = (short) ((cell / layer) * LOW_STATES.length / size[1]);
+            } else {
+                cells[cell] = (short) random.nextInt(HIGH_STATES);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Generate a schematic
+     * @param blocks the block count
+     * @param variety the variety
+     * @return the schematic
+     */
+    public static Schematic generate(int blocks, Variety variety) {
+        int[] size = size(blocks);
+        String[] states = states(variety);
+        short[] cells = cells(blocks, variety);
+        SchematicBuilder builder = new SchematicBuilder(minX(size), 0, minZ(size),
+                minX(size) + size[0] - 1, size[1] - 1, minZ(size) + size[2] - 1);
+        for (int cell = 0; cell < blocks; cell++) {
+            builder.addBlock(x(size, cell), y(size, cell), z(size, cell), states[cells[cell]]);
+        }
+        return builder.build();
+    }
+
+    public static int minX(int[] size) {
+        return -size[0] / 2;
+    }
+
+    public static int minZ(int[] size) {
+        return -size[2] / 2;
+    }
+
+    public static int x(int[] size, int cell) {
+        return minX(size) + cell % size[0];
+    }
+
+    public static int y(int[] size, int cell) {
+        return cell / (size[0] * size[2]);
+    }
+
+    public static int z(int[] size, int cell) {
+        return minZ(size) + (cell / size[0]) % size[2];
+    }
+}
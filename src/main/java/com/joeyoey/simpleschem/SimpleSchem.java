@@ -2,23 +2,47 @@ package com.joeyoey.simpleschem;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.joeyoey.simpleschem.adapters.BlockDataAdapter;
-import com.joeyoey.simpleschem.adapters.SchematicAdapter;
+import com.joeyoey.simpleschem.adapters.SchematicTypeAdapter;
 import com.joeyoey.simpleschem.adapters.VectorAdapter;
+import com.joeyoey.simpleschem.capture.RegionCapture;
+import com.joeyoey.simpleschem.io.CompactFormat;
+import com.joeyoey.simpleschem.io.MappedSchematicLoader;
+import com.joeyoey.simpleschem.io.SchematicCodec;
+import com.joeyoey.simpleschem.io.SchematicInfo;
+import com.joeyoey.simpleschem.io.SchematicCache;
+import com.joeyoey.simpleschem.io.SectionedSchematicFile;
+import com.joeyoey.simpleschem.jfr.SchematicEvents;
+import com.joeyoey.simpleschem.metrics.Phase;
+import com.joeyoey.simpleschem.metrics.SchematicMetrics;
 import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
 import com.joeyoey.simpleschem.nms.NMSAbstraction;
+import com.joeyoey.simpleschem.paste.ChunkFootprint;
+import com.joeyoey.simpleschem.paste.PasteJob;
+import com.joeyoey.simpleschem.paste.PastePlan;
+import com.joeyoey.simpleschem.paste.UndoHistory;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.util.Vector;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,16 +50,22 @@ public final class SimpleSchem {
 
 
 
-    public static Gson gson;
+    /**
+     * The Gson instance used for schematic JSON, built when the class loads. Gson is thread-safe,
+     * so it can be shared by concurrent loads and saves.
+     */
+    public static final Gson gson = createGson();
     private static final Logger LOGGER = Logger.getLogger(SimpleSchem.class.getName());
 
+    private static final int COMPRESSED_JSON_MAGIC = 0x534A534E; // "SJSN"
+
 
-    private static void initializeGson() {
-        gson = new GsonBuilder()
+    private static Gson createGson() {
+        return new GsonBuilder()
                 .serializeNulls()
                 .registerTypeAdapter(Vector.class, new VectorAdapter())
                 .registerTypeAdapter(BlockData.class, new BlockDataAdapter())
-                .registerTypeAdapter(Schematic.class, new SchematicAdapter())
+                .registerTypeAdapter(Schematic.class, new SchematicTypeAdapter())
                 .enableComplexMapKeySerialization()
                 .create();
     }
@@ -47,11 +77,14 @@ public final class SimpleSchem {
      * @return the string object
      */
     public static String schematicToJson(Schematic schematic) {
-        if (gson == null) {
-            initializeGson();
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginSave();
+        String json = gson.toJson(schematic, new TypeToken<Schematic>(){}.getType());
+        if (event != null) {
+            SchematicEvents.endSave(event, "json", utf8Length(json), schematic);
         }
-
-        return gson.toJson(schematic, new TypeToken<Schematic>(){}.getType());
+        SchematicMetrics.record(Phase.SAVE, start, schematic.getBlockCount(), 0);
+        return json;
     }
 
 
@@ -61,11 +94,16 @@ public final class SimpleSchem {
      * @return the schematic object
      */
     public static Schematic schematicFromJson(String json) {
-        if (gson == null) {
-            initializeGson();
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginLoad();
+        Schematic schematic = gson.fromJson(json, new TypeToken<Schematic>(){}.getType());
+        if (event != null) {
+            SchematicEvents.endLoad(event, "json", utf8Length(json), schematic);
         }
-
-        return gson.fromJson(json, new TypeToken<Schematic>(){}.getType());
+        if (schematic != null) {
+            SchematicMetrics.record(Phase.LOAD, start, schematic.getBlockCount(), 0);
+        }
+        return schematic;
     }
 
     /**
@@ -75,11 +113,32 @@ public final class SimpleSchem {
      * @return whether or not the schematic was uploaded
      */
     public static boolean atomizeSchematicToFile(File file, Schematic schematic) {
-        try (OutputStream out = java.nio.file.Files.newOutputStream(file.toPath())) {
-            String toAtomize = schematicToJson(schematic);
-            byte[] bytes = toAtomize.getBytes(StandardCharsets.US_ASCII);
-            out.write(bytes);
+        return atomizeSchematicToFile(file, schematic, SchematicCodec.NONE);
+    }
+
+    /**
+     * Jam a schematic into a file, compressing the JSON with the given codec. Compressed files start
+     * with a short header so {@link #schematicFromAtoms(File)} can tell them apart from plain JSON.
+     * @param file the file to jam the schematic into
+     * @param schematic the schematic
+     * @param codec the codec to compress with, {@link SchematicCodec#NONE} writes plain JSON
+     * @return whether or not the schematic was uploaded
+     */
+    public static boolean atomizeSchematicToFile(File file, Schematic schematic, SchematicCodec codec) {
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginSave();
+        try (OutputStream out = new BufferedOutputStream(java.nio.file.Files.newOutputStream(file.toPath()))) {
+            if (codec.getId() != SchematicCodec.ID_NONE) {
+                DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(COMPRESSED_JSON_MAGIC);
+                header.writeByte(codec.getId());
+            }
+            // Stream straight into the file rather than building the JSON string first
+            try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(codec.encode(out), StandardCharsets.UTF_8)))) {
+                gson.toJson(schematic, Schematic.class, writer);
+            }
             out.flush();
+            recordSave(start, event, file, schematic);
             return true;
         } catch (IOException err) {
             LOGGER.log(Level.SEVERE, "Failed to write schematic JSON to file", err);
@@ -89,154 +148,266 @@ public final class SimpleSchem {
 
 
     /**
-     * Pull a schematic out of a file
+     * Pull a schematic out of a file, plain or compressed
      * @param file the file to read
      * @return the new schematic from thin air
      */
     public static Schematic schematicFromAtoms(File file) {
-        try {
-            byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
-            String str = new String(bytes, StandardCharsets.US_ASCII);
-            return schematicFromJson(str);
-        } catch (IOException err) {
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginLoad();
+        try (InputStream in = new BufferedInputStream(java.nio.file.Files.newInputStream(file.toPath()))) {
+            SchematicCodec codec = SchematicCodec.NONE;
+            DataInputStream header = new DataInputStream(in);
+            in.mark(5);
+            if (file.length() >= 5 && header.readInt() == COMPRESSED_JSON_MAGIC) {
+                codec = SchematicCodec.fromId(header.readUnsignedByte());
+            } else {
+                in.reset();
+            }
+
+            try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(codec.decode(in), StandardCharsets.UTF_8)))) {
+                return recordLoad(start, event, file, gson.fromJson(reader, Schematic.class));
+            }
+        } catch (IOException | JsonParseException err) {
             LOGGER.log(Level.SEVERE, "Failed to read schematic JSON from file", err);
             return null;
         }
     }
 
     /**
-     * Save a schematic to compact .schem format
+     * Save a schematic to compact .schem format, compressed with {@link SchematicCodec#FAST}
      * @param file the file to save to
      * @param schematic the schematic to save
      * @return whether the save was successful
      */
     public static boolean saveCompactSchematic(File file, Schematic schematic) {
-        try (DataOutputStream dos = new DataOutputStream(java.nio.file.Files.newOutputStream(file.toPath()))) {
-            // Write magic number and version
-            dos.writeInt(0x12345678); // Magic number
-            dos.writeShort(1); // Version
-            
-            // Write dimensions
-            dos.writeInt(schematic.getWidth());
-            dos.writeInt(schematic.getHeight());
-            dos.writeInt(schematic.getLength());
-            
-            // Write block palette
-            Map<Short, String> palette = schematic.getBlockPalette();
-            dos.writeShort((short) palette.size());
-            for (Map.Entry<Short, String> entry : palette.entrySet()) {
-                dos.writeShort(entry.getKey());
-                byte[] blockDataBytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
-                dos.writeShort((short) blockDataBytes.length);
-                dos.write(blockDataBytes);
-            }
-            
-            // Write compact block data
-            Map<Vector, Short> compactData = schematic.getCompactBlockData();
-            dos.writeInt(compactData.size());
-            for (Map.Entry<Vector, Short> entry : compactData.entrySet()) {
-                Vector vec = entry.getKey();
-                dos.writeInt(vec.getBlockX());
-                dos.writeInt(vec.getBlockY());
-                dos.writeInt(vec.getBlockZ());
-                dos.writeShort(entry.getValue());
-            }
-            
+        return saveCompactSchematic(file, schematic, SchematicCodec.FAST);
+    }
+
+    /**
+     * Save a schematic to compact .schem format
+     * @param file the file to save to
+     * @param schematic the schematic to save
+     * @param codec the codec to compress the file body with
+     * @return whether the save was successful
+     */
+    public static boolean saveCompactSchematic(File file, Schematic schematic, SchematicCodec codec) {
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginSave();
+        try {
+            CompactFormat.write(file, schematic, codec);
+            recordSave(start, event, file, schematic);
             return true;
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
             LOGGER.log(Level.SEVERE, "Failed to save compact schematic", e);
             return false;
         }
     }
     /**
-     * Load a schematic from compact .schem format
+     * Load a schematic from compact .schem format. Files written by every earlier version are read.
      * @param file the file to load from
      * @return the loaded schematic, or null if loading failed
      */
     public static Schematic loadCompactSchematic(File file) {
-        try (DataInputStream dis = new DataInputStream(java.nio.file.Files.newInputStream(file.toPath()))) {
-            // Read and verify magic number
-            int magic = dis.readInt();
-            if (magic != 0x12345678) {
-                throw new IOException("Invalid file format - wrong magic number");
-            }
-            
-            // Read version
-            short version = dis.readShort();
-            if (version != 1) {
-                throw new IOException("Unsupported version: " + version);
-            }
-            
-            // Read dimensions
-            int width = dis.readInt();
-            int height = dis.readInt();
-            int length = dis.readInt();
-            
-            // Read block palette
-            Map<Short, String> palette = new HashMap<>();
-            short paletteSize = dis.readShort();
-            for (int i = 0; i < paletteSize; i++) {
-                short id = dis.readShort();
-                short blockDataLength = dis.readShort();
-                byte[] blockDataBytes = new byte[blockDataLength];
-                dis.readFully(blockDataBytes);
-                String blockData = new String(blockDataBytes, StandardCharsets.UTF_8);
-                palette.put(id, blockData);
-            }
-            
-            // Read compact block data
-            Map<Vector, String> blockDataMap = new HashMap<>();
-            int blockCount = dis.readInt();
-            for (int i = 0; i < blockCount; i++) {
-                int x = dis.readInt();
-                int y = dis.readInt();
-                int z = dis.readInt();
-                short blockId = dis.readShort();
-                
-                Vector vector = new Vector(x, y, z);
-                String blockData = palette.get(blockId);
-                if (blockData != null) {
-                    blockDataMap.put(vector, blockData);
-                }
-            }
-            
-            return new Schematic(blockDataMap, width, height, length);
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginLoad();
+        try {
+            return recordLoad(start, event, file, CompactFormat.read(file));
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Failed to load compact schematic", e);
             return null;
         }
     }
 
-    public static Schematic schematicFromLocations(Location center, Set<Location> locations) {
-        Map<Vector, String> blockDataMap = new HashMap<>();
+    /**
+     * Load a compact schematic through a cache, which reads the file only when it is not cached or
+     * has changed since it was loaded. Only loads that read the file are timed and emit a load event.
+     * @param file the file to load from
+     * @param cache the cache to load through
+     * @return the shared loaded schematic, which must not be modified, or null if loading failed
+     */
+    public static Schematic loadCompactSchematic(File file, SchematicCache cache) {
+        try {
+            return cache.get(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to load compact schematic", e);
+            return null;
+        }
+    }
 
-        // Calculate bounding box
-        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
-        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
-        int minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
+    /**
+     * Read the dimensions, block count and palette of a compact schematic without decoding its
+     * blocks. Version 5 files also carry the number of blocks of each palette entry.
+     * @param file the file to read
+     * @return the header and palette, or null if reading failed
+     */
+    public static SchematicInfo readSchematicInfo(File file) {
+        try {
+            return SchematicInfo.read(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to read schematic info", e);
+            return null;
+        }
+    }
+
+    /**
+     * Load only the blocks of a compact schematic inside a box, given in schematic coordinates.
+     * Only the sections of the file that intersect the box are read, so the cost follows the size
+     * of the box rather than of the schematic.
+     * @param file the file to load from, as written by {@link #saveCompactSchematic}
+     * @param min the lowest corner of the box, inclusive
+     * @param max the highest corner of the box, inclusive
+     * @return the blocks inside the box, or null if loading failed
+     */
+    public static Schematic loadSchematicRegion(File file, Vector min, Vector max) {
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginLoad();
+        try (SectionedSchematicFile sectioned = SectionedSchematicFile.open(file)) {
+            return recordLoad(start, event, file, sectioned.readRegion(min.getBlockX(), min.getBlockY(), min.getBlockZ(),
+                    max.getBlockX(), max.getBlockY(), max.getBlockZ()));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to load schematic region", e);
+            return null;
+        }
+    }
+
+    /**
+     * Save a schematic in the uncompressed random-access layout, which
+     * {@link #loadMappedSchematic(File)} can map without decoding. The layout has no room for tile
+     * entities, so schematics with tile entities are refused; save those with
+     * {@link #saveCompactSchematic(File, Schematic)}.
+     * @param file the file to save to
+     * @param schematic the schematic to save
+     * @return whether the save was successful
+     */
+    public static boolean saveMappableSchematic(File file, Schematic schematic) {
+        if (schematic.hasTileEntities()) {
+            // Checked before the file is opened, which would truncate it
+            LOGGER.log(Level.SEVERE, "Cannot save a schematic with tile entities in the mappable layout: " + file);
+            return false;
+        }
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginSave();
+        try (OutputStream out = new BufferedOutputStream(java.nio.file.Files.newOutputStream(file.toPath()))) {
+            CompactFormat.writePacked(out, schematic, SchematicCodec.NONE);
+            recordSave(start, event, file, schematic);
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to save mappable schematic", e);
+            return false;
+        }
+    }
+
+    /**
+     * Load a schematic by memory-mapping the file. Files saved with
+     * {@link #saveMappableSchematic(File, Schematic)} are read in place; any other compact file is
+     * loaded normally.
+     * @param file the file to load from
+     * @return the loaded read-only schematic, or null if loading failed
+     */
+    public static Schematic loadMappedSchematic(File file) {
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginLoad();
+        try {
+            return recordLoad(start, event, file, MappedSchematicLoader.load(file));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to map compact schematic", e);
+            return null;
+        }
+    }
+
+    public static Schematic schematicFromLocations(Location center, Set<Location> locations) {
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginCapture();
+        // The builder tracks the bounding box, so dimensions come out of build()
+        SchematicBuilder builder = new SchematicBuilder();
 
         for (Location location : locations) {
             Block block = location.getBlock();
-            Vector relativeVector = location.clone().toVector().subtract(center.toVector());
-
-            // Update bounding box
-            minX = Math.min(minX, relativeVector.getBlockX());
-            maxX = Math.max(maxX, relativeVector.getBlockX());
-            minY = Math.min(minY, relativeVector.getBlockY());
-            maxY = Math.max(maxY, relativeVector.getBlockY());
-            minZ = Math.min(minZ, relativeVector.getBlockZ());
-            maxZ = Math.max(maxZ, relativeVector.getBlockZ());
-
-            // Store block data as string
-            blockDataMap.put(relativeVector, block.getBlockData().getAsString());
+            builder.addBlock(
+                    location.getBlockX() - center.getBlockX(),
+                    location.getBlockY() - center.getBlockY(),
+                    location.getBlockZ() - center.getBlockZ(),
+                    block.getBlockData().getAsString());
         }
 
-        // Calculate dimensions
-        int width = maxX - minX + 1;
-        int height = maxY - minY + 1;
-        int length = maxZ - minZ + 1;
+        return recordCapture(start, event, builder.build());
+    }
 
-        return new Schematic(blockDataMap, width, height, length);
+    /**
+     * Capture a cuboid of the world, air included. The chunks are snapshotted on the calling thread,
+     * which must be the main thread; block states are read and the palette built on the common
+     * pool, one task per chunk.
+     * @param world the world to capture from
+     * @param min one corner of the region, inclusive
+     * @param max the opposite corner of the region, inclusive
+     * @return a future completing with the schematic, relative to the minimum corner
+     */
+    public static CompletableFuture<Schematic> schematicFromRegion(World world, Vector min, Vector max) {
+        return RegionCapture.capture(world, min, max, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Capture a cuboid of the world, air included, straight into a compact file compressed with
+     * {@link SchematicCodec#FAST}. The region is encoded one section at a time on the common pool,
+     * with chunk snapshots taken on the main thread a few sections ahead, so heap use stays at a few
+     * megabytes however large the region is. May be called from any thread.
+     * @param plugin the plugin that owns the main thread tasks
+     * @param world the world to capture from
+     * @param min one corner of the region, inclusive
+     * @param max the opposite corner of the region, inclusive
+     * @param file the file to write
+     * @return a future completing once the file is written
+     */
+    public static CompletableFuture<Void> captureRegionToFile(Plugin plugin, World world, Vector min, Vector max, File file) {
+        Executor mainThread = task -> plugin.getServer().getScheduler().runTask(plugin, task);
+        return RegionCapture.captureToFile(world, min, max, file, SchematicCodec.FAST, mainThread, ForkJoinPool.commonPool());
+    }
+
+    private static Schematic recordLoad(long start, Object event, File file, Schematic schematic) {
+        if (event != null) {
+            SchematicEvents.endLoad(event, file.getPath(), file.length(), schematic);
+        }
+        if (schematic != null) {
+            SchematicMetrics.record(Phase.LOAD, start, schematic.getBlockCount(), 0);
+        }
+        return schematic;
+    }
+
+    private static void recordSave(long start, Object event, File file, Schematic schematic) {
+        if (event != null) {
+            SchematicEvents.endSave(event, file.getPath(), file.length(), schematic);
+        }
+        SchematicMetrics.record(Phase.SAVE, start, schematic.getBlockCount(), 0);
+    }
+
+    /**
+     * Count the bytes a string takes in UTF-8 without encoding it
+     */
+    private static long utf8Length(String value) {
+        long bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++; // encoded as '?'
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static Schematic recordCapture(long start, Object event, Schematic schematic) {
+        SchematicEvents.endCapture(event, schematic, 0);
+        SchematicMetrics.record(Phase.CAPTURE, start, schematic.getBlockCount(), 0);
+        return schematic;
     }
 
     /**
@@ -276,10 +447,13 @@ public final class SimpleSchem {
      * @return whether the schematic was successfully pasted
      */
     /**
-     * @deprecated Prefer {@link #pasteSchematic(Location, Schematic, boolean)} or an async task scheduler.
+     * @deprecated Sleeps on the calling thread, which stalls the server when called from the main
+     * thread. Use {@link #schedulePaste(Plugin, Location, Schematic, NMSAbstraction)}, which spreads
+     * the paste over ticks within a time budget.
      */
     @Deprecated
     public static boolean pasteLargeSchematic(Location center, Schematic schematic, boolean force, int batchSize) {
+        long start = System.nanoTime();
         try {
             // Pre-load all required chunks
             preloadChunksForLargeStructure(center, schematic);
@@ -309,6 +483,7 @@ public final class SimpleSchem {
                 }
             }
 
+            SchematicMetrics.record(Phase.PASTE, start, processedBlocks, 0);
             return true;
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Failed to paste large schematic", e);
@@ -327,15 +502,9 @@ public final class SimpleSchem {
         return center.getChunk().isLoaded();
     }
     private static void preloadChunksForLargeStructure(Location center, Schematic schematic) {
-        int radius = Math.max(schematic.getWidth(), schematic.getHeight()) / 16 + 2;
-        for (int x = -radius; x <= radius; x++) {
-            for (int z = -radius; z <= radius; z++) {
-                if (center.getWorld() == null) return;
-                center.getWorld().getChunkAt(
-                    center.getBlockX() >> 4,
-                    center.getBlockZ() >> 4
-                ).load(true); // Force load
-            }
+        if (center.getWorld() == null) return;
+        for (long key : ChunkFootprint.of(center, schematic)) {
+            center.getWorld().getChunkAt(ChunkFootprint.chunkX(key), ChunkFootprint.chunkZ(key)).load(true); // Force load
         }
     }
 
@@ -348,11 +517,14 @@ public final class SimpleSchem {
      * @return the created schematic
      */
     /**
-     * @deprecated Prefer streaming approaches tailored to your plugin scheduler.
+     * @deprecated Use {@link #schematicFromRegion(World, Vector, Vector)}, or
+     * {@link #captureRegionToFile(Plugin, World, Vector, Vector, File)} for regions too large to hold
+     * in memory.
      */
     @Deprecated
     public static Schematic createLargeSchematic(Location center, Set<Location> locations, int chunkSize) {
-        Map<Vector, String> blockDataMap = new HashMap<>();
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginCapture();
         int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
         int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
         int minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
@@ -367,6 +539,11 @@ public final class SimpleSchem {
             maxZ = Math.max(maxZ, location.getBlockZ());
         }
 
+        // Blocks go straight into the dense store of a bounded builder
+        SchematicBuilder builder = new SchematicBuilder(
+                minX - center.getBlockX(), minY - center.getBlockY(), minZ - center.getBlockZ(),
+                maxX - center.getBlockX(), maxY - center.getBlockY(), maxZ - center.getBlockZ());
+
         // Process blocks in chunks to avoid memory issues
         Location[] locationArray = locations.toArray(new Location[0]);
         for (int i = 0; i < locationArray.length; i += chunkSize) {
@@ -374,8 +551,11 @@ public final class SimpleSchem {
 
             for (int j = i; j < endIndex; j++) {
                 Location location = locationArray[j];
-                Vector relativeVector = location.clone().toVector().subtract(center.toVector());
-                blockDataMap.put(relativeVector, location.getBlock().getBlockData().getAsString());
+                builder.addBlock(
+                        location.getBlockX() - center.getBlockX(),
+                        location.getBlockY() - center.getBlockY(),
+                        location.getBlockZ() - center.getBlockZ(),
+                        location.getBlock().getBlockData().getAsString());
             }
 
             // Yield control periodically
@@ -389,11 +569,7 @@ public final class SimpleSchem {
             }
         }
 
-        int width = maxX - minX + 1;
-        int height = maxY - minY + 1;
-        int length = maxZ - minZ + 1;
-
-        return new Schematic(blockDataMap, width, height, length);
+        return recordCapture(start, event, builder.build());
     }
 
     /**
@@ -413,10 +589,7 @@ public final class SimpleSchem {
             }
 
             // Perform the paste operation
-            for (Map.Entry<Vector, BlockData> entry : schematic.getBlockData().entrySet()) {
-                Location blockLocation = center.clone().add(entry.getKey());
-                blockLocation.getBlock().setBlockData(entry.getValue(), true);
-            }
+            PastePlan.prepare(center, schematic).applyWithBukkit(true);
             return true;
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Failed to paste schematic with tile entities", e);
@@ -424,12 +597,9 @@ public final class SimpleSchem {
         }
     }
     private static void loadChunksAround(Location center, Schematic schematic) {
-        int radius = Math.max(schematic.getWidth(), Math.max(schematic.getHeight(), schematic.getLength())) / 16 + 1;
-        for (int x = -radius; x <= radius; x++) {
-            for (int z = -radius; z <= radius; z++) {
-                if (center.getWorld() == null) return;
-                center.getWorld().getChunkAt(center.getBlockX() >> 4, center.getBlockZ() >> 4).load();
-            }
+        if (center.getWorld() == null) return;
+        for (long key : ChunkFootprint.of(center, schematic)) {
+            center.getWorld().getChunkAt(ChunkFootprint.chunkX(key), ChunkFootprint.chunkZ(key)).load();
         }
     }
 
@@ -438,18 +608,148 @@ public final class SimpleSchem {
      * @param center the center of the paste
      * @param schematic the schematic to paste
      * @param nmsAbstraction the method to paste them using nms
+     * @see #chunkPaste(Location, Schematic, NMSAbstraction)
      */
     public static void fastPaste(Location center, Schematic schematic, NMSAbstraction nmsAbstraction) {
         if (!center.getChunk().isLoaded()) {
             center.getChunk().load();
         }
 
-        for (Map.Entry<Vector, BlockData> entry : schematic.getBlockData().entrySet()) {
-            nmsAbstraction.setBlockSuperFast(center.clone().add(entry.getKey()).getBlock(), entry.getValue(), false);
+        PastePlan plan = PastePlan.prepare(center, schematic);
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginPasteBatch();
+        for (PastePlan.ChunkPlan chunkPlan : plan.getChunks()) {
+            Chunk chunk = plan.getWorld().getChunkAt(chunkPlan.getChunkX(), chunkPlan.getChunkZ());
+            for (Map.Entry<Vector, BlockData> entry : chunkPlan.getBlocks().entrySet()) {
+                Vector position = entry.getKey();
+                nmsAbstraction.setBlockSuperFast(
+                        chunk.getBlock(position.getBlockX(), position.getBlockY(), position.getBlockZ()),
+                        entry.getValue(), false);
+            }
         }
+        SchematicEvents.endPasteBatch(event, plan.getWorld(), plan.getBlockCount(), 0, plan.getChunks());
+        SchematicMetrics.record(Phase.PASTE, start, plan.getBlockCount(), plan.getChunks().size());
     }
 
 
+    /**
+     * Paste a schematic chunk by chunk through the NMS bulk path. Blocks are grouped by the chunk
+     * they land in, each chunk gets one {@link NMSAbstraction#setBlocksInChunk} call, and every chunk
+     * touched is refreshed once at the end, so clients get one update per chunk instead of one per
+     * block. Physics are not applied, and blocks outside the world height are skipped.
+     * @param center the center of the paste
+     * @param schematic the schematic to paste
+     * @param nmsAbstraction the NMS implementation that writes the chunks
+     * @return the number of chunks written
+     */
+    public static int chunkPaste(Location center, Schematic schematic, NMSAbstraction nmsAbstraction) {
+        return PastePlan.prepare(center, schematic).apply(nmsAbstraction);
+    }
+
+    /**
+     * Paste a schematic like {@link #chunkPaste(Location, Schematic, NMSAbstraction)}, first
+     * recording the blocks it overwrites so {@link UndoHistory#undo(NMSAbstraction)} can put them back
+     * @param center the center of the paste
+     * @param schematic the schematic to paste
+     * @param nmsAbstraction the NMS implementation that writes the chunks
+     * @param undoHistory the history to record the overwritten blocks in
+     * @return the number of chunks written
+     */
+    public static int chunkPaste(Location center, Schematic schematic, NMSAbstraction nmsAbstraction,
+                                 UndoHistory undoHistory) {
+        PastePlan plan = PastePlan.prepare(center, schematic);
+        undoHistory.record(plan, nmsAbstraction);
+        return plan.apply(nmsAbstraction);
+    }
+
+    /**
+     * Prepare a paste off the main thread: block data is parsed, target coordinates computed and
+     * blocks grouped by chunk on the common pool. Apply the plan on the main thread with
+     * {@link PastePlan#apply(NMSAbstraction)} or {@link PastePlan#applyWithBukkit(boolean)}.
+     * @param center the center of the paste
+     * @param schematic the schematic to paste
+     * @return a future completing with the plan
+     */
+    public static CompletableFuture<PastePlan> preparePaste(Location center, Schematic schematic) {
+        return PastePlan.prepareAsync(center, schematic, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prepare a paste off the main thread, then apply it on the main thread through the NMS bulk
+     * path, so the main thread only spends time writing blocks
+     * @param plugin the plugin that owns the apply task
+     * @param center the center of the paste
+     * @param schematic the schematic to paste
+     * @param nmsAbstraction the NMS implementation that writes the chunks
+     * @return a future completing with the applied plan
+     */
+    public static CompletableFuture<PastePlan> pasteAsync(Plugin plugin, Location center, Schematic schematic,
+                                                          NMSAbstraction nmsAbstraction) {
+        Executor mainThread = task -> plugin.getServer().getScheduler().runTask(plugin, task);
+        return preparePaste(center, schematic).thenApplyAsync(plan -> {
+            plan.apply(nmsAbstraction);
+            return plan;
+        }, mainThread);
+    }
+
+    /**
+     * Paste a schematic over as many ticks as it takes, spending at most
+     * {@link PasteJob#DEFAULT_TICK_BUDGET_NANOS} per tick. The plan is prepared on the common pool
+     * first, so the main thread only spends time placing blocks.
+     * @param plugin the plugin that owns the paste task
+     * @param center the center of the paste
+     * @param schematic the schematic to paste
+     * @param nmsAbstraction the NMS implementation to place blocks with, or null for the Bukkit API
+     * @return the job, whose future completes with the number of blocks placed and which can be
+     * cancelled while its plan is still being prepared
+     */
+    public static PasteJob schedulePaste(Plugin plugin, Location center, Schematic schematic, NMSAbstraction nmsAbstraction) {
+        return PasteJob.start(plugin, center, schematic, nmsAbstraction, PasteJob.DEFAULT_TICK_BUDGET_NANOS);
+    }
+
+    /**
+     * Paste only the blocks that are not already in the schematic's state, so resetting an area
+     * costs as much as what changed in it. The plan is prepared and compared against chunk snapshots
+     * on the common pool; only the snapshots and the writes happen on the main thread. Blocks
+     * changed between the snapshot and the write are not seen.
+     * @param plugin the plugin that owns the main thread tasks
+     * @param center the center of the paste
+     * @param schematic the schematic to paste
+     * @param nmsAbstraction the NMS implementation to write the changed chunks with, or null to
+     *                       place blocks through the Bukkit API with physics
+     * @return a future completing with the number of blocks written
+     */
+    public static CompletableFuture<Integer> diffPaste(Plugin plugin, Location center, Schematic schematic,
+                                                       NMSAbstraction nmsAbstraction) {
+        return diffPaste(plugin, center, schematic, nmsAbstraction, null);
+    }
+
+    /**
+     * Paste only the blocks that differ, like
+     * {@link #diffPaste(Plugin, Location, Schematic, NMSAbstraction)}, recording the blocks that are
+     * actually overwritten so {@link UndoHistory#undo(NMSAbstraction)} can put them back
+     * @param undoHistory the history to record the overwritten blocks in, or null to keep no undo
+     * @return a future completing with the number of blocks written
+     */
+    public static CompletableFuture<Integer> diffPaste(Plugin plugin, Location center, Schematic schematic,
+                                                       NMSAbstraction nmsAbstraction, UndoHistory undoHistory) {
+        Executor mainThread = task -> plugin.getServer().getScheduler().runTask(plugin, task);
+        return preparePaste(center, schematic).thenComposeAsync(plan -> {
+            Map<Long, ChunkSnapshot> snapshots = plan.snapshotChunks();
+            return CompletableFuture.supplyAsync(() -> plan.changedBlocks(snapshots), ForkJoinPool.commonPool());
+        }, mainThread).thenApplyAsync(changed -> {
+            if (undoHistory != null) {
+                undoHistory.record(changed, nmsAbstraction);
+            }
+            if (nmsAbstraction == null) {
+                changed.applyWithBukkit(true);
+            } else {
+                changed.apply(nmsAbstraction);
+            }
+            return changed.getBlockCount();
+        }, mainThread);
+    }
+
     /**
      * Create a schematic with tile entity support from block locations
      * @param center the center location
@@ -458,44 +758,29 @@ public final class SimpleSchem {
      * @return schematic with tile entity data
      */
     public static Schematic schematicFromLocationsWithTileEntities(Location center, Set<Location> locations, NMSAbstraction nmsAbstraction) {
-        Map<Vector, String> blockDataMap = new HashMap<>();
-        Map<Vector, String> tileEntityData = new HashMap<>();
-
-        // Calculate bounding box
-        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
-        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
-        int minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginCapture();
+        SchematicBuilder builder = new SchematicBuilder();
 
         for (Location location : locations) {
             Block block = location.getBlock();
-            Vector relativeVector = location.clone().toVector().subtract(center.toVector());
-
-            // Update bounding box
-            minX = Math.min(minX, relativeVector.getBlockX());
-            maxX = Math.max(maxX, relativeVector.getBlockX());
-            minY = Math.min(minY, relativeVector.getBlockY());
-            maxY = Math.max(maxY, relativeVector.getBlockY());
-            minZ = Math.min(minZ, relativeVector.getBlockZ());
-            maxZ = Math.max(maxZ, relativeVector.getBlockZ());
+            int x = location.getBlockX() - center.getBlockX();
+            int y = location.getBlockY() - center.getBlockY();
+            int z = location.getBlockZ() - center.getBlockZ();
 
             // Store block data
-            blockDataMap.put(relativeVector, block.getBlockData().getAsString());
+            builder.addBlock(x, y, z, block.getBlockData().getAsString());
 
             // Capture tile entity data if available
             if (nmsAbstraction != null) {
                 String tileData = nmsAbstraction.getTileEntityData(block);
                 if (tileData != null) {
-                    tileEntityData.put(relativeVector, tileData);
+                    builder.addTileEntity(x, y, z, tileData);
                 }
             }
         }
 
-        // Calculate dimensions
-        int width = maxX - minX + 1;
-        int height = maxY - minY + 1;
-        int length = maxZ - minZ + 1;
-
-        return new Schematic(blockDataMap, tileEntityData, width, height, length);
+        return recordCapture(start, event, builder.build());
     }
 
     /**
@@ -507,24 +792,20 @@ public final class SimpleSchem {
      * @return whether the schematic was successfully pasted
      */
     public static boolean pasteSchematicWithTileEntities(Location center, Schematic schematic, NMSAbstraction nmsAbstraction, boolean force) {
-        // First paste the blocks
-        boolean blockPasteSuccess = pasteSchematic(center, schematic, force);
-        if (!blockPasteSuccess) {
-            return false;
-        }
-
-        // Then restore tile entities
-        if (schematic.hasTileEntities() && nmsAbstraction != null) {
-            for (Map.Entry<Vector, String> entry : schematic.getTileEntityData().entrySet()) {
-                Vector relativeVector = entry.getKey();
-                String tileData = entry.getValue();
+        try {
+            loadChunksAround(center, schematic);
 
-                Location blockLocation = center.clone().add(relativeVector);
-                nmsAbstraction.setTileEntityData(blockLocation.getBlock(), tileData);
+            if (!force && !isAreaSuitable(center, schematic)) {
+                return false;
             }
-        }
 
-        return true;
+            // Tile entities are written chunk by chunk, right after the blocks of their chunk
+            PastePlan.prepare(center, schematic).applyWithBukkit(true, nmsAbstraction);
+            return true;
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Failed to paste schematic with tile entities", e);
+            return false;
+        }
     }
 
     /**
@@ -1,9 +1,7 @@
 package com.joeyoey.simpleschem.adapters;
 
 import com.google.gson.*;
-import com.google.gson.reflect.TypeToken;
-import com.joeyoey.simpleschem.SimpleSchem;
-import org.bukkit.Bukkit;
+import com.joeyoey.simpleschem.schemobjects.BlockDataCache;
 import org.bukkit.block.data.BlockData;
 
 import java.lang.reflect.Type;
@@ -14,7 +12,8 @@ public class BlockDataAdapter implements JsonDeserializer<BlockData>, JsonSerial
     public BlockData deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
         JsonObject jsonObject = json.getAsJsonObject();
 
-        BlockData blockData = Bukkit.getServer().createBlockData(jsonObject.get("bd").getAsString());
+        // Parsed once per state; the cached instance is shared, so hand out a copy
+        BlockData blockData = BlockDataCache.get(jsonObject.get("bd").getAsString());
 
         return blockData.clone();
     }
@@ -2,14 +2,20 @@ package com.joeyoey.simpleschem.adapters;
 
 import com.google.gson.*;
 import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.TileEntityStore;
 import org.bukkit.util.Vector;
 
 import java.lang.reflect.Type;
 import java.util.Map;
-import java.util.HashMap;
 
+/**
+ * Tree-model JSON adapter writing one object per block. Prefer {@link SchematicTypeAdapter}, which
+ * streams and writes the much smaller palette layout; this adapter reads every layout.
+ */
 public class SchematicAdapter implements JsonDeserializer<Schematic>, JsonSerializer<Schematic> {
 
+    private static final SchematicTypeAdapter STREAMING = new SchematicTypeAdapter();
+
     /**
      * Gson invokes this call-back method during deserialization when it encounters a field of the
      * specified type.
@@ -27,47 +33,8 @@ public class SchematicAdapter implements JsonDeserializer<Schematic>, JsonSerial
      */
     @Override
     public Schematic deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-        JsonObject jsonObject = json.getAsJsonObject();
-        Map<Vector, String> blocks = new HashMap<>();
-        JsonElement blocksEl = jsonObject.get("blocks");
-        if (blocksEl != null && blocksEl.isJsonArray()) {
-            // Preferred format: array of entries {x,y,z,bd}
-            JsonArray array = blocksEl.getAsJsonArray();
-            for (JsonElement el : array) {
-                JsonObject obj = el.getAsJsonObject();
-                double x = obj.get("x").getAsDouble();
-                double y = obj.get("y").getAsDouble();
-                double z = obj.get("z").getAsDouble();
-                String bd = obj.get("bd").getAsString();
-                blocks.put(new Vector(x, y, z), bd);
-            }
-        } else if (blocksEl != null && blocksEl.isJsonObject()) {
-            // Backward-compat: object map with stringified keys
-            JsonObject obj = blocksEl.getAsJsonObject();
-            for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
-                // Expect key like "x,y,z"
-                String[] parts = entry.getKey().split(",");
-                if (parts.length == 3) {
-                    try {
-                        double x = Double.parseDouble(parts[0]);
-                        double y = Double.parseDouble(parts[1]);
-                        double z = Double.parseDouble(parts[2]);
-                        String bd = entry.getValue().getAsString();
-                        blocks.put(new Vector(x, y, z), bd);
-                    } catch (NumberFormatException e) {
-                        throw new JsonParseException("Invalid vector key: " + entry.getKey(), e);
-                    }
-                } else {
-                    throw new JsonParseException("Invalid vector key format: " + entry.getKey());
-                }
-            }
-        }
-
-        int width = jsonObject.get("width").getAsInt();
-        int height = jsonObject.get("height").getAsInt();
-        int length = jsonObject.get("length").getAsInt();
-
-        return new Schematic(blocks, width, height, length);
+        // The streaming adapter reads the palette layout as well as both per-block layouts
+        return STREAMING.fromJsonTree(json);
     }
 
     /**
@@ -101,6 +68,20 @@ public class SchematicAdapter implements JsonDeserializer<Schematic>, JsonSerial
         }
         jsonObject.add("blocks", blocksArr);
 
+        TileEntityStore tileEntities = src.getTileEntities();
+        if (!tileEntities.isEmpty()) {
+            JsonArray tileEntitiesArr = new JsonArray();
+            for (int i = 0; i < tileEntities.size(); i++) {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("x", tileEntities.getX(i));
+                obj.addProperty("y", tileEntities.getY(i));
+                obj.addProperty("z", tileEntities.getZ(i));
+                obj.addProperty("nbt", tileEntities.getData(i));
+                tileEntitiesArr.add(obj);
+            }
+            jsonObject.add("tileEntities", tileEntitiesArr);
+        }
+
         jsonObject.addProperty("width", src.getWidth());
         jsonObject.addProperty("height", src.getHeight());
         jsonObject.addProperty("length", src.getLength());
@@ -0,0 +1,326 @@
+package com.joeyoey.simpleschem.adapters;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import com.joeyoey.simpleschem.schemobjects.TileEntityStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming JSON codec for {@link Schematic}. Nothing is built in memory besides the schematic
+ * itself, so JSON can be written to and read from files directly.
+ * <p>
+ * Schematics are written in the palette layout: each block data string appears once in
+ * {@code palette}, and {@code cells} walks the bounding box (x fastest, then z, then y) as pairs of
+ * run length and palette index, with -1 for empty cells. The older layouts written by
+ * {@link SchematicAdapter}, with a {@code blocks} array of {x,y,z,bd} objects or a {@code blocks}
+ * object keyed by "x,y,z", are still read. Tile entities are written to {@code tileEntities} as an
+ * array of {x,y,z,nbt} objects in every layout.
+ */
+public class SchematicTypeAdapter extends TypeAdapter<Schematic> {
+
+    @Override
+    public void write(JsonWriter out, Schematic src) throws IOException {
+        if (src == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("width").value(src.getWidth());
+        out.name("height").value(src.getHeight());
+        out.name("length").value(src.getLength());
+
+        out.name("origin").beginArray()
+                .value(src.getOriginX()).value(src.getOriginY()).value(src.getOriginZ())
+                .endArray();
+        out.name("size").beginArray()
+                .value(src.getSizeX()).value(src.getSizeY()).value(src.getSizeZ())
+                .endArray();
+
+        out.name("palette").beginArray();
+        for (int i = 0; i < src.getPaletteSize(); i++) {
+            out.value(src.getPaletteEntry(i));
+        }
+        out.endArray();
+
+        out.name("cells").beginArray();
+        int cells = src.getCellCount();
+        int cell = 0;
+        while (cell < cells) {
+            int value = src.getCell(cell);
+            int run = 1;
+            while (cell + run < cells && src.getCell(cell + run) == value) {
+                run++;
+            }
+            out.value(run).value(value);
+            cell += run;
+        }
+        out.endArray();
+
+        TileEntityStore tileEntities = src.getTileEntities();
+        if (!tileEntities.isEmpty()) {
+            out.name("tileEntities").beginArray();
+            for (int i = 0; i < tileEntities.size(); i++) {
+                out.beginObject();
+                out.name("x").value(tileEntities.getX(i));
+                out.name("y").value(tileEntities.getY(i));
+                out.name("z").value(tileEntities.getZ(i));
+                out.name("nbt").value(tileEntities.getData(i));
+                out.endObject();
+            }
+            out.endArray();
+        }
+
+        out.endObject();
+    }
+
+    @Override
+    public Schematic read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        Integer width = null;
+        Integer height = null;
+        Integer length = null;
+        int[] origin = null;
+        int[] size = null;
+        int[] paletteIds = null;
+        SchematicBuilder builder = null;
+        List<TileEntityEntry> tileEntities = new ArrayList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            switch (name) {
+                case "width":
+                    width = in.nextInt();
+                    break;
+                case "height":
+                    height = in.nextInt();
+                    break;
+                case "length":
+                    length = in.nextInt();
+                    break;
+                case "origin":
+                    origin = readTriple(in, name);
+                    break;
+                case "size":
+                    size = readTriple(in, name);
+                    break;
+                case "palette":
+                    if (origin == null || size == null) {
+                        throw new JsonParseException("\"palette\" must follow \"origin\" and \"size\"");
+                    }
+                    builder = size[0] == 0 || size[1] == 0 || size[2] == 0
+                            ? new SchematicBuilder()
+                            : new SchematicBuilder(origin[0], origin[1], origin[2],
+                            origin[0] + size[0] - 1, origin[1] + size[1] - 1, origin[2] + size[2] - 1);
+                    paletteIds = readPalette(in, builder);
+                    break;
+                case "cells":
+                    if (paletteIds == null) {
+                        throw new JsonParseException("\"cells\" must follow \"palette\"");
+                    }
+                    readCells(in, builder, paletteIds, origin, size);
+                    break;
+                case "tileEntities":
+                    readTileEntities(in, tileEntities);
+                    break;
+                case "blocks":
+                    if (builder == null) {
+                        builder = new SchematicBuilder();
+                    }
+                    readLegacyBlocks(in, builder);
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+
+        if (width == null || height == null || length == null) {
+            throw new JsonParseException("Schematic is missing width, height or length");
+        }
+        if (builder == null) {
+            builder = new SchematicBuilder();
+        }
+        for (TileEntityEntry entry : tileEntities) {
+            builder.addTileEntity(entry.x, entry.y, entry.z, entry.nbt);
+        }
+        return builder.dimensions(width, height, length).build();
+    }
+
+    private static int[] readTriple(JsonReader in, String name) throws IOException {
+        int[] triple = new int[3];
+        in.beginArray();
+        for (int i = 0; i < 3; i++) {
+            if (!in.hasNext()) {
+                throw new JsonParseException("\"" + name + "\" must have three elements");
+            }
+            triple[i] = in.nextInt();
+        }
+        in.endArray();
+        return triple;
+    }
+
+    private static int[] readPalette(JsonReader in, SchematicBuilder builder) throws IOException {
+        int[] ids = new int[16];
+        int count = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = builder.paletteId(in.nextString());
+        }
+        in.endArray();
+        return Arrays.copyOf(ids, count);
+    }
+
+    private static void readCells(JsonReader in, SchematicBuilder builder, int[] paletteIds, int[] origin, int[] size)
+            throws IOException {
+        long cells = (long) size[0] * size[1] * size[2];
+        long cell = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            int run = in.nextInt();
+            if (!in.hasNext()) {
+                throw new JsonParseException("\"cells\" must hold run length and palette index pairs");
+            }
+            int value = in.nextInt();
+            if (run < 0 || cell + run > cells || value < -1 || value >= paletteIds.length) {
+                throw new JsonParseException("Invalid cell run at cell " + cell);
+            }
+            if (value == Schematic.EMPTY) {
+                cell += run;
+                continue;
+            }
+            for (long end = cell + run; cell < end; cell++) {
+                int x = (int) (cell % size[0]);
+                int z = (int) ((cell / size[0]) % size[2]);
+                int y = (int) (cell / ((long) size[0] * size[2]));
+                builder.addBlock(origin[0] + x, origin[1] + y, origin[2] + z, paletteIds[value]);
+            }
+        }
+        in.endArray();
+    }
+
+    private static void readTileEntities(JsonReader in, List<TileEntityEntry> tileEntities) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            Integer x = null, y = null, z = null;
+            String nbt = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "x":
+                        x = in.nextInt();
+                        break;
+                    case "y":
+                        y = in.nextInt();
+                        break;
+                    case "z":
+                        z = in.nextInt();
+                        break;
+                    case "nbt":
+                        nbt = in.nextString();
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            if (x == null || y == null || z == null || nbt == null) {
+                throw new JsonParseException("Tile entity entry needs \"x\", \"y\", \"z\" and \"nbt\"");
+            }
+            tileEntities.add(new TileEntityEntry(x, y, z, nbt));
+        }
+        in.endArray();
+    }
+
+    private static void readLegacyBlocks(JsonReader in, SchematicBuilder builder) throws IOException {
+        if (in.peek() == JsonToken.BEGIN_ARRAY) {
+            // Array of entries {x,y,z,bd}
+            in.beginArray();
+            while (in.hasNext()) {
+                double x = 0, y = 0, z = 0;
+                String bd = null;
+                in.beginObject();
+                while (in.hasNext()) {
+                    switch (in.nextName()) {
+                        case "x":
+                            x = in.nextDouble();
+                            break;
+                        case "y":
+                            y = in.nextDouble();
+                            break;
+                        case "z":
+                            z = in.nextDouble();
+                            break;
+                        case "bd":
+                            bd = in.nextString();
+                            break;
+                        default:
+                            in.skipValue();
+                            break;
+                    }
+                }
+                in.endObject();
+                if (bd == null) {
+                    throw new JsonParseException("Block entry is missing \"bd\"");
+                }
+                builder.addBlock((int) Math.floor(x), (int) Math.floor(y), (int) Math.floor(z), bd);
+            }
+            in.endArray();
+        } else {
+            // Object map with stringified keys like "x,y,z"
+            in.beginObject();
+            while (in.hasNext()) {
+                String key = in.nextName();
+                String[] parts = key.split(",");
+                if (parts.length != 3) {
+                    throw new JsonParseException("Invalid vector key format: " + key);
+                }
+                try {
+                    builder.addBlock(
+                            (int) Math.floor(Double.parseDouble(parts[0])),
+                            (int) Math.floor(Double.parseDouble(parts[1])),
+                            (int) Math.floor(Double.parseDouble(parts[2])),
+                            in.nextString());
+                } catch (NumberFormatException e) {
+                    throw new JsonParseException("Invalid vector key: " + key, e);
+                }
+            }
+            in.endObject();
+        }
+    }
+
+    /**
+     * A tile entity read before the builder exists
+     */
+    private static final class TileEntityEntry {
+
+        final int x, y, z;
+        final String nbt;
+
+        TileEntityEntry(int x, int y, int z, String nbt) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.nbt = nbt;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.joeyoey.simpleschem.capture;
+
+import com.joeyoey.simpleschem.io.CompactFormat;
+import com.joeyoey.simpleschem.io.SchematicCodec;
+import com.joeyoey.simpleschem.io.SectionedWriter;
+import com.joeyoey.simpleschem.jfr.SchematicEvents;
+import com.joeyoey.simpleschem.metrics.Phase;
+import com.joeyoey.simpleschem.metrics.SchematicMetrics;
+import com.joeyoey.simpleschem.paste.ChunkFootprint;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.util.Vector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Captures a cuboid of the world into a {@link Schematic}. The chunks of the region are snapshotted
+ * on the calling thread, which must be the main thread; reading block states and building the
+ * palette then happens on an executor, one task per chunk, and the chunks are merged into one dense
+ * store at the end. Every block of the region inside the world height is captured, air included,
+ * at positions relative to the minimum corner.
+ * <p>
+ * {@link #captureToFile} captures regions too large to hold in memory: it walks the region one file
+ * section at a time and encodes each section straight into a version 5 compact file, keeping only
+ * the few chunk snapshots around the current section.
+ */
+public final class RegionCapture {
+
+    private RegionCapture() {
+    }
+
+    /**
+     * Capture a region
+     * @param world the world to capture from
+     * @param min one corner of the region, inclusive
+     * @param max the opposite corner of the region, inclusive
+     * @param executor the executor to read the chunks on
+     * @return a future completing with the schematic, relative to the minimum corner
+     */
+    public static CompletableFuture<Schematic> capture(World world, Vector min, Vector max, Executor executor) {
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginCapture();
+        Region region = new Region(world, min, max);
+        if (region.isEmpty()) {
+            Schematic empty = new SchematicBuilder().build();
+            SchematicEvents.endCapture(event, empty, 0);
+            SchematicMetrics.record(Phase.CAPTURE, start, 0, 0);
+            return CompletableFuture.completedFuture(empty);
+        }
+
+        List<CompletableFuture<ChunkBlocks>> reads = new ArrayList<>();
+        for (int chunkX = region.minX >> 4; chunkX <= region.maxX >> 4; chunkX++) {
+            for (int chunkZ = region.minZ >> 4; chunkZ <= region.maxZ >> 4; chunkZ++) {
+                ChunkSnapshot snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+                int x0 = Math.max(region.minX, chunkX << 4);
+                int z0 = Math.max(region.minZ, chunkZ << 4);
+                int x1 = Math.min(region.maxX, (chunkX << 4) + 15);
+                int z1 = Math.min(region.maxZ, (chunkZ << 4) + 15);
+                reads.add(CompletableFuture.supplyAsync(
+                        () -> ChunkBlocks.read(snapshot, x0, region.minY, z0, x1, region.maxY, z1), executor));
+            }
+        }
+
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture[0]))
+                .thenApplyAsync(ignored -> {
+                    Schematic schematic = merge(region, reads);
+                    SchematicEvents.endCapture(event, schematic, reads.size());
+                    SchematicMetrics.record(Phase.CAPTURE, start, schematic.getBlockCount(), reads.size());
+                    return schematic;
+                }, executor);
+    }
+
+    /**
+     * Capture a region straight into a version 5 compact file. Sections are read and encoded one at
+     * a time on the worker, which asks the main thread for chunk snapshots a few section columns
+     * ahead and drops them once it has moved past them, so heap use stays at a handful of chunk
+     * snapshots and one section no matter how large the region is.
+     * @param world the world to capture from
+     * @param min one corner of the region, inclusive
+     * @param max the opposite corner of the region, inclusive
+     * @param file the file to write
+     * @param codec the codec applied to each section
+     * @param mainThread an executor running tasks on the main thread
+     * @param worker the executor to encode on; it blocks while waiting for snapshots
+     * @return a future completing once the file is written; if the capture fails it completes
+     * exceptionally and the file is left as it was
+     */
+    public static CompletableFuture<Void> captureToFile(World world, Vector min, Vector max, File file,
+                                                        SchematicCodec codec, Executor mainThread, Executor worker) {
+        Region region = new Region(world, min, max);
+        return CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            Object event = SchematicEvents.beginCapture();
+            try {
+                streamToFile(region, world, file, codec, mainThread);
+                SchematicEvents.endCapture(event, region.maxX - region.minX + 1, Math.max(0, region.maxY - region.minY + 1),
+                        region.maxZ - region.minZ + 1, region.volume(), region.chunks());
+                SchematicMetrics.record(Phase.CAPTURE, start, region.volume(), region.chunks());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, worker);
+    }
+
+    private static void streamToFile(Region region, World world, File file, SchematicCodec codec,
+                                     Executor mainThread) throws IOException {
+        int sizeX = region.maxX - region.minX + 1;
+        int sizeY = Math.max(0, region.maxY - region.minY + 1);
+        int sizeZ = region.maxZ - region.minZ + 1;
+        SectionedWriter writer = new SectionedWriter(file, codec,
+                0, region.minY - region.baseY, 0, sizeX, sizeY, sizeZ);
+        try {
+            SnapshotWindow window = new SnapshotWindow(world, region, writer, mainThread);
+            Map<BlockData, Integer> paletteIds = new HashMap<>();
+            int[] cells = new int[CompactFormat.SECTION_SIZE * CompactFormat.SECTION_SIZE * CompactFormat.SECTION_SIZE];
+
+            int columns = writer.getSectionsX() * writer.getSectionsZ();
+            for (int column = 0; column < columns; column++) {
+                int sectionX = column / writer.getSectionsZ();
+                int sectionZ = column % writer.getSectionsZ();
+                window.moveTo(column);
+                int x0 = region.minX + (sectionX << CompactFormat.SECTION_SHIFT);
+                int z0 = region.minZ + (sectionZ << CompactFormat.SECTION_SHIFT);
+                int width = writer.sectionWidth(sectionX);
+                int length = writer.sectionLength(sectionZ);
+
+                for (int sectionY = 0; sectionY < writer.getSectionsY(); sectionY++) {
+                    int y0 = region.minY + (sectionY << CompactFormat.SECTION_SHIFT);
+                    int height = writer.sectionHeight(sectionY);
+                    int cell = 0;
+                    for (int y = y0; y < y0 + height; y++) {
+                        for (int z = z0; z < z0 + length; z++) {
+                            for (int x = x0; x < x0 + width; x++, cell++) {
+                                BlockData blockData = window.get(x >> 4, z >> 4).getBlockData(x & 15, y, z & 15);
+                                Integer paletteId = paletteIds.get(blockData);
+                                if (paletteId == null) {
+                                    paletteId = writer.paletteId(blockData.getAsString());
+                                    paletteIds.put(blockData, paletteId);
+                                }
+                                cells[cell] = paletteId;
+                            }
+                        }
+                    }
+                    writer.writeSection(sectionX, sectionY, sectionZ, cells);
+                }
+            }
+        } catch (Throwable e) {
+            // Covers failed snapshots on the main thread too; the target is left as it was
+            writer.abort();
+            throw e;
+        }
+        writer.close();
+    }
+
+    private static Schematic merge(Region region, List<CompletableFuture<ChunkBlocks>> reads) {
+        SchematicBuilder builder = new SchematicBuilder(0, region.minY - region.baseY, 0,
+                region.maxX - region.minX, region.maxY - region.baseY, region.maxZ - region.minZ);
+        for (CompletableFuture<ChunkBlocks> read : reads) {
+            ChunkBlocks blocks = read.join();
+            int[] paletteIds = new int[blocks.palette.size()];
+            for (int i = 0; i < paletteIds.length; i++) {
+                paletteIds[i] = builder.paletteId(blocks.palette.get(i));
+            }
+            blocks.forEach((x, y, z, localId) -> builder.addBlock(
+                    x - region.minX, y - region.baseY, z - region.minZ, paletteIds[localId]));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Inclusive world bounds of a capture, clipped to the world height. Positions stay relative to
+     * the requested minimum corner, so clipping does not shift them.
+     */
+    static final class Region {
+
+        final int baseY;
+        final int minX, minY, minZ;
+        final int maxX, maxY, maxZ;
+
+        Region(World world, Vector a, Vector b) {
+            baseY = Math.min(a.getBlockY(), b.getBlockY());
+            minX = Math.min(a.getBlockX(), b.getBlockX());
+            minY = Math.max(0, baseY);
+            minZ = Math.min(a.getBlockZ(), b.getBlockZ());
+            maxX = Math.max(a.getBlockX(), b.getBlockX());
+            maxY = Math.min(world.getMaxHeight() - 1, Math.max(a.getBlockY(), b.getBlockY()));
+            maxZ = Math.max(a.getBlockZ(), b.getBlockZ());
+        }
+
+        boolean isEmpty() {
+            return minY > maxY;
+        }
+
+        long volume() {
+            return isEmpty() ? 0 : (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        }
+
+        int chunks() {
+            return ((maxX >> 4) - (minX >> 4) + 1) * ((maxZ >> 4) - (minZ >> 4) + 1);
+        }
+    }
+
+    /**
+     * The chunk snapshots needed by the section column being captured and the next few columns.
+     * Columns go x-major, z-minor; snapshots behind the current column are dropped, and missing
+     * ones are taken in one main thread task covering up to {@value #LOOKAHEAD} columns.
+     */
+    static final class SnapshotWindow {
+
+        static final int LOOKAHEAD = 8;
+
+        private final World world;
+        private final Region region;
+        private final SectionedWriter writer;
+        private final Executor mainThread;
+        private final Map<Long, ChunkSnapshot> snapshots = new HashMap<>();
+
+        SnapshotWindow(World world, Region region, SectionedWriter writer, Executor mainThread) {
+            this.world = world;
+            this.region = region;
+            this.writer = writer;
+            this.mainThread = mainThread;
+        }
+
+        ChunkSnapshot get(int chunkX, int chunkZ) {
+            return snapshots.get(ChunkFootprint.key(chunkX, chunkZ));
+        }
+
+        /**
+         * Drop the snapshots behind a column and make sure the column's own are held
+         */
+        void moveTo(int column) {
+            int sectionX = column / writer.getSectionsZ();
+            int sectionZ = column % writer.getSectionsZ();
+            int minChunkX = chunkX(sectionX, 0);
+            int minChunkZ = chunkZ(sectionZ, 0);
+            if (sectionZ == 0) {
+                // A new row of columns; chunks shared with the previous row are taken again
+                snapshots.clear();
+            } else {
+                snapshots.keySet().removeIf(key -> ChunkFootprint.chunkZ(key) < minChunkZ);
+            }
+
+            // Read ahead to the end of this row of columns only, the next row starts back at min z
+            List<Long> missing = new ArrayList<>();
+            int end = Math.min((sectionX + 1) * writer.getSectionsZ(), column + LOOKAHEAD);
+            for (int ahead = column; ahead < end; ahead++) {
+                int aheadZ = ahead % writer.getSectionsZ();
+                for (int chunkX = minChunkX; chunkX <= chunkX(sectionX, 1); chunkX++) {
+                    for (int chunkZ = chunkZ(aheadZ, 0); chunkZ <= chunkZ(aheadZ, 1); chunkZ++) {
+                        long key = ChunkFootprint.key(chunkX, chunkZ);
+                        if (!snapshots.containsKey(key) && !missing.contains(key)) {
+                            missing.add(key);
+                        }
+                    }
+                }
+                if (ahead == column && missing.isEmpty()) {
+                    return;
+                }
+            }
+
+            List<ChunkSnapshot> taken = CompletableFuture.supplyAsync(() -> {
+                List<ChunkSnapshot> result = new ArrayList<>(missing.size());
+                for (long key : missing) {
+                    result.add(world.getChunkAt(ChunkFootprint.chunkX(key), ChunkFootprint.chunkZ(key))
+                            .getChunkSnapshot(false, false, false));
+                }
+                return result;
+            }, mainThread).join();
+            for (int i = 0; i < missing.size(); i++) {
+                snapshots.put(missing.get(i), taken.get(i));
+            }
+        }
+
+        /**
+         * Get the chunk x of the first (end 0) or last (end 1) block of a section column
+         */
+        private int chunkX(int sectionX, int end) {
+            int x = region.minX + (sectionX << CompactFormat.SECTION_SHIFT);
+            return (end == 0 ? x : x + writer.sectionWidth(sectionX) - 1) >> 4;
+        }
+
+        private int chunkZ(int sectionZ, int end) {
+            int z = region.minZ + (sectionZ << CompactFormat.SECTION_SHIFT);
+            return (end == 0 ? z : z + writer.sectionLength(sectionZ) - 1) >> 4;
+        }
+    }
+
+    /**
+     * The blocks of one chunk column inside a region, with a palette local to the chunk. Cells run
+     * x fastest, then z, then y.
+     */
+    static final class ChunkBlocks {
+
+        final int x0, y0, z0;
+        final int sizeX, sizeY, sizeZ;
+        final List<String> palette;
+        final short[] ids;
+
+        private ChunkBlocks(int x0, int y0, int z0, int sizeX, int sizeY, int sizeZ,
+                            List<String> palette, short[] ids) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.z0 = z0;
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+            this.sizeZ = sizeZ;
+            this.palette = palette;
+            this.ids = ids;
+        }
+
+        /**
+         * Read the blocks of a snapshot between two inclusive world corners inside its chunk. Each
+         * distinct state is turned into a string once.
+         */
+        static ChunkBlocks read(ChunkSnapshot snapshot, int x0, int y0, int z0, int x1, int y1, int z1) {
+            int sizeX = x1 - x0 + 1;
+            int sizeY = y1 - y0 + 1;
+            int sizeZ = z1 - z0 + 1;
+            Map<BlockData, Integer> localIds = new HashMap<>();
+            List<String> palette = new ArrayList<>();
+            short[] ids = new short[sizeX * sizeY * sizeZ];
+
+            int cell = 0;
+            for (int y = y0; y <= y1; y++) {
+                for (int z = z0; z <= z1; z++) {
+                    for (int x = x0; x <= x1; x++, cell++) {
+                        BlockData blockData = snapshot.getBlockData(x & 15, y, z & 15);
+                        Integer localId = localIds.get(blockData);
+                        if (localId == null) {
+                            localId = palette.size();
+                            localIds.put(blockData, localId);
+                            palette.add(blockData.getAsString());
+                        }
+                        ids[cell] = (short) (int) localId;
+                    }
+                }
+            }
+            return new ChunkBlocks(x0, y0, z0, sizeX, sizeY, sizeZ, palette, ids);
+        }
+
+        /**
+         * Visit every block in cell order, with world coordinates and local palette ids
+         */
+        void forEach(BlockVisitor visitor) {
+            int cell = 0;
+            for (int y = 0; y < sizeY; y++) {
+                for (int z = 0; z < sizeZ; z++) {
+                    for (int x = 0; x < sizeX; x++, cell++) {
+                        visitor.visit(x0 + x, y0 + y, z0 + z, ids[cell]);
+                    }
+                }
+            }
+        }
+    }
+
+    interface BlockVisitor {
+        void visit(int x, int y, int z, int localId);
+    }
+}
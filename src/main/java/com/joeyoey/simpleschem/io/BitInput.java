@@ -0,0 +1,58 @@
+package com.joeyoey.simpleschem.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads values written by {@link BitOutput}
+ */
+final class BitInput {
+
+    private final InputStream in;
+    private long buffer;
+    private int bufferedBits;
+
+    BitInput(InputStream in) {
+        this.in = in;
+    }
+
+    int readBits(int bits) throws IOException {
+        if (bits == 0) {
+            return 0;
+        }
+        while (bufferedBits < bits) {
+            int next = in.read();
+            if (next < 0) {
+                throw new EOFException("Unexpected end of block stream");
+            }
+            buffer = (buffer << 8) | next;
+            bufferedBits += 8;
+        }
+        bufferedBits -= bits;
+        return (int) ((buffer >>> bufferedBits) & ((1L << bits) - 1));
+    }
+
+    boolean readBit() throws IOException {
+        return readBits(1) != 0;
+    }
+
+    int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int group = readBits(8);
+            value |= (group & 0x7F) << shift;
+            if ((group & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    /**
+     * Drop the padding bits of the current byte
+     */
+    void align() {
+        bufferedBits -= bufferedBits % 8;
+    }
+}
@@ -0,0 +1,56 @@
+package com.joeyoey.simpleschem.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes values of arbitrary bit width, most significant bit first
+ */
+final class BitOutput {
+
+    private final OutputStream out;
+    private long buffer;
+    private int bufferedBits;
+
+    BitOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    void writeBits(int value, int bits) throws IOException {
+        if (bits == 0) {
+            return;
+        }
+        buffer = (buffer << bits) | (value & ((1L << bits) - 1));
+        bufferedBits += bits;
+        while (bufferedBits >= 8) {
+            bufferedBits -= 8;
+            out.write((int) (buffer >>> bufferedBits) & 0xFF);
+        }
+    }
+
+    void writeBit(boolean bit) throws IOException {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Write an unsigned value in groups of seven bits, low group first
+     */
+    void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            writeBits((value & 0x7F) | 0x80, 8);
+            value >>>= 7;
+        }
+        writeBits(value, 8);
+    }
+
+    /**
+     * Pad the last byte with zero bits and write it out
+     */
+    void flush() throws IOException {
+        if (bufferedBits > 0) {
+            out.write((int) (buffer << (8 - bufferedBits)) & 0xFF);
+            bufferedBits = 0;
+        }
+        buffer = 0;
+    }
+}
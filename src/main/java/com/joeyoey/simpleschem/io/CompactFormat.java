@@ -0,0 +1,562 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Reader and writer for the compact .schem format.
+ * <p>
+ * Version 1 stores every block as three int coordinates and a palette id. Version 2 stores the
+ * bounding box once and walks it in a fixed order (x fastest, then z, then y), so coordinates are
+ * implicit. Each cell is written as a palette index packed to the fewest bits that fit the palette,
+ * and long runs of the same index are run-length encoded. Version 3 adds a {@link SchematicCodec} id
+ * after the version, and the version 2 body follows through that codec. Version 4 has the same header
+ * and palette, but stores every cell at a fixed bit width without run-length encoding, so a cell can
+ * be read in place; uncompressed version 4 files can be memory-mapped by {@link MappedSchematicLoader}.
+ * <p>
+ * Version 5 splits the bounding box into 16x16x16 sections, each with its own small palette and
+ * run-length encoded cells, compressed on its own. A fixed header points at a trailer holding the
+ * palette and an index of section offsets and lengths, so {@link SectionedSchematicFile} can decode
+ * only the sections a region needs. Version 5 needs random access and is read from a {@link File}.
+ * It is also the only layout that keeps tile entities: an optional section between the block
+ * sections and the palette holds a position index and the NBT payloads as raw UTF-8 bytes, which
+ * are only decoded when a tile entity is applied; the stream writers refuse schematics with tile
+ * entities rather than drop them. The palette may be followed by the number of
+ * blocks of each entry, so {@link SchematicInfo} can report them without reading any section.
+ */
+public final class CompactFormat {
+
+    public static final int MAGIC = 0x12345678;
+    public static final short VERSION_1 = 1;
+    public static final short VERSION_2 = 2;
+    public static final short VERSION_3 = 3;
+    public static final short VERSION_4 = 4;
+    public static final short VERSION_5 = 5;
+
+    /**
+     * Sections are 16 blocks along each axis
+     */
+    public static final int SECTION_SHIFT = 4;
+    public static final int SECTION_SIZE = 1 << SECTION_SHIFT;
+
+    /**
+     * Version 5 flag: the palette is followed by the number of blocks of each entry
+     */
+    static final int FLAG_PALETTE_COUNTS = 1;
+
+    /**
+     * Magic, version, codec, flags, ten header ints and three offsets
+     */
+    static final int SECTIONED_HEADER_SIZE = 72;
+
+    /**
+     * Runs shorter than this are written as literals
+     */
+    static final int MIN_RUN = 8;
+
+    private static final int BUFFER_SIZE = 8192;
+
+
+    private CompactFormat() {
+    }
+
+    /**
+     * Write a schematic in the version 3 stream layout without compression. Version 3 holds no tile
+     * entities; {@link #write(File, Schematic, SchematicCodec)} writes the latest layout.
+     * @param out the stream to write to, which is not closed
+     * @param schematic the schematic to write
+     * @throws IOException if the schematic has tile entities, which this layout cannot hold
+     */
+    public static void write(OutputStream out, Schematic schematic) throws IOException {
+        write(out, schematic, SchematicCodec.NONE);
+    }
+
+    /**
+     * Write a schematic in the version 3 stream layout. Version 3 holds no tile entities;
+     * {@link #write(File, Schematic, SchematicCodec)} writes the latest layout.
+     * @param out the stream to write to, which is not closed
+     * @param schematic the schematic to write
+     * @param codec the codec applied to everything after the header
+     * @throws IOException if the schematic has tile entities, which this layout cannot hold
+     */
+    public static void write(OutputStream out, Schematic schematic, SchematicCodec codec) throws IOException {
+        checkNoTileEntities(schematic, VERSION_3);
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeShort(VERSION_3);
+        header.writeByte(codec.getId());
+        header.flush();
+
+        try (OutputStream body = new BufferedOutputStream(codec.encode(out), BUFFER_SIZE)) {
+            DataOutputStream dos = new DataOutputStream(body);
+            writeV2Body(dos, schematic);
+            dos.flush();
+        }
+    }
+
+    /**
+     * Write a schematic in the random-access layout. Only files written with
+     * {@link SchematicCodec#NONE} can be memory-mapped.
+     * @param out the stream to write to, which is not closed
+     * @param schematic the schematic to write
+     * @param codec the codec applied to everything after the header
+     * @throws IOException if the schematic has tile entities, which this layout cannot hold
+     */
+    public static void writePacked(OutputStream out, Schematic schematic, SchematicCodec codec) throws IOException {
+        checkNoTileEntities(schematic, VERSION_4);
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeShort(VERSION_4);
+        header.writeByte(codec.getId());
+        header.flush();
+
+        try (OutputStream body = new BufferedOutputStream(codec.encode(out), BUFFER_SIZE)) {
+            DataOutputStream dos = new DataOutputStream(body);
+            writePackedBody(dos, schematic);
+            dos.flush();
+        }
+    }
+
+    /**
+     * Write a schematic in the sectioned version 5 layout, the latest one and the only one that keeps
+     * tile entities. The file is only replaced once it has been written
+     * completely; if writing fails, any existing file is left untouched.
+     * @param file the file to write, replacing any existing file
+     * @param schematic the schematic to write
+     * @param codec the codec applied to each section
+     */
+    public static void write(File file, Schematic schematic, SchematicCodec codec) throws IOException {
+        SectionedWriter writer = new SectionedWriter(file, codec,
+                schematic.getOriginX(), schematic.getOriginY(), schematic.getOriginZ(),
+                schematic.getSizeX(), schematic.getSizeY(), schematic.getSizeZ());
+        try {
+            writeSections(writer, schematic);
+        } catch (Throwable e) {
+            writer.abort();
+            throw e;
+        }
+        writer.close();
+    }
+
+    private static void writeSections(SectionedWriter writer, Schematic schematic) throws IOException {
+        writer.dimensions(schematic.getWidth(), schematic.getHeight(), schematic.getLength())
+                .tileEntities(schematic.getTileEntities());
+
+        int paletteSize = schematic.getPaletteSize();
+        int[] writerIds = new int[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            writerIds[i] = writer.paletteId(schematic.getPaletteEntry(i));
+        }
+
+        int sizeX = schematic.getSizeX();
+        int sizeZ = schematic.getSizeZ();
+        int[] cells = new int[SECTION_SIZE * SECTION_SIZE * SECTION_SIZE];
+        for (int sy = 0; sy < writer.getSectionsY(); sy++) {
+            for (int sz = 0; sz < writer.getSectionsZ(); sz++) {
+                for (int sx = 0; sx < writer.getSectionsX(); sx++) {
+                    int width = writer.sectionWidth(sx);
+                    int height = writer.sectionHeight(sy);
+                    int length = writer.sectionLength(sz);
+                    int i = 0;
+                    for (int y = 0; y < height; y++) {
+                        for (int z = 0; z < length; z++) {
+                            int cell = (((sy << SECTION_SHIFT) + y) * sizeZ + (sz << SECTION_SHIFT) + z) * sizeX
+                                    + (sx << SECTION_SHIFT);
+                            for (int x = 0; x < width; x++) {
+                                int index = schematic.getCell(cell + x);
+                                cells[i++] = index == Schematic.EMPTY ? Schematic.EMPTY : writerIds[index];
+                            }
+                        }
+                    }
+                    writer.writeSection(sx, sy, sz, cells);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a schematic file in any supported layout
+     * @param file the file to read
+     * @return the schematic
+     */
+    public static Schematic read(File file) throws IOException {
+        return read(file, version -> {
+        });
+    }
+
+    /**
+     * Read a schematic file in any supported layout, reporting the layout version it was written in
+     * @param file the file to read
+     * @param versionListener given the layout version once the schematic is read
+     * @return the schematic
+     */
+    static Schematic read(File file, IntConsumer versionListener) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE)) {
+            in.mark(6);
+            DataInputStream dis = new DataInputStream(in);
+            short version = dis.readInt() == MAGIC ? dis.readShort() : -1;
+            if (version != VERSION_5) {
+                in.reset();
+                Schematic schematic = read(in);
+                versionListener.accept(version);
+                return schematic;
+            }
+        }
+        try (SectionedSchematicFile sectioned = SectionedSchematicFile.open(file)) {
+            Schematic schematic = sectioned.readAll();
+            versionListener.accept(VERSION_5);
+            return schematic;
+        }
+    }
+
+    /**
+     * Read a schematic in any supported layout except version 5, which needs {@link #read(File)}
+     * @param in the stream to read from, which is not closed
+     * @return the schematic
+     */
+    public static Schematic read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(in);
+        int magic = dis.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("Invalid file format - wrong magic number");
+        }
+
+        short version = dis.readShort();
+        switch (version) {
+            case VERSION_1:
+                return readV1Body(dis);
+            case VERSION_2:
+                return readV2Body(dis);
+            case VERSION_3:
+            case VERSION_4:
+                SchematicCodec codec = SchematicCodec.fromId(dis.readUnsignedByte());
+                try (InputStream body = new BufferedInputStream(codec.decode(in), BUFFER_SIZE)) {
+                    DataInputStream bodyInput = new DataInputStream(body);
+                    return version == VERSION_3 ? readV2Body(bodyInput) : readPackedBody(bodyInput);
+                }
+            case VERSION_5:
+                throw new IOException("Version 5 files need random access, read them from a file");
+            default:
+                throw new IOException("Unsupported version: " + version);
+        }
+    }
+
+    /**
+     * Refuse to write a schematic with tile entities in a layout that would silently drop them,
+     * before anything is written
+     */
+    private static void checkNoTileEntities(Schematic schematic, short version) throws IOException {
+        if (schematic.hasTileEntities()) {
+            throw new IOException("Version " + version + " cannot hold the " + schematic.getTileEntities().size()
+                    + " tile entities of this schematic, write it with write(File, Schematic, SchematicCodec)");
+        }
+    }
+
+    /**
+     * Bits needed per cell for a palette of the given size, with one extra value for empty cells
+     */
+    static int bitsFor(int paletteSize) {
+        return 32 - Integer.numberOfLeadingZeros(paletteSize);
+    }
+
+    /**
+     * Write the dimensions, bounding box, block count and palette shared by the version 2, 3 and 4
+     * bodies
+     */
+    private static void writeBodyHeader(DataOutputStream dos, Schematic schematic) throws IOException {
+        dos.writeInt(schematic.getWidth());
+        dos.writeInt(schematic.getHeight());
+        dos.writeInt(schematic.getLength());
+        dos.writeInt(schematic.getOriginX());
+        dos.writeInt(schematic.getOriginY());
+        dos.writeInt(schematic.getOriginZ());
+        dos.writeInt(schematic.getSizeX());
+        dos.writeInt(schematic.getSizeY());
+        dos.writeInt(schematic.getSizeZ());
+        dos.writeInt(schematic.getBlockCount());
+
+        int paletteSize = schematic.getPaletteSize();
+        dos.writeInt(paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            writeString(dos, schematic.getPaletteEntry(i));
+        }
+    }
+
+    static BodyHeader readBodyHeader(DataInputStream dis) throws IOException {
+        BodyHeader header = readBodyFields(dis);
+        int paletteSize = dis.readInt();
+        if (paletteSize < 0 || paletteSize > Short.MAX_VALUE + 1) {
+            throw new IOException("Invalid palette size: " + paletteSize);
+        }
+        header.palette = new String[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            header.palette[i] = readString(dis);
+        }
+        return header;
+    }
+
+    /**
+     * Read the fields of a version 2, 3 or 4 body header up to the palette, which is left unread
+     */
+    static BodyHeader readBodyFields(DataInputStream dis) throws IOException {
+        BodyHeader header = new BodyHeader();
+        header.width = dis.readInt();
+        header.height = dis.readInt();
+        header.length = dis.readInt();
+        header.originX = dis.readInt();
+        header.originY = dis.readInt();
+        header.originZ = dis.readInt();
+        header.sizeX = dis.readInt();
+        header.sizeY = dis.readInt();
+        header.sizeZ = dis.readInt();
+        header.blockCount = dis.readInt();
+
+        long cells = (long) header.sizeX * header.sizeY * header.sizeZ;
+        if (header.sizeX < 0 || header.sizeY < 0 || header.sizeZ < 0 || cells > Integer.MAX_VALUE) {
+            throw new IOException("Invalid bounding box: " + header.sizeX + "x" + header.sizeY + "x" + header.sizeZ);
+        }
+        return header;
+    }
+
+    private static SchematicBuilder builderFor(BodyHeader header) {
+        SchematicBuilder builder = header.cellCount() == 0
+                ? new SchematicBuilder()
+                : new SchematicBuilder(header.originX, header.originY, header.originZ,
+                header.originX + header.sizeX - 1, header.originY + header.sizeY - 1, header.originZ + header.sizeZ - 1);
+        return builder.dimensions(header.width, header.height, header.length);
+    }
+
+    private static void writeV2Body(DataOutputStream dos, Schematic schematic) throws IOException {
+        writeBodyHeader(dos, schematic);
+
+        int paletteSize = schematic.getPaletteSize();
+        int bits = bitsFor(paletteSize);
+        dos.writeByte(bits);
+
+        // Cells are stored as palette index + 1 so that zero marks an empty cell
+        BitOutput out = new BitOutput(dos);
+        writeRuns(out, schematic.getCellCount(), cell -> schematic.getCell(cell) + 1, bits);
+        out.flush();
+    }
+
+    /**
+     * Write cell values as literal and run tokens
+     * @param out the bit stream
+     * @param cells the number of cells
+     * @param valueAt the value of a cell, zero for empty
+     * @param bits the width of a value
+     */
+    static void writeRuns(BitOutput out, int cells, IntUnaryOperator valueAt, int bits) throws IOException {
+        int cell = 0;
+        while (cell < cells) {
+            int value = valueAt.applyAsInt(cell);
+            int run = 1;
+            while (cell + run < cells && valueAt.applyAsInt(cell + run) == value) {
+                run++;
+            }
+            if (run >= MIN_RUN) {
+                out.writeBit(true);
+                out.writeBits(value, bits);
+                out.writeVarInt(run - MIN_RUN);
+            } else {
+                for (int i = 0; i < run; i++) {
+                    out.writeBit(false);
+                    out.writeBits(value, bits);
+                }
+            }
+            cell += run;
+        }
+    }
+
+    /**
+     * Read the tokens written by {@link #writeRuns}, handing every non-empty run to the visitor
+     * @param in the bit stream
+     * @param cells the number of cells
+     * @param bits the width of a value
+     * @param maxValue the largest valid value
+     * @param visitor receives the first cell, length and value of each run
+     */
+    static void readRuns(BitInput in, int cells, int bits, int maxValue, RunVisitor visitor) throws IOException {
+        int cell = 0;
+        while (cell < cells) {
+            boolean isRun = in.readBit();
+            int value = in.readBits(bits);
+            int run = isRun ? in.readVarInt() + MIN_RUN : 1;
+            if (value > maxValue || run < 1 || run > cells - cell) {
+                throw new IOException("Corrupt block stream at cell " + cell);
+            }
+            if (value != 0) {
+                visitor.run(cell, run, value);
+            }
+            cell += run;
+        }
+        in.align();
+    }
+
+    private static Schematic readV2Body(DataInputStream dis) throws IOException {
+        BodyHeader header = readBodyHeader(dis);
+        SchematicBuilder builder = builderFor(header);
+        int cells = header.cellCount();
+        int paletteSize = header.palette.length;
+        int[] builderIds = new int[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            builderIds[i] = builder.paletteId(header.palette[i]);
+        }
+
+        int bits = dis.readUnsignedByte();
+        readRuns(new BitInput(dis), cells, bits, paletteSize, (start, run, value) -> {
+            int id = builderIds[value - 1];
+            for (int cell = start; cell < start + run; cell++) {
+                header.addCell(builder, cell, id);
+            }
+        });
+
+        return builder.build();
+    }
+
+    private static void writePackedBody(DataOutputStream dos, Schematic schematic) throws IOException {
+        writeBodyHeader(dos, schematic);
+
+        int bits = bitsFor(schematic.getPaletteSize());
+        dos.writeByte(bits);
+
+        // Same cell values as version 2, at a fixed width so cell n starts at bit n * bits
+        BitOutput out = new BitOutput(dos);
+        int cells = schematic.getCellCount();
+        for (int cell = 0; cell < cells; cell++) {
+            out.writeBits(schematic.getCell(cell) + 1, bits);
+        }
+        out.flush();
+    }
+
+    private static Schematic readPackedBody(DataInputStream dis) throws IOException {
+        BodyHeader header = readBodyHeader(dis);
+        SchematicBuilder builder = builderFor(header);
+        int cells = header.cellCount();
+        int paletteSize = header.palette.length;
+        int[] builderIds = new int[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            builderIds[i] = builder.paletteId(header.palette[i]);
+        }
+
+        int bits = dis.readUnsignedByte();
+        BitInput in = new BitInput(dis);
+        for (int cell = 0; cell < cells; cell++) {
+            int value = in.readBits(bits);
+            if (value > paletteSize) {
+                throw new IOException("Corrupt block stream at cell " + cell);
+            }
+            if (value != 0) {
+                header.addCell(builder, cell, builderIds[value - 1]);
+            }
+        }
+        in.align();
+
+        return builder.build();
+    }
+
+    private static Schematic readV1Body(DataInputStream dis) throws IOException {
+        // Read dimensions
+        int width = dis.readInt();
+        int height = dis.readInt();
+        int length = dis.readInt();
+
+        // Read block palette
+        SchematicBuilder builder = new SchematicBuilder().dimensions(width, height, length);
+        Map<Short, String> palette = new HashMap<>();
+        short paletteSize = dis.readShort();
+        for (int i = 0; i < paletteSize; i++) {
+            short id = dis.readShort();
+            short blockDataLength = dis.readShort();
+            byte[] blockDataBytes = new byte[blockDataLength];
+            dis.readFully(blockDataBytes);
+            String blockData = new String(blockDataBytes, StandardCharsets.UTF_8);
+            palette.put(id, blockData);
+        }
+
+        // Read compact block data, mapping file ids to builder ids once per palette entry
+        Map<Short, Integer> builderIds = new HashMap<>();
+        int blockCount = dis.readInt();
+        for (int i = 0; i < blockCount; i++) {
+            int x = dis.readInt();
+            int y = dis.readInt();
+            int z = dis.readInt();
+            short blockId = dis.readShort();
+
+            Integer builderId = builderIds.get(blockId);
+            if (builderId == null) {
+                String blockData = palette.get(blockId);
+                if (blockData == null) {
+                    continue;
+                }
+                builderId = builder.paletteId(blockData);
+                builderIds.put(blockId, builderId);
+            }
+            builder.addBlock(x, y, z, builderId);
+        }
+
+        return builder.build();
+    }
+
+    static void writeString(DataOutputStream dos, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("String too long for the compact format: " + bytes.length + " bytes");
+        }
+        dos.writeShort(bytes.length);
+        dos.write(bytes);
+    }
+
+    static String readString(DataInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readUnsignedShort()];
+        dis.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fields shared by the version 2, 3 and 4 bodies, up to and including the palette
+     */
+    static final class BodyHeader {
+        int width;
+        int height;
+        int length;
+        int originX;
+        int originY;
+        int originZ;
+        int sizeX;
+        int sizeY;
+        int sizeZ;
+        int blockCount;
+        String[] palette;
+
+        int cellCount() {
+            return sizeX * sizeY * sizeZ;
+        }
+
+        void addCell(SchematicBuilder builder, int cell, int paletteId) {
+            int x = cell % sizeX;
+            int z = (cell / sizeX) % sizeZ;
+            int y = cell / (sizeX * sizeZ);
+            builder.addBlock(originX + x, originY + y, originZ + z, paletteId);
+        }
+    }
+
+    interface RunVisitor {
+        void run(int start, int length, int value) throws IOException;
+    }
+}
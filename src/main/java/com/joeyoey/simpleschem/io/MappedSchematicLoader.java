@@ -0,0 +1,113 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.TileEntityStore;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads compact schematics by memory-mapping the file. For uncompressed version 4 files the
+ * returned schematic reads its cells straight from the mapping, so only the pages a paste touches
+ * are ever read from disk. The header and the length of the block stream are checked up front;
+ * a cell pointing past the palette throws {@link IllegalStateException} when it is read. Other
+ * files are read the regular way.
+ */
+public final class MappedSchematicLoader {
+
+    private static final Logger LOGGER = Logger.getLogger(MappedSchematicLoader.class.getName());
+
+    private static final int HEADER_SIZE = 7; // magic, version, codec
+
+
+    private MappedSchematicLoader() {
+    }
+
+    /**
+     * Load a schematic, mapping it when the file layout allows
+     * @param file the file to load
+     * @return the schematic
+     * @throws IOException if the file cannot be read, or its header is corrupt or its block stream
+     * truncated
+     */
+    public static Schematic load(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + size + " bytes");
+            }
+            if (size < HEADER_SIZE) {
+                throw new IOException("Invalid file format - file too short");
+            }
+
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != CompactFormat.MAGIC) {
+                throw new IOException("Invalid file format - wrong magic number");
+            }
+            short version = buffer.getShort(4);
+            int codec = buffer.get(6) & 0xFF;
+            if (version != CompactFormat.VERSION_4 || codec != SchematicCodec.ID_NONE) {
+                LOGGER.log(Level.FINE, "Schematic {0} is version {1} with codec {2}, reading it without mapping",
+                        new Object[]{file, version, codec});
+                return CompactFormat.read(file);
+            }
+
+            ByteBuffer body = buffer.duplicate();
+            body.position(HEADER_SIZE);
+            DataInputStream dis = new DataInputStream(new ByteBufferInputStream(body));
+            CompactFormat.BodyHeader header = CompactFormat.readBodyHeader(dis);
+            int bits = body.get() & 0xFF;
+            if (bits > 16) {
+                throw new IOException("Invalid cell width: " + bits);
+            }
+
+            int cells = header.cellCount();
+            long streamBytes = ((long) cells * bits + 7) / 8;
+            if (body.remaining() < streamBytes) {
+                throw new IOException("Block stream truncated: " + body.remaining() + " of " + streamBytes + " bytes");
+            }
+
+            PackedBlockStore store = new PackedBlockStore(buffer, body.position(), bits, cells, header.palette.length);
+            return new Schematic(header.palette, store,
+                    header.originX, header.originY, header.originZ,
+                    header.sizeX, header.sizeY, header.sizeZ, header.blockCount,
+                    TileEntityStore.EMPTY, header.width, header.height, header.length);
+        }
+    }
+
+    /**
+     * Reads from a buffer by advancing its position
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+    }
+}
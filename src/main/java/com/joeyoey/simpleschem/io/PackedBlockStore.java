@@ -0,0 +1,68 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.BlockStore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Block store reading fixed-width cells in place from a buffer, as written by
+ * {@link CompactFormat#writePacked}. Only absolute reads are used, so one buffer can serve
+ * concurrent readers. Cells are checked against the palette as they are read, so a corrupt cell
+ * fails with a message instead of indexing past the palette.
+ */
+final class PackedBlockStore implements BlockStore {
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int limit;
+    private final int bits;
+    private final int mask;
+    private final int cells;
+    private final int paletteSize;
+
+    PackedBlockStore(ByteBuffer buffer, int offset, int bits, int cells, int paletteSize) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.limit = buffer.limit();
+        this.bits = bits;
+        this.mask = (1 << bits) - 1;
+        this.cells = cells;
+        this.paletteSize = paletteSize;
+    }
+
+    @Override
+    public long getHeapBytes() {
+        // Mapped buffers live outside the heap
+        return buffer.isDirect() ? 0 : buffer.capacity();
+    }
+
+    @Override
+    public int size() {
+        return cells;
+    }
+
+    @Override
+    public int get(int cell) {
+        if (bits == 0) {
+            return -1;
+        }
+        long bitPosition = (long) cell * bits;
+        int index = offset + (int) (bitPosition >>> 3);
+        int shift = (int) (bitPosition & 7);
+
+        // A cell of up to 16 bits spans at most three bytes
+        int word = (buffer.get(index) & 0xFF) << 16;
+        if (index + 1 < limit) {
+            word |= (buffer.get(index + 1) & 0xFF) << 8;
+        }
+        if (index + 2 < limit) {
+            word |= buffer.get(index + 2) & 0xFF;
+        }
+        int paletteIndex = ((word >>> (24 - shift - bits)) & mask) - 1;
+        if (paletteIndex >= paletteSize) {
+            throw new IllegalStateException("Corrupt block stream at cell " + cell + ": palette index "
+                    + paletteIndex + " of " + paletteSize);
+        }
+        return paletteIndex;
+    }
+}
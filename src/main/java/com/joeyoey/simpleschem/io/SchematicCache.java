@@ -0,0 +1,265 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.jfr.SchematicEvents;
+import com.joeyoey.simpleschem.metrics.Phase;
+import com.joeyoey.simpleschem.metrics.SchematicMetrics;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Cache of schematics loaded with {@link CompactFormat#read(File)}, keyed by path. Entries are
+ * evicted least recently used first once the {@link Schematic#getEstimatedByteSize() estimated
+ * size} of the loaded schematics passes the cap, and are dropped when the file's modification
+ * time or size changes. Concurrent requests for a file share one load, and only loads that read
+ * the file are reported to {@link SchematicMetrics} as {@link Phase#LOAD} and emit a load event.
+ * Thread-safe.
+ * <p>
+ * Cached schematics are shared between callers and must not be modified.
+ */
+public final class SchematicCache {
+
+    private final long maxBytes;
+    private final Executor executor;
+    private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long retainedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache loading on the common fork-join pool
+     * @param maxBytes the estimated size the loaded schematics are kept under
+     */
+    public SchematicCache(long maxBytes) {
+        this(maxBytes, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param maxBytes the estimated size the loaded schematics are kept under
+     * @param executor the executor {@link #getAsync(File)} loads on
+     */
+    public SchematicCache(long maxBytes, Executor executor) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.executor = executor;
+    }
+
+    /**
+     * Get a schematic, loading it on the calling thread on a miss. A load already running for
+     * the file is waited for rather than repeated.
+     * @param file the file to load
+     * @return the shared schematic
+     * @throws IOException if the file cannot be read
+     */
+    public Schematic get(File file) throws IOException {
+        try {
+            return load(file, Runnable::run).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get a schematic, loading it on the cache's executor on a miss. Only the file's attributes
+     * are read on the calling thread.
+     * @param file the file to load
+     * @return a future completing with the shared schematic, or exceptionally if the file cannot
+     * be read
+     */
+    public CompletableFuture<Schematic> getAsync(File file) {
+        return load(file, executor);
+    }
+
+    private CompletableFuture<Schematic> load(File file, Executor loader) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            invalidate(file);
+            CompletableFuture<Schematic> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+
+        Entry entry;
+        boolean miss = false;
+        synchronized (entries) {
+            entry = entries.get(path);
+            if (entry != null && (entry.modified != modified || entry.size != size)) {
+                remove(path);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(modified, size);
+                entries.put(path, entry);
+                miss = true;
+            }
+        }
+
+        if (miss) {
+            misses.increment();
+            Entry loading = entry;
+            try {
+                loader.execute(() -> complete(path, loading));
+            } catch (Throwable e) {
+                // A rejected or failed load must not leave an entry every later request waits on
+                fail(path, loading, e);
+                if (e instanceof Error) {
+                    throw (Error) e;
+                }
+            }
+        } else {
+            hits.increment();
+        }
+        // Hand out a dependent stage so callers cannot complete the shared future
+        return entry.future.thenApply(Function.identity());
+    }
+
+    private void complete(Path path, Entry entry) {
+        Schematic schematic = null;
+        long start = System.nanoTime();
+        Object event = SchematicEvents.beginLoad();
+        try {
+            schematic = CompactFormat.read(path.toFile());
+            SchematicMetrics.record(Phase.LOAD, start, schematic.getBlockCount(), 0);
+        } catch (Throwable e) {
+            fail(path, entry, e);
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            return;
+        } finally {
+            SchematicEvents.endLoad(event, path.toString(), entry.size, schematic);
+        }
+
+        synchronized (entries) {
+            // Only account for the entry if it was not invalidated while loading
+            if (entries.get(path) == entry) {
+                entry.bytes = schematic.getEstimatedByteSize();
+                entry.loaded = true;
+                retainedBytes += entry.bytes;
+                trim();
+            }
+        }
+        entry.future.complete(schematic);
+    }
+
+    private void fail(Path path, Entry entry, Throwable cause) {
+        synchronized (entries) {
+            entries.remove(path, entry);
+        }
+        entry.future.completeExceptionally(cause);
+    }
+
+    /**
+     * Evict the least recently used loaded entries until the cache fits its cap
+     */
+    private void trim() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (retainedBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.loaded) {
+                iterator.remove();
+                retainedBytes -= entry.bytes;
+                evictions.increment();
+            }
+        }
+    }
+
+    private void remove(Path path) {
+        Entry removed = entries.remove(path);
+        if (removed != null && removed.loaded) {
+            retainedBytes -= removed.bytes;
+        }
+    }
+
+    /**
+     * Drop a file from the cache. A load in progress still completes for its callers.
+     */
+    public void invalidate(File file) {
+        synchronized (entries) {
+            remove(file.toPath().toAbsolutePath().normalize());
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            retainedBytes = 0;
+        }
+    }
+
+    /**
+     * @return the number of entries, including loads in progress
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the estimated size of the loaded schematics held
+     */
+    public long getRetainedBytes() {
+        synchronized (entries) {
+            return retainedBytes;
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of requests served by a loaded or loading entry
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static final class Entry {
+
+        final long modified;
+        final long size;
+        final CompletableFuture<Schematic> future = new CompletableFuture<>();
+        long bytes; // guarded by the entries lock, set once loaded
+        boolean loaded;
+
+        Entry(long modified, long size) {
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.joeyoey.simpleschem.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression applied to the body of a schematic file. The codec id is stored in the file header;
+ * the level only matters when writing.
+ */
+public final class SchematicCodec {
+
+    public static final byte ID_NONE = 0;
+    public static final byte ID_DEFLATE = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * No compression, the body is stored as is
+     */
+    public static final SchematicCodec NONE = new SchematicCodec(ID_NONE, 0);
+
+    /**
+     * Deflate tuned for speed, a good default for files that are loaded often
+     */
+    public static final SchematicCodec FAST = new SchematicCodec(ID_DEFLATE, Deflater.BEST_SPEED);
+
+    /**
+     * Deflate at the zlib default level
+     */
+    public static final SchematicCodec DEFLATE = new SchematicCodec(ID_DEFLATE, 6);
+
+    /**
+     * Deflate at the smallest size, for archives and copying between nodes
+     */
+    public static final SchematicCodec SMALLEST = new SchematicCodec(ID_DEFLATE, Deflater.BEST_COMPRESSION);
+
+
+    private final byte id;
+    private final int level;
+
+    private SchematicCodec(byte id, int level) {
+        this.id = id;
+        this.level = level;
+    }
+
+    /**
+     * Get a deflate codec at the given level
+     * @param level the compression level, from 1 (fastest) to 9 (smallest)
+     * @return the codec
+     */
+    public static SchematicCodec deflate(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Deflate level must be between 1 and 9: " + level);
+        }
+        return new SchematicCodec(ID_DEFLATE, level);
+    }
+
+    /**
+     * Get the codec used to read a body with the given id
+     */
+    public static SchematicCodec fromId(int id) throws IOException {
+        switch (id) {
+            case ID_NONE:
+                return NONE;
+            case ID_DEFLATE:
+                return DEFLATE;
+            default:
+                throw new IOException("Unknown codec: " + id);
+        }
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Wrap a stream so that everything written to it is encoded. Closing the returned stream finishes
+     * the encoding but leaves {@code out} open.
+     */
+    public OutputStream encode(OutputStream out) {
+        if (id == ID_NONE) {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.flush();
+                }
+            };
+        }
+
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    finish();
+                    out.flush();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap a stream so that everything read from it is decoded. Closing the returned stream releases
+     * the decoder but leaves {@code in} open.
+     */
+    public InputStream decode(InputStream in) {
+        if (id == ID_NONE) {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return in.read(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    // leave the underlying stream open
+                }
+            };
+        }
+
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() {
+                inflater.end();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return id == ID_NONE ? "none" : "deflate(" + level + ")";
+    }
+
+    /**
+     * Get a coder for many small independent blocks, such as the sections of a version 5 file. The
+     * coder reuses one compressor for every block and must be closed.
+     */
+    BlockCoder blockCoder() {
+        return new BlockCoder();
+    }
+
+    /**
+     * Encodes or decodes whole blocks into a reused output buffer. A coder is not thread-safe.
+     */
+    final class BlockCoder implements Closeable {
+
+        private Deflater deflater;
+        private Inflater inflater;
+        private byte[] output = new byte[4096];
+
+        private BlockCoder() {
+        }
+
+        /**
+         * Encode a block
+         * @return the number of bytes written to {@link #output()}
+         */
+        int encode(byte[] data, int length) {
+            if (id == ID_NONE) {
+                return copy(data, 0, length);
+            }
+            if (deflater == null) {
+                deflater = new Deflater(level);
+            }
+            deflater.reset();
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            int count = 0;
+            while (!deflater.finished()) {
+                if (count == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                count += deflater.deflate(output, count, output.length - count);
+            }
+            return count;
+        }
+
+        /**
+         * Decode a block
+         * @return the number of bytes written to {@link #output()}
+         */
+        int decode(byte[] data, int offset, int length) throws IOException {
+            if (id == ID_NONE) {
+                return copy(data, offset, length);
+            }
+            if (inflater == null) {
+                inflater = new Inflater();
+            }
+            inflater.reset();
+            inflater.setInput(data, offset, length);
+            int count = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (count == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    int inflated = inflater.inflate(output, count, output.length - count);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated compressed block");
+                    }
+                    count += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt compressed block", e);
+            }
+            return count;
+        }
+
+        /**
+         * The buffer holding the result of the last call, valid until the next one
+         */
+        byte[] output() {
+            return output;
+        }
+
+        private int copy(byte[] data, int offset, int length) {
+            if (output.length < length) {
+                output = new byte[length];
+            }
+            System.arraycopy(data, offset, output, 0, length);
+            return length;
+        }
+
+        @Override
+        public void close() {
+            if (deflater != null) {
+                deflater.end();
+            }
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+}
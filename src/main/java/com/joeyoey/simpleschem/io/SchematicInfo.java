@@ -0,0 +1,266 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The header and palette of a compact schematic file: dimensions, bounding box, block count and
+ * palette entries, read without decoding any blocks. Version 5 files written by
+ * {@link SectionedWriter} also store the number of blocks of each palette entry. Version 1 files
+ * do not record a bounding box, so it reads as empty.
+ */
+public final class SchematicInfo {
+
+    private static final int BUFFER_SIZE = 512;
+
+    private final File file;
+    private final int version;
+    private final int width;
+    private final int height;
+    private final int length;
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int blockCount;
+    private final String[] palette;
+    private final int[] paletteCounts; // null when the file does not store them
+
+    private SchematicInfo(File file, int version, CompactFormat.BodyHeader header, int[] paletteCounts) {
+        this.file = file;
+        this.version = version;
+        this.width = header.width;
+        this.height = header.height;
+        this.length = header.length;
+        this.originX = header.originX;
+        this.originY = header.originY;
+        this.originZ = header.originZ;
+        this.sizeX = header.sizeX;
+        this.sizeY = header.sizeY;
+        this.sizeZ = header.sizeZ;
+        this.blockCount = header.blockCount;
+        this.palette = header.palette;
+        this.paletteCounts = paletteCounts;
+    }
+
+    /**
+     * Read the header and palette of a compact file in any supported layout
+     * @param file the file to read
+     * @return the header
+     */
+    public static SchematicInfo read(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE)) {
+            DataInputStream dis = new DataInputStream(in);
+            if (dis.readInt() != CompactFormat.MAGIC) {
+                throw new IOException("Invalid file format - wrong magic number");
+            }
+            short version = dis.readShort();
+            switch (version) {
+                case CompactFormat.VERSION_1:
+                    return new SchematicInfo(file, version, readV1Header(dis), null);
+                case CompactFormat.VERSION_2:
+                    return new SchematicInfo(file, version, CompactFormat.readBodyHeader(dis), null);
+                case CompactFormat.VERSION_3:
+                case CompactFormat.VERSION_4:
+                    SchematicCodec codec = SchematicCodec.fromId(dis.readUnsignedByte());
+                    // Only the start of the body is decoded
+                    try (InputStream body = codec.decode(in)) {
+                        return new SchematicInfo(file, version, CompactFormat.readBodyHeader(new DataInputStream(body)), null);
+                    }
+                case CompactFormat.VERSION_5:
+                    dis.readUnsignedByte(); // codec
+                    int flags = dis.readUnsignedByte();
+                    CompactFormat.BodyHeader header = CompactFormat.readBodyFields(dis);
+                    long paletteOffset = dis.readLong();
+                    long indexOffset = dis.readLong();
+                    return readSectionedPalette(file, header, flags, paletteOffset, indexOffset);
+                default:
+                    throw new IOException("Unsupported version: " + version);
+            }
+        }
+    }
+
+    /**
+     * Describe a schematic already decoded from a file, without reading the file again. The palette
+     * counts of version 5 files are counted from the cells, and version 1 files report the bounding
+     * box of their blocks.
+     * @param file the file the schematic was read from
+     * @param version the layout version of the file
+     * @param schematic the decoded schematic
+     * @return the header
+     */
+    static SchematicInfo of(File file, int version, Schematic schematic) {
+        CompactFormat.BodyHeader header = new CompactFormat.BodyHeader();
+        header.width = schematic.getWidth();
+        header.height = schematic.getHeight();
+        header.length = schematic.getLength();
+        header.originX = schematic.getOriginX();
+        header.originY = schematic.getOriginY();
+        header.originZ = schematic.getOriginZ();
+        header.sizeX = schematic.getSizeX();
+        header.sizeY = schematic.getSizeY();
+        header.sizeZ = schematic.getSizeZ();
+        header.blockCount = schematic.getBlockCount();
+        header.palette = new String[schematic.getPaletteSize()];
+        for (int i = 0; i < header.palette.length; i++) {
+            header.palette[i] = schematic.getPaletteEntry(i);
+        }
+        int[] counts = null;
+        if (version == CompactFormat.VERSION_5) {
+            counts = new int[header.palette.length];
+            for (int cell = 0; cell < schematic.getCellCount(); cell++) {
+                int index = schematic.getCell(cell);
+                if (index != Schematic.EMPTY) {
+                    counts[index]++;
+                }
+            }
+        }
+        return new SchematicInfo(file, version, header, counts);
+    }
+
+    /**
+     * Read the palette of a version 5 file from its trailer, with the block counts if stored
+     */
+    private static SchematicInfo readSectionedPalette(File file, CompactFormat.BodyHeader header, int flags,
+                                                      long paletteOffset, long indexOffset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long paletteLength = indexOffset - paletteOffset;
+            if (paletteOffset < CompactFormat.SECTIONED_HEADER_SIZE || paletteLength < 4
+                    || paletteLength > Integer.MAX_VALUE || indexOffset > channel.size()) {
+                throw new IOException("Invalid palette at " + paletteOffset);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) paletteLength);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, paletteOffset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file in the palette");
+                }
+            }
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+            int paletteSize = dis.readInt();
+            if (paletteSize < 0 || paletteSize > Short.MAX_VALUE + 1) {
+                throw new IOException("Invalid palette size: " + paletteSize);
+            }
+            header.palette = new String[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                header.palette[i] = CompactFormat.readString(dis);
+            }
+            int[] counts = null;
+            if ((flags & CompactFormat.FLAG_PALETTE_COUNTS) != 0) {
+                counts = new int[paletteSize];
+                for (int i = 0; i < paletteSize; i++) {
+                    counts[i] = dis.readInt();
+                }
+            }
+            return new SchematicInfo(file, CompactFormat.VERSION_5, header, counts);
+        }
+    }
+
+    private static CompactFormat.BodyHeader readV1Header(DataInputStream dis) throws IOException {
+        CompactFormat.BodyHeader header = new CompactFormat.BodyHeader();
+        header.width = dis.readInt();
+        header.height = dis.readInt();
+        header.length = dis.readInt();
+        // Palette ids are arbitrary in version 1, entries are kept in file order
+        short paletteSize = dis.readShort();
+        if (paletteSize < 0) {
+            throw new IOException("Invalid palette size: " + paletteSize);
+        }
+        header.palette = new String[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            dis.readShort();
+            byte[] bytes = new byte[dis.readUnsignedShort()];
+            dis.readFully(bytes);
+            header.palette[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        header.blockCount = dis.readInt();
+        return header;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the layout version the file was written with
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginY() {
+        return originY;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getPaletteSize() {
+        return palette.length;
+    }
+
+    public String getPaletteEntry(int paletteIndex) {
+        return palette[paletteIndex];
+    }
+
+    /**
+     * Whether the file stores the number of blocks of each palette entry
+     */
+    public boolean hasPaletteCounts() {
+        return paletteCounts != null;
+    }
+
+    /**
+     * Get the number of blocks of a palette entry, as stored in the file
+     * @param paletteIndex the palette index
+     * @return the block count, or -1 if the file does not store counts
+     */
+    public int getPaletteCount(int paletteIndex) {
+        return paletteCounts == null ? -1 : paletteCounts[paletteIndex];
+    }
+}
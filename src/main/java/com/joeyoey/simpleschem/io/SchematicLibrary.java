@@ -0,0 +1,231 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The compact schematics of a directory, indexed in parallel. Loading reads only the header of
+ * most files; schematics marked hot are fully decoded and kept, and the rest are decoded through a
+ * {@link SchematicCache} when first asked for. A reload builds a new index and swaps it in once
+ * every file is read, so lookups keep seeing the previous index until then. Work runs on a
+ * fork-join pool owned by the library, which {@link #close()} shuts down.
+ * <p>
+ * Schematics are named by their path relative to the directory, with '/' separators and without
+ * the {@value #EXTENSION} extension.
+ */
+public final class SchematicLibrary implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(SchematicLibrary.class.getName());
+
+    public static final String EXTENSION = ".schem";
+
+    private final File directory;
+    private final SchematicCache cache;
+    private final ForkJoinPool pool;
+    private volatile Map<String, Entry> entries = Collections.emptyMap();
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger loaded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param directory the directory to scan, including its subdirectories
+     * @param cache the cache that decodes schematics not marked hot
+     * @param parallelism the number of files read at once
+     */
+    public SchematicLibrary(File directory, SchematicCache cache, int parallelism) {
+        this.directory = directory;
+        this.cache = cache;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Scan the directory and index every file, replacing what an earlier load found
+     * @param hot the names of the schematics to decode now and keep in memory
+     * @return a future completing once every file is indexed
+     */
+    public CompletableFuture<Void> load(Collection<String> hot) {
+        return load(hot, null);
+    }
+
+    /**
+     * Scan the directory and index every file, replacing what an earlier load found
+     * @param hot the names of the schematics to decode now and keep in memory
+     * @param listener called on a pool thread as each file finishes, or null
+     * @return a future completing once every file is indexed and the new index is in use. Files
+     * that fail to read are logged and left out rather than failing the load.
+     */
+    public CompletableFuture<Void> load(Collection<String> hot, ProgressListener listener) {
+        Set<String> hotNames = new HashSet<>(hot);
+        return CompletableFuture.supplyAsync(this::scan, pool).thenCompose(files -> {
+            total.set(files.size());
+            loaded.set(0);
+            failed.set(0);
+
+            Map<String, Entry> index = new ConcurrentHashMap<>();
+            CompletableFuture<?>[] tasks = new CompletableFuture<?>[files.size()];
+            for (int i = 0; i < tasks.length; i++) {
+                Path path = files.get(i);
+                tasks[i] = CompletableFuture.runAsync(() -> index(path, index, hotNames, listener), pool);
+            }
+            return CompletableFuture.allOf(tasks).thenRun(() -> entries = index);
+        });
+    }
+
+    private List<Path> scan() {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(EXTENSION))
+                    .filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void index(Path path, Map<String, Entry> index, Set<String> hot, ProgressListener listener) {
+        String name = nameOf(path);
+        File file = path.toFile();
+        try {
+            if (hot.contains(name)) {
+                // The header is taken from the decoded schematic rather than read again
+                int[] version = new int[1];
+                Schematic schematic = CompactFormat.read(file, read -> version[0] = read);
+                index.put(name, new Entry(SchematicInfo.of(file, version[0], schematic), schematic));
+            } else {
+                index.put(name, new Entry(SchematicInfo.read(file), null));
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.log(Level.SEVERE, "Failed to index schematic " + path, e);
+        }
+        int done = loaded.incrementAndGet();
+        if (listener != null) {
+            listener.progress(done, total.get());
+        }
+    }
+
+    private String nameOf(Path path) {
+        String relative = directory.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+        return relative.substring(0, relative.length() - EXTENSION.length());
+    }
+
+    /**
+     * @return the names of the indexed schematics
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * @return the header of a schematic, or null if there is none by that name
+     */
+    public SchematicInfo getInfo(String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? null : entry.info;
+    }
+
+    public boolean isHot(String name) {
+        Entry entry = entries.get(name);
+        return entry != null && entry.schematic != null;
+    }
+
+    /**
+     * Get a schematic, decoding it on the calling thread if it is not hot and not cached
+     * @param name the schematic name
+     * @return the shared schematic, which must not be modified, or null if there is none by that name
+     * @throws IOException if the file cannot be read
+     */
+    public Schematic get(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        return entry.schematic != null ? entry.schematic : cache.get(entry.info.getFile());
+    }
+
+    /**
+     * Get a schematic, decoding it on the library's pool if it is not hot and not cached
+     * @param name the schematic name
+     * @return a future completing with the shared schematic, or null if there is none by that name
+     */
+    public CompletableFuture<Schematic> getAsync(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (entry.schematic != null) {
+            return CompletableFuture.completedFuture(entry.schematic);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache.get(entry.info.getFile());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+    }
+
+    /**
+     * @return the number of files found by the last load
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return the number of files the last load has finished, including failed ones
+     */
+    public int getLoaded() {
+        return loaded.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Receives the progress of a load
+     */
+    public interface ProgressListener {
+        void progress(int done, int total);
+    }
+
+    private static final class Entry {
+
+        final SchematicInfo info;
+        final Schematic schematic; // kept for hot schematics only
+
+        Entry(SchematicInfo info, Schematic schematic) {
+            this.info = info;
+            this.schematic = schematic;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An open version 5 compact file. Opening reads the header, palette and section index; blocks and
+ * tile entities are only read when asked for, and {@link #readRegion} reads and decodes just the sections that
+ * intersect the region. Instances are not thread-safe.
+ */
+public final class SectionedSchematicFile implements Closeable {
+
+    /**
+     * Adjacent sections are read together up to this many bytes
+     */
+    private static final int MAX_READ = 1 << 20;
+
+    private final FileChannel channel;
+    private final SchematicCodec codec;
+
+    private final int width;
+    private final int height;
+    private final int length;
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int blockCount;
+    private final String[] palette;
+    private final long tileOffset;
+    private final int tileEntityCount;
+
+    private final int sectionsX;
+    private final int sectionsY;
+    private final int sectionsZ;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private SectionedSchematicFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long fileSize = channel.size();
+
+        ByteBuffer header = readAt(0, CompactFormat.SECTIONED_HEADER_SIZE);
+        if (header.getInt() != CompactFormat.MAGIC) {
+            throw new IOException("Invalid file format - wrong magic number");
+        }
+        short version = header.getShort();
+        if (version != CompactFormat.VERSION_5) {
+            throw new IOException("Not a sectioned schematic, version " + version);
+        }
+        this.codec = SchematicCodec.fromId(header.get() & 0xFF);
+        header.get(); // flags, the palette counts are not needed here
+        this.width = header.getInt();
+        this.height = header.getInt();
+        this.length = header.getInt();
+        this.originX = header.getInt();
+        this.originY = header.getInt();
+        this.originZ = header.getInt();
+        this.sizeX = header.getInt();
+        this.sizeY = header.getInt();
+        this.sizeZ = header.getInt();
+        this.blockCount = header.getInt();
+        long paletteOffset = header.getLong();
+        long indexOffset = header.getLong();
+        this.tileOffset = header.getLong();
+
+        long cells = (long) sizeX * sizeY * sizeZ;
+        if (sizeX < 0 || sizeY < 0 || sizeZ < 0 || cells > Integer.MAX_VALUE) {
+            throw new IOException("Invalid bounding box: " + sizeX + "x" + sizeY + "x" + sizeZ);
+        }
+        this.sectionsX = sections(sizeX);
+        this.sectionsY = sections(sizeY);
+        this.sectionsZ = sections(sizeZ);
+        int sectionCount = sectionsX * sectionsY * sectionsZ;
+
+        if (paletteOffset < CompactFormat.SECTIONED_HEADER_SIZE || indexOffset < paletteOffset
+                || indexOffset + sectionCount * 12L > fileSize) {
+            throw new IOException("Invalid section index at " + indexOffset);
+        }
+
+        if (tileOffset != 0) {
+            if (tileOffset < CompactFormat.SECTIONED_HEADER_SIZE || tileOffset + 8 > paletteOffset) {
+                throw new IOException("Invalid tile entity section at " + tileOffset);
+            }
+            this.tileEntityCount = readAt(tileOffset, 4).getInt();
+            if (tileEntityCount < 0) {
+                throw new IOException("Invalid tile entity count: " + tileEntityCount);
+            }
+        } else {
+            this.tileEntityCount = 0;
+        }
+
+        DataInputStream paletteInput = new DataInputStream(new ByteArrayInputStream(
+                readAt(paletteOffset, (int) Math.min(indexOffset - paletteOffset, Integer.MAX_VALUE)).array()));
+        int paletteSize = paletteInput.readInt();
+        if (paletteSize < 0 || paletteSize > Short.MAX_VALUE + 1) {
+            throw new IOException("Invalid palette size: " + paletteSize);
+        }
+        this.palette = new String[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            palette[i] = CompactFormat.readString(paletteInput);
+        }
+
+        this.offsets = new long[sectionCount];
+        this.lengths = new int[sectionCount];
+        ByteBuffer index = readAt(indexOffset, sectionCount * 12);
+        for (int i = 0; i < sectionCount; i++) {
+            offsets[i] = index.getLong();
+            lengths[i] = index.getInt();
+            if (lengths[i] < 0 || (lengths[i] > 0 && (offsets[i] < CompactFormat.SECTIONED_HEADER_SIZE
+                    || offsets[i] + lengths[i] > (tileOffset != 0 ? tileOffset : paletteOffset)))) {
+                throw new IOException("Invalid section " + i + " at " + offsets[i] + " with " + lengths[i] + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Open a version 5 file, reading its header, palette and section index
+     * @param file the file to open
+     * @return the open file, which must be closed
+     */
+    public static SectionedSchematicFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new SectionedSchematicFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read every block
+     * @return the whole schematic
+     */
+    public Schematic readAll() throws IOException {
+        return read(originX, originY, originZ, originX + sizeX - 1, originY + sizeY - 1, originZ + sizeZ - 1,
+                width, height, length, true);
+    }
+
+    /**
+     * Read the blocks inside a box, reading only the sections that intersect it. Blocks keep their
+     * coordinates, so the result pastes into the same place as the part of the whole schematic it
+     * was cut from. The dimensions of the result are those of the box clipped to the bounding box.
+     * @param minX the lowest x of the box, inclusive
+     * @param minY the lowest y of the box, inclusive
+     * @param minZ the lowest z of the box, inclusive
+     * @param maxX the highest x of the box, inclusive
+     * @param maxY the highest y of the box, inclusive
+     * @param maxZ the highest z of the box, inclusive
+     * @return the blocks inside the box
+     */
+    public Schematic readRegion(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) throws IOException {
+        int fromX = Math.max(minX, originX);
+        int fromY = Math.max(minY, originY);
+        int fromZ = Math.max(minZ, originZ);
+        int toX = Math.min(maxX, originX + sizeX - 1);
+        int toY = Math.min(maxY, originY + sizeY - 1);
+        int toZ = Math.min(maxZ, originZ + sizeZ - 1);
+        if (fromX > toX || fromY > toY || fromZ > toZ) {
+            return new SchematicBuilder().dimensions(0, 0, 0).build();
+        }
+        return read(fromX, fromY, fromZ, toX, toY, toZ, toX - fromX + 1, toY - fromY + 1, toZ - fromZ + 1, false);
+    }
+
+    /**
+     * Read the blocks inside a box, and the tile entities inside it or, for the whole file, all of them
+     */
+    private Schematic read(int fromX, int fromY, int fromZ, int toX, int toY, int toZ,
+                           int width, int height, int length, boolean wholeFile) throws IOException {
+        boolean empty = sizeX == 0 || sizeY == 0 || sizeZ == 0;
+        SchematicBuilder builder = empty
+                ? new SchematicBuilder()
+                : new SchematicBuilder(fromX, fromY, fromZ, toX, toY, toZ);
+        builder.dimensions(width, height, length);
+        if (wholeFile) {
+            readTileEntities(builder, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE,
+                    Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        } else {
+            readTileEntities(builder, fromX, fromY, fromZ, toX, toY, toZ);
+        }
+        if (empty) {
+            return builder.build();
+        }
+        int[] builderIds = new int[palette.length];
+        Arrays.fill(builderIds, -1);
+
+        int minSX = (fromX - originX) >> CompactFormat.SECTION_SHIFT;
+        int minSY = (fromY - originY) >> CompactFormat.SECTION_SHIFT;
+        int minSZ = (fromZ - originZ) >> CompactFormat.SECTION_SHIFT;
+        int maxSX = (toX - originX) >> CompactFormat.SECTION_SHIFT;
+        int maxSY = (toY - originY) >> CompactFormat.SECTION_SHIFT;
+        int maxSZ = (toZ - originZ) >> CompactFormat.SECTION_SHIFT;
+
+        try (SchematicCodec.BlockCoder coder = codec.blockCoder()) {
+            for (int sy = minSY; sy <= maxSY; sy++) {
+                for (int sz = minSZ; sz <= maxSZ; sz++) {
+                    // Sections along x are usually stored back to back, so read them in one go
+                    int sx = minSX;
+                    while (sx <= maxSX) {
+                        int first = sectionIndex(sx, sy, sz);
+                        if (lengths[first] == 0) {
+                            sx++;
+                            continue;
+                        }
+                        long start = offsets[first];
+                        long end = start + lengths[first];
+                        int last = sx;
+                        while (last < maxSX) {
+                            int next = sectionIndex(last + 1, sy, sz);
+                            if (lengths[next] == 0 || offsets[next] != end || end + lengths[next] - start > MAX_READ) {
+                                break;
+                            }
+                            end += lengths[next];
+                            last++;
+                        }
+
+                        byte[] bytes = readAt(start, (int) (end - start)).array();
+                        for (int x = sx; x <= last; x++) {
+                            int section = sectionIndex(x, sy, sz);
+                            int decoded = coder.decode(bytes, (int) (offsets[section] - start), lengths[section]);
+                            readSection(new DataInputStream(new ByteArrayInputStream(coder.output(), 0, decoded)),
+                                    x, sy, sz, builder, builderIds, fromX, fromY, fromZ, toX, toY, toZ);
+                        }
+                        sx = last + 1;
+                    }
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private void readSection(DataInputStream dis, int sx, int sy, int sz, SchematicBuilder builder, int[] builderIds,
+                             int fromX, int fromY, int fromZ, int toX, int toY, int toZ) throws IOException {
+        int localCount = dis.readUnsignedShort();
+        int[] localPalette = new int[localCount];
+        for (int i = 0; i < localCount; i++) {
+            int id = dis.readUnsignedShort();
+            if (id >= palette.length) {
+                throw new IOException("Invalid palette id " + id + " in section " + sx + "," + sy + "," + sz);
+            }
+            localPalette[i] = id;
+        }
+        int bits = dis.readUnsignedByte();
+
+        int baseX = originX + (sx << CompactFormat.SECTION_SHIFT);
+        int baseY = originY + (sy << CompactFormat.SECTION_SHIFT);
+        int baseZ = originZ + (sz << CompactFormat.SECTION_SHIFT);
+        int sectionWidth = Math.min(CompactFormat.SECTION_SIZE, originX + sizeX - baseX);
+        int sectionHeight = Math.min(CompactFormat.SECTION_SIZE, originY + sizeY - baseY);
+        int sectionLength = Math.min(CompactFormat.SECTION_SIZE, originZ + sizeZ - baseZ);
+        int cells = sectionWidth * sectionHeight * sectionLength;
+
+        CompactFormat.readRuns(new BitInput(dis), cells, bits, localCount, (start, run, value) -> {
+            int paletteId = localPalette[value - 1];
+            int id = builderIds[paletteId];
+            if (id < 0) {
+                id = builder.paletteId(palette[paletteId]);
+                builderIds[paletteId] = id;
+            }
+            for (int cell = start; cell < start + run; cell++) {
+                int x = baseX + cell % sectionWidth;
+                int z = baseZ + (cell / sectionWidth) % sectionLength;
+                int y = baseY + cell / (sectionWidth * sectionLength);
+                if (x >= fromX && x <= toX && y >= fromY && y <= toY && z >= fromZ && z <= toZ) {
+                    builder.addBlock(x, y, z, id);
+                }
+            }
+        });
+    }
+
+    /**
+     * Add the tile entities inside a box to a builder, keeping their payloads as raw bytes
+     */
+    private void readTileEntities(SchematicBuilder builder, int fromX, int fromY, int fromZ,
+                                  int toX, int toY, int toZ) throws IOException {
+        if (tileEntityCount == 0) {
+            return;
+        }
+        int encoded = readAt(tileOffset + 4, 4).getInt();
+        if (encoded < 0 || tileOffset + 8 + encoded > channel.size()) {
+            throw new IOException("Invalid tile entity section length: " + encoded);
+        }
+        byte[] body;
+        int decoded;
+        try (SchematicCodec.BlockCoder coder = codec.blockCoder()) {
+            decoded = coder.decode(readAt(tileOffset + 8, encoded).array(), 0, encoded);
+            body = coder.output();
+        }
+
+        ByteBuffer entries = ByteBuffer.wrap(body, 0, decoded);
+        if ((long) tileEntityCount * 16 > decoded) {
+            throw new IOException("Tile entity index truncated");
+        }
+        int payload = tileEntityCount * 16;
+        for (int i = 0; i < tileEntityCount; i++) {
+            int x = entries.getInt();
+            int y = entries.getInt();
+            int z = entries.getInt();
+            int payloadLength = entries.getInt();
+            if (payloadLength < 0 || payload + payloadLength > decoded) {
+                throw new IOException("Invalid tile entity payload at " + x + "," + y + "," + z);
+            }
+            if (x >= fromX && x <= toX && y >= fromY && y <= toY && z >= fromZ && z <= toZ) {
+                builder.addTileEntity(x, y, z, Arrays.copyOfRange(body, payload, payload + payloadLength));
+            }
+            payload += payloadLength;
+        }
+    }
+
+    public SchematicCodec getCodec() {
+        return codec;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginY() {
+        return originY;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getTileEntityCount() {
+        return tileEntityCount;
+    }
+
+    public int getPaletteSize() {
+        return palette.length;
+    }
+
+    public String getPaletteEntry(int index) {
+        return palette[index];
+    }
+
+    public int getSectionCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Get the stored size of a section in bytes, zero when the section is empty
+     */
+    public int getSectionLength(int sectionX, int sectionY, int sectionZ) {
+        return lengths[sectionIndex(sectionX, sectionY, sectionZ)];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int sectionIndex(int sectionX, int sectionY, int sectionZ) {
+        if (sectionX < 0 || sectionX >= sectionsX || sectionY < 0 || sectionY >= sectionsY
+                || sectionZ < 0 || sectionZ >= sectionsZ) {
+            throw new IndexOutOfBoundsException("Section out of bounds: " + sectionX + "," + sectionY + "," + sectionZ);
+        }
+        return (sectionY * sectionsZ + sectionZ) * sectionsX + sectionX;
+    }
+
+    private ByteBuffer readAt(long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int sections(int size) {
+        return (size + CompactFormat.SECTION_SIZE - 1) >> CompactFormat.SECTION_SHIFT;
+    }
+}
@@ -0,0 +1,448 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.TileEntityStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes a version 5 compact file one section at a time. The bounding box has to be known up front,
+ * but the palette grows as sections are written, so a schematic never has to be held in memory as a
+ * whole. Sections may be written in any order and writing a section again replaces it; sections
+ * that are never written are empty. The tile entities, the palette with the number of blocks of
+ * each entry, the section index and the final header are written on {@link #close()}.
+ * <p>
+ * The file is written next to the target under a temporary name and only moved over the target
+ * once it is complete, so a failed write never replaces an existing file. A writer that fails to
+ * write a section, or is {@link #abort() aborted}, deletes the temporary file on close instead.
+ * <p>
+ * Cells of a section are ordered like the cells of a {@link Schematic} (x fastest, then z, then y),
+ * over the part of the section inside the bounding box.
+ */
+public final class SectionedWriter implements Closeable {
+
+    private static final int SECTION_CELLS = CompactFormat.SECTION_SIZE * CompactFormat.SECTION_SIZE * CompactFormat.SECTION_SIZE;
+
+    private final File file;
+    private final Path temp;
+    private final FileChannel channel;
+    private final SchematicCodec codec;
+    private final SchematicCodec.BlockCoder coder;
+
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int sectionsX;
+    private final int sectionsY;
+    private final int sectionsZ;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] sectionCounts;
+    private final int[][] sectionPalettes; // file palette id and block count pairs per written section
+    private int[] paletteCounts = new int[64];
+
+    private final Map<String, Integer> paletteIds = new HashMap<>();
+    private final List<String> palette = new ArrayList<>();
+
+    // Section-local palette, reset after every section
+    private int[] localIds = new int[64];
+    private final int[] localPalette = new int[SECTION_CELLS];
+    private final int[] localCounts = new int[SECTION_CELLS];
+    private final ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream(SECTION_CELLS);
+
+    private TileEntityStore tileEntities = TileEntityStore.EMPTY;
+    private int width;
+    private int height;
+    private int length;
+    private long blockCount;
+    private long position = CompactFormat.SECTIONED_HEADER_SIZE;
+    private boolean closed;
+    private boolean failed;
+
+    /**
+     * Create a writer, replacing any existing file once closed
+     * @param file the file to write
+     * @param codec the codec applied to each section
+     * @param originX the lowest x of the bounding box
+     * @param originY the lowest y of the bounding box
+     * @param originZ the lowest z of the bounding box
+     * @param sizeX the size of the bounding box along x
+     * @param sizeY the size of the bounding box along y
+     * @param sizeZ the size of the bounding box along z
+     */
+    public SectionedWriter(File file, SchematicCodec codec, int originX, int originY, int originZ,
+                           int sizeX, int sizeY, int sizeZ) throws IOException {
+        long cells = (long) sizeX * sizeY * sizeZ;
+        if (sizeX < 0 || sizeY < 0 || sizeZ < 0 || cells > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid bounding box: " + sizeX + "x" + sizeY + "x" + sizeZ);
+        }
+        this.codec = codec;
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.sectionsX = sections(sizeX);
+        this.sectionsY = sections(sizeY);
+        this.sectionsZ = sections(sizeZ);
+        int sectionCount = sectionsX * sectionsY * sectionsZ;
+        this.offsets = new long[sectionCount];
+        this.lengths = new int[sectionCount];
+        this.sectionCounts = new int[sectionCount];
+        this.sectionPalettes = new int[sectionCount][];
+        this.width = sizeX;
+        this.height = sizeY;
+        this.length = sizeZ;
+        Arrays.fill(localIds, -1);
+
+        this.file = file;
+        // Created like the target itself would be, so the moved file gets the usual permissions
+        this.temp = file.getAbsoluteFile().toPath().resolveSibling(
+                file.getName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        this.channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.coder = codec.blockCoder();
+    }
+
+    /**
+     * Set the declared dimensions, which default to the bounding box size
+     */
+    public SectionedWriter dimensions(int width, int height, int length) {
+        this.width = width;
+        this.height = height;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * Set the tile entities written on {@link #close()}
+     */
+    public SectionedWriter tileEntities(TileEntityStore tileEntities) {
+        this.tileEntities = tileEntities;
+        return this;
+    }
+
+    /**
+     * Get the file palette id for a block data string, adding it if needed
+     */
+    public int paletteId(String blockData) {
+        Integer id = paletteIds.get(blockData);
+        if (id == null) {
+            if (palette.size() > Short.MAX_VALUE) {
+                failed = true;
+                throw new IllegalStateException("Palette cannot hold more than " + (Short.MAX_VALUE + 1) + " entries");
+            }
+            id = palette.size();
+            palette.add(blockData);
+            paletteIds.put(blockData, id);
+        }
+        return id;
+    }
+
+    public int getSectionsX() {
+        return sectionsX;
+    }
+
+    public int getSectionsY() {
+        return sectionsY;
+    }
+
+    public int getSectionsZ() {
+        return sectionsZ;
+    }
+
+    /**
+     * Number of cells along x in the sections of the given column, 16 except at the far edge
+     */
+    public int sectionWidth(int sectionX) {
+        return Math.min(CompactFormat.SECTION_SIZE, sizeX - (sectionX << CompactFormat.SECTION_SHIFT));
+    }
+
+    public int sectionHeight(int sectionY) {
+        return Math.min(CompactFormat.SECTION_SIZE, sizeY - (sectionY << CompactFormat.SECTION_SHIFT));
+    }
+
+    public int sectionLength(int sectionZ) {
+        return Math.min(CompactFormat.SECTION_SIZE, sizeZ - (sectionZ << CompactFormat.SECTION_SHIFT));
+    }
+
+    /**
+     * Encode and append one section
+     * @param sectionX the section x, counted from the bounding box origin
+     * @param sectionY the section y
+     * @param sectionZ the section z
+     * @param cells palette ids from {@link #paletteId(String)}, or {@link Schematic#EMPTY}, for the
+     *              cells of the section inside the bounding box
+     */
+    public void writeSection(int sectionX, int sectionY, int sectionZ, int[] cells) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        if (sectionX < 0 || sectionX >= sectionsX || sectionY < 0 || sectionY >= sectionsY
+                || sectionZ < 0 || sectionZ >= sectionsZ) {
+            throw new IllegalArgumentException("Section out of bounds: " + sectionX + "," + sectionY + "," + sectionZ);
+        }
+        int cellCount = sectionWidth(sectionX) * sectionHeight(sectionY) * sectionLength(sectionZ);
+        if (cells.length < cellCount) {
+            throw new IllegalArgumentException("Section needs " + cellCount + " cells, got " + cells.length);
+        }
+        try {
+            encodeSection(sectionX, sectionY, sectionZ, cells, cellCount);
+        } catch (Throwable e) {
+            // The section index no longer matches the file
+            failed = true;
+            throw e;
+        }
+    }
+
+    private void encodeSection(int sectionX, int sectionY, int sectionZ, int[] cells, int cellCount) throws IOException {
+
+        // Map file palette ids to section-local ids, in order of first use
+        if (localIds.length < palette.size()) {
+            int old = localIds.length;
+            localIds = Arrays.copyOf(localIds, Math.max(palette.size(), old * 2));
+            Arrays.fill(localIds, old, localIds.length, -1);
+        }
+        int localCount = 0;
+        int blocks = 0;
+        for (int i = 0; i < cellCount; i++) {
+            int id = cells[i];
+            if (id == Schematic.EMPTY) {
+                continue;
+            }
+            if (id < 0 || id >= palette.size()) {
+                clearLocalIds(localCount);
+                throw new IllegalArgumentException("Unknown palette id: " + id);
+            }
+            if (localIds[id] < 0) {
+                localIds[id] = localCount;
+                localCounts[localCount] = 0;
+                localPalette[localCount++] = id;
+            }
+            localCounts[localIds[id]]++;
+            blocks++;
+        }
+
+        int section = (sectionY * sectionsZ + sectionZ) * sectionsX + sectionX;
+        blockCount += blocks - sectionCounts[section];
+        sectionCounts[section] = blocks;
+        countPalette(section, localCount);
+        if (blocks == 0) {
+            offsets[section] = 0;
+            lengths[section] = 0;
+            return;
+        }
+
+        sectionBytes.reset();
+        DataOutputStream dos = new DataOutputStream(sectionBytes);
+        dos.writeShort(localCount);
+        for (int i = 0; i < localCount; i++) {
+            dos.writeShort(localPalette[i]);
+        }
+        int bits = CompactFormat.bitsFor(localCount);
+        dos.writeByte(bits);
+        BitOutput out = new BitOutput(dos);
+        CompactFormat.writeRuns(out, cellCount, i -> cells[i] == Schematic.EMPTY ? 0 : localIds[cells[i]] + 1, bits);
+        out.flush();
+        dos.flush();
+
+        clearLocalIds(localCount);
+
+        int encoded = coder.encode(sectionBytes.toByteArray(), sectionBytes.size());
+        writeFully(ByteBuffer.wrap(coder.output(), 0, encoded), position);
+        offsets[section] = position;
+        lengths[section] = encoded;
+        position += encoded;
+    }
+
+    /**
+     * Give up on the file: the temporary file is closed and deleted and the target is left as it was
+     */
+    public void abort() {
+        failed = true;
+        try {
+            close();
+        } catch (IOException ignored) {
+            // Nothing was moved over the target, the temporary file is gone or unusable
+        }
+    }
+
+    /**
+     * Write the tile entities, the palette, the section index and the header, then close the file
+     * and move it over the target. After a failure the temporary file is deleted instead.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean complete = false;
+        try {
+            if (!failed) {
+                finish();
+                complete = true;
+            }
+        } finally {
+            try {
+                coder.close();
+                channel.close();
+            } finally {
+                if (!complete) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        }
+        if (!complete) {
+            return;
+        }
+
+        try {
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void finish() throws IOException {
+        if (blockCount > Integer.MAX_VALUE) {
+            throw new IOException("Too many blocks: " + blockCount);
+        }
+
+        long tileOffset = 0;
+        if (!tileEntities.isEmpty()) {
+            tileOffset = position;
+            position += writeTileEntities(tileOffset);
+        }
+
+        long paletteOffset = position;
+        ByteArrayOutputStream paletteBytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(paletteBytes);
+        dos.writeInt(palette.size());
+        for (String entry : palette) {
+            CompactFormat.writeString(dos, entry);
+        }
+        for (int i = 0; i < palette.size(); i++) {
+            dos.writeInt(i < paletteCounts.length ? paletteCounts[i] : 0);
+        }
+        dos.flush();
+        writeFully(ByteBuffer.wrap(paletteBytes.toByteArray()), paletteOffset);
+        position += paletteBytes.size();
+
+        long indexOffset = position;
+        ByteBuffer index = ByteBuffer.allocate(64 * 1024);
+        for (int i = 0; i < offsets.length; i++) {
+            if (index.remaining() < 12) {
+                index.flip();
+                position += writeFully(index, position);
+                index.clear();
+            }
+            index.putLong(offsets[i]).putInt(lengths[i]);
+        }
+        index.flip();
+        position += writeFully(index, position);
+
+        ByteBuffer header = ByteBuffer.allocate(CompactFormat.SECTIONED_HEADER_SIZE);
+        header.putInt(CompactFormat.MAGIC);
+        header.putShort(CompactFormat.VERSION_5);
+        header.put(codec.getId());
+        header.put((byte) CompactFormat.FLAG_PALETTE_COUNTS);
+        header.putInt(width).putInt(height).putInt(length);
+        header.putInt(originX).putInt(originY).putInt(originZ);
+        header.putInt(sizeX).putInt(sizeY).putInt(sizeZ);
+        header.putInt((int) blockCount);
+        header.putLong(paletteOffset);
+        header.putLong(indexOffset);
+        header.putLong(tileOffset);
+        header.flip();
+        writeFully(header, 0);
+    }
+
+    /**
+     * Write the tile entity section: the entry count and the encoded length, then through the codec
+     * the x, y, z and payload length of every entry followed by all payloads back to back
+     * @return the number of bytes written
+     */
+    private int writeTileEntities(long at) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        for (int i = 0; i < tileEntities.size(); i++) {
+            dos.writeInt(tileEntities.getX(i));
+            dos.writeInt(tileEntities.getY(i));
+            dos.writeInt(tileEntities.getZ(i));
+            dos.writeInt(tileEntities.getPayloadLength(i));
+        }
+        for (int i = 0; i < tileEntities.size(); i++) {
+            tileEntities.writePayload(i, dos);
+        }
+        dos.flush();
+
+        int encoded = coder.encode(bytes.toByteArray(), bytes.size());
+        ByteBuffer head = ByteBuffer.allocate(8).putInt(tileEntities.size()).putInt(encoded);
+        head.flip();
+        int written = writeFully(head, at);
+        return written + writeFully(ByteBuffer.wrap(coder.output(), 0, encoded), at + written);
+    }
+
+    /**
+     * Replace the per-entry block counts of a section with those of its local palette
+     */
+    private void countPalette(int section, int localCount) {
+        int[] previous = sectionPalettes[section];
+        if (previous != null) {
+            for (int i = 0; i < previous.length; i += 2) {
+                paletteCounts[previous[i]] -= previous[i + 1];
+            }
+        }
+        if (paletteCounts.length < palette.size()) {
+            paletteCounts = Arrays.copyOf(paletteCounts, Math.max(palette.size(), paletteCounts.length * 2));
+        }
+        int[] pairs = localCount == 0 ? null : new int[localCount * 2];
+        for (int i = 0; i < localCount; i++) {
+            pairs[i * 2] = localPalette[i];
+            pairs[i * 2 + 1] = localCounts[i];
+            paletteCounts[localPalette[i]] += localCounts[i];
+        }
+        sectionPalettes[section] = pairs;
+    }
+
+    private void clearLocalIds(int localCount) {
+        for (int i = 0; i < localCount; i++) {
+            localIds[localPalette[i]] = -1;
+        }
+    }
+
+    private int writeFully(ByteBuffer buffer, long at) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, at + written);
+        }
+        return written;
+    }
+
+    private static int sections(int size) {
+        return (size + CompactFormat.SECTION_SIZE - 1) >> CompactFormat.SECTION_SHIFT;
+    }
+}
@@ -0,0 +1,16 @@
+package com.joeyoey.simpleschem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.joeyoey.simpleschem.Capture")
+@Label("Schematic Capture")
+@Category("SimpleSchem")
+@Description("Blocks read out of the world into a schematic or file")
+final class CaptureEvent extends SchematicEvent {
+
+    @Label("Chunks")
+    int chunks;
+}
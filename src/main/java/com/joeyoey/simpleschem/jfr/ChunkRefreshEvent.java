@@ -0,0 +1,23 @@
+package com.joeyoey.simpleschem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.joeyoey.simpleschem.ChunkRefresh")
+@Label("Chunk Refresh")
+@Category("SimpleSchem")
+@Description("A pasted chunk sent to clients")
+final class ChunkRefreshEvent extends Event {
+
+    @Label("World")
+    String world;
+
+    @Label("Chunk X")
+    int chunkX;
+
+    @Label("Chunk Z")
+    int chunkZ;
+}
@@ -0,0 +1,136 @@
+package com.joeyoey.simpleschem.jfr;
+
+import com.joeyoey.simpleschem.paste.PastePlan;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The flight recorder side of {@link SchematicEvents}, only loaded once the runtime is known to
+ * have {@code jdk.jfr}. Whether an event is enabled is asked of its {@link EventType}, so nothing is
+ * allocated for events that are not being recorded.
+ */
+final class JfrEvents {
+
+    private static final EventType LOAD = EventType.getEventType(LoadEvent.class);
+    private static final EventType SAVE = EventType.getEventType(SaveEvent.class);
+    private static final EventType CAPTURE = EventType.getEventType(CaptureEvent.class);
+    private static final EventType PASTE_BATCH = EventType.getEventType(PasteBatchEvent.class);
+    private static final EventType CHUNK_REFRESH = EventType.getEventType(ChunkRefreshEvent.class);
+
+    private JfrEvents() {
+    }
+
+    private static <T extends Event> T begin(EventType type, Supplier<T> factory) {
+        if (!type.isEnabled()) {
+            return null;
+        }
+        T event = factory.get();
+        event.begin();
+        return event;
+    }
+
+    private static void fill(SchematicEvent event, Schematic schematic) {
+        event.sizeX = schematic.getSizeX();
+        event.sizeY = schematic.getSizeY();
+        event.sizeZ = schematic.getSizeZ();
+        event.blockCount = schematic.getBlockCount();
+        event.paletteSize = schematic.getPaletteSize();
+    }
+
+    static Object beginLoad() {
+        return begin(LOAD, LoadEvent::new);
+    }
+
+    static void endLoad(Object handle, String source, long size, Schematic schematic) {
+        LoadEvent event = (LoadEvent) handle;
+        event.end();
+        if (schematic != null && event.shouldCommit()) {
+            fill(event, schematic);
+            event.source = source;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    static Object beginSave() {
+        return begin(SAVE, SaveEvent::new);
+    }
+
+    static void endSave(Object handle, String target, long bytes, Schematic schematic) {
+        SaveEvent event = (SaveEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            fill(event, schematic);
+            event.target = target;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    static Object beginCapture() {
+        return begin(CAPTURE, CaptureEvent::new);
+    }
+
+    static void endCapture(Object handle, int sizeX, int sizeY, int sizeZ, long blockCount, int paletteSize, int chunks) {
+        CaptureEvent event = (CaptureEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.sizeX = sizeX;
+            event.sizeY = sizeY;
+            event.sizeZ = sizeZ;
+            event.blockCount = blockCount;
+            event.paletteSize = paletteSize;
+            event.chunks = chunks;
+            event.commit();
+        }
+    }
+
+    static Object beginPasteBatch() {
+        return begin(PASTE_BATCH, PasteBatchEvent::new);
+    }
+
+    static void endPasteBatch(Object handle, World world, long blocks, int tileEntities, List<PastePlan.ChunkPlan> chunks) {
+        PasteBatchEvent event = (PasteBatchEvent) handle;
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.world = world == null ? null : world.getName();
+        event.blocks = blocks;
+        event.tileEntities = tileEntities;
+        event.chunks = chunks.size();
+        if (!chunks.isEmpty()) {
+            event.minChunkX = event.minChunkZ = Integer.MAX_VALUE;
+            event.maxChunkX = event.maxChunkZ = Integer.MIN_VALUE;
+            for (PastePlan.ChunkPlan chunk : chunks) {
+                event.minChunkX = Math.min(event.minChunkX, chunk.getChunkX());
+                event.minChunkZ = Math.min(event.minChunkZ, chunk.getChunkZ());
+                event.maxChunkX = Math.max(event.maxChunkX, chunk.getChunkX());
+                event.maxChunkZ = Math.max(event.maxChunkZ, chunk.getChunkZ());
+            }
+        }
+        event.commit();
+    }
+
+    static Object beginChunkRefresh() {
+        return begin(CHUNK_REFRESH, ChunkRefreshEvent::new);
+    }
+
+    static void endChunkRefresh(Object handle, Chunk chunk) {
+        ChunkRefreshEvent event = (ChunkRefreshEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            World world = chunk.getWorld();
+            event.world = world == null ? null : world.getName();
+            event.chunkX = chunk.getX();
+            event.chunkZ = chunk.getZ();
+            event.commit();
+        }
+    }
+}
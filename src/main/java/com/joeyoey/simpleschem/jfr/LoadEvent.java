@@ -0,0 +1,23 @@
+package com.joeyoey.simpleschem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.joeyoey.simpleschem.Load")
+@Label("Schematic Load")
+@Category("SimpleSchem")
+@Description("A schematic read from a file or JSON")
+final class LoadEvent extends SchematicEvent {
+
+    @Label("Source")
+    @Description("The file read, or json for JSON text")
+    String source;
+
+    @Label("Source Size")
+    @Description("The size of the file or JSON text, of which a region load reads only part")
+    @DataAmount
+    long size;
+}
@@ -0,0 +1,38 @@
+package com.joeyoey.simpleschem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.joeyoey.simpleschem.PasteBatch")
+@Label("Paste Batch")
+@Category("SimpleSchem")
+@Description("Blocks of a paste written in one go: a whole plan, or one tick of a paste job")
+final class PasteBatchEvent extends Event {
+
+    @Label("World")
+    String world;
+
+    @Label("Blocks")
+    long blocks;
+
+    @Label("Tile Entities")
+    int tileEntities;
+
+    @Label("Chunks")
+    int chunks;
+
+    @Label("Min Chunk X")
+    int minChunkX;
+
+    @Label("Min Chunk Z")
+    int minChunkZ;
+
+    @Label("Max Chunk X")
+    int maxChunkX;
+
+    @Label("Max Chunk Z")
+    int maxChunkZ;
+}
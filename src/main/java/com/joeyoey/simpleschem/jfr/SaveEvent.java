@@ -0,0 +1,22 @@
+package com.joeyoey.simpleschem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.joeyoey.simpleschem.Save")
+@Label("Schematic Save")
+@Category("SimpleSchem")
+@Description("A schematic written to a file or JSON")
+final class SaveEvent extends SchematicEvent {
+
+    @Label("Target")
+    @Description("The file written, or json for JSON text")
+    String target;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,25 @@
+package com.joeyoey.simpleschem.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Fields shared by the events that describe a whole schematic
+ */
+abstract class SchematicEvent extends Event {
+
+    @Label("Size X")
+    int sizeX;
+
+    @Label("Size Y")
+    int sizeY;
+
+    @Label("Size Z")
+    int sizeZ;
+
+    @Label("Block Count")
+    long blockCount;
+
+    @Label("Palette Size")
+    int paletteSize;
+}
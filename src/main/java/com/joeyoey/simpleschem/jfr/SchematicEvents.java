@@ -0,0 +1,152 @@
+package com.joeyoey.simpleschem.jfr;
+
+import com.joeyoey.simpleschem.paste.PastePlan;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import java.util.List;
+
+/**
+ * Java Flight Recorder events for schematic loads, saves, captures, paste batches and chunk
+ * refreshes, so tick spikes in a recording can be matched to the operation behind them. Events show
+ * up under the SimpleSchem category.
+ * <p>
+ * Each operation calls a {@code begin} method before the work and the matching {@code end} method
+ * after it. {@code begin} returns null, without allocating, when the event is not being recorded,
+ * and {@code end} does nothing with null, so fields are only filled in for recorded events. On a runtime without JFR the
+ * event classes are never loaded and every call returns at once.
+ */
+public final class SchematicEvents {
+
+    private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+    private SchematicEvents() {
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, SchematicEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return whether the runtime has the flight recorder, whether or not it is recording
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @return a load event handle, or null if loads are not being recorded
+     */
+    public static Object beginLoad() {
+        return AVAILABLE ? JfrEvents.beginLoad() : null;
+    }
+
+    /**
+     * @param event the handle from {@link #beginLoad()}
+     * @param source the file read, or json
+     * @param size the size of the file or JSON text
+     * @param schematic the schematic loaded, or null if loading failed, which drops the event
+     */
+    public static void endLoad(Object event, String source, long size, Schematic schematic) {
+        if (event != null) {
+            JfrEvents.endLoad(event, source, size, schematic);
+        }
+    }
+
+    /**
+     * @return a save event handle, or null if saves are not being recorded
+     */
+    public static Object beginSave() {
+        return AVAILABLE ? JfrEvents.beginSave() : null;
+    }
+
+    /**
+     * @param event the handle from {@link #beginSave()}
+     * @param target the file written, or json
+     * @param bytes the bytes written
+     * @param schematic the schematic saved
+     */
+    public static void endSave(Object event, String target, long bytes, Schematic schematic) {
+        if (event != null) {
+            JfrEvents.endSave(event, target, bytes, schematic);
+        }
+    }
+
+    /**
+     * @return a capture event handle, or null if captures are not being recorded
+     */
+    public static Object beginCapture() {
+        return AVAILABLE ? JfrEvents.beginCapture() : null;
+    }
+
+    /**
+     * @param event the handle from {@link #beginCapture()}
+     * @param schematic the schematic captured
+     * @param chunks the chunks read, or 0 if not known
+     */
+    public static void endCapture(Object event, Schematic schematic, int chunks) {
+        if (event != null) {
+            JfrEvents.endCapture(event, schematic.getSizeX(), schematic.getSizeY(), schematic.getSizeZ(),
+                    schematic.getBlockCount(), schematic.getPaletteSize(), chunks);
+        }
+    }
+
+    /**
+     * End a capture that went straight to a file, with no schematic in memory
+     * @param event the handle from {@link #beginCapture()}
+     * @param sizeX the size of the region along x
+     * @param sizeY the size of the region along y
+     * @param sizeZ the size of the region along z
+     * @param blockCount the blocks captured
+     * @param chunks the chunks read
+     */
+    public static void endCapture(Object event, int sizeX, int sizeY, int sizeZ, long blockCount, int chunks) {
+        if (event != null) {
+            JfrEvents.endCapture(event, sizeX, sizeY, sizeZ, blockCount, 0, chunks);
+        }
+    }
+
+    /**
+     * @return a paste batch event handle, or null if paste batches are not being recorded
+     */
+    public static Object beginPasteBatch() {
+        return AVAILABLE ? JfrEvents.beginPasteBatch() : null;
+    }
+
+    /**
+     * @param event the handle from {@link #beginPasteBatch()}
+     * @param world the world pasted into
+     * @param blocks the blocks written
+     * @param tileEntities the tile entities written
+     * @param chunks the chunks the batch wrote to
+     */
+    public static void endPasteBatch(Object event, World world, long blocks, int tileEntities,
+                                     List<PastePlan.ChunkPlan> chunks) {
+        if (event != null) {
+            JfrEvents.endPasteBatch(event, world, blocks, tileEntities, chunks);
+        }
+    }
+
+    /**
+     * @return a chunk refresh event handle, or null if chunk refreshes are not being recorded
+     */
+    public static Object beginChunkRefresh() {
+        return AVAILABLE ? JfrEvents.beginChunkRefresh() : null;
+    }
+
+    /**
+     * @param event the handle from {@link #beginChunkRefresh()}
+     * @param chunk the chunk refreshed
+     */
+    public static void endChunkRefresh(Object event, Chunk chunk) {
+        if (event != null) {
+            JfrEvents.endChunkRefresh(event, chunk);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.joeyoey.simpleschem.metrics;
+
+/**
+ * Receives every timing recorded by {@link SchematicMetrics}, for forwarding to a monitoring
+ * system. Called on the thread that did the work, often the main thread, so implementations should
+ * be quick and thread-safe.
+ */
+public interface MetricsListener {
+
+    /**
+     * @param phase the phase that ran
+     * @param nanos the time it took
+     * @param blocks the blocks it handled, or 0 if it handles none
+     * @param chunks the chunks it touched, or 0 if it touches none
+     */
+    void record(Phase phase, long nanos, long blocks, int chunks);
+}
@@ -0,0 +1,58 @@
+package com.joeyoey.simpleschem.metrics;
+
+/**
+ * The steps of schematic I/O, capture and paste that {@link SchematicMetrics} times separately
+ */
+public enum Phase {
+
+    /**
+     * Reading a schematic from a file or JSON
+     */
+    LOAD,
+
+    /**
+     * Writing a schematic to a file or JSON
+     */
+    SAVE,
+
+    /**
+     * Reading blocks out of the world into a schematic or file
+     */
+    CAPTURE,
+
+    /**
+     * Preparing a paste: computing target positions and grouping blocks by chunk, parsing included
+     */
+    PLAN,
+
+    /**
+     * Parsing palette entries into block data while preparing a paste. Blocks are those the parsed
+     * entries cover.
+     */
+    BLOCK_DATA,
+
+    /**
+     * Getting, loading or snapshotting the chunks a paste writes to
+     */
+    CHUNK_LOAD,
+
+    /**
+     * Setting blocks in the world
+     */
+    BLOCK_WRITE,
+
+    /**
+     * Decoding and writing tile entity data. Blocks are the tile entities written.
+     */
+    TILE_ENTITIES,
+
+    /**
+     * Sending written chunks to clients
+     */
+    CHUNK_REFRESH,
+
+    /**
+     * Writing a paste into the world from start to end, the sum of the write phases
+     */
+    PASTE
+}
@@ -0,0 +1,83 @@
+package com.joeyoey.simpleschem.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals and a latency histogram of one {@link Phase}. Thread-safe; totals read while
+ * timings are being recorded may be a few samples apart from each other.
+ */
+public final class PhaseStats {
+
+    private final Phase phase;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder chunks = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    PhaseStats(Phase phase) {
+        this.phase = phase;
+    }
+
+    void record(long nanos, long blocks, int chunks) {
+        this.count.increment();
+        this.nanos.add(nanos);
+        this.blocks.add(blocks);
+        this.chunks.add(chunks);
+        this.maxNanos.accumulateAndGet(nanos, Math::max);
+        this.histogram.record(nanos);
+    }
+
+    void reset() {
+        count.reset();
+        nanos.reset();
+        blocks.reset();
+        chunks.reset();
+        maxNanos.set(0);
+        histogram.reset();
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the number of times the phase ran
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return nanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getBlocks() {
+        return blocks.sum();
+    }
+
+    /**
+     * @return the chunks touched, counted once per run that touched them
+     */
+    public long getChunks() {
+        return chunks.sum();
+    }
+
+    /**
+     * @return the blocks handled per second of time spent in the phase, or 0 if no time was spent
+     */
+    public double getBlocksPerSecond() {
+        long total = nanos.sum();
+        return total <= 0 ? 0 : blocks.sum() * 1e9 / total;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+}
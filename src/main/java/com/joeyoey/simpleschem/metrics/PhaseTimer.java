@@ -0,0 +1,71 @@
+package com.joeyoey.simpleschem.metrics;
+
+/**
+ * Splits one stretch of work into phases by reading the clock between steps. Each
+ * {@link #lap(Phase)} charges the time since the previous lap to a phase, and {@link #report}
+ * records one sample per phase that was charged, so a loop over chunks reports its total chunk
+ * load, block write and refresh time rather than one sample per chunk. Not thread-safe.
+ */
+public final class PhaseTimer {
+
+    private final long start;
+    private long last;
+    private final long[] nanos = new long[Phase.values().length];
+    private final boolean[] timed = new boolean[Phase.values().length];
+
+    public PhaseTimer() {
+        this.start = System.nanoTime();
+        this.last = start;
+    }
+
+    /**
+     * Charge the time since the previous lap, or since the timer was created, to a phase
+     */
+    public void lap(Phase phase) {
+        long now = System.nanoTime();
+        nanos[phase.ordinal()] += now - last;
+        timed[phase.ordinal()] = true;
+        last = now;
+    }
+
+    /**
+     * @return the time from the creation of the timer to the last lap
+     */
+    public long getElapsedNanos() {
+        return last - start;
+    }
+
+    /**
+     * @return the time charged to a phase so far
+     */
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Record the charged phases with {@link SchematicMetrics}
+     * @param blocks the blocks written
+     * @param tileEntities the tile entities written
+     * @param chunks the chunks touched
+     */
+    public void report(long blocks, long tileEntities, int chunks) {
+        for (Phase phase : Phase.values()) {
+            if (!timed[phase.ordinal()]) {
+                continue;
+            }
+            long phaseNanos = nanos[phase.ordinal()];
+            switch (phase) {
+                case CHUNK_LOAD:
+                case CHUNK_REFRESH:
+                    SchematicMetrics.recordNanos(phase, phaseNanos, 0, chunks);
+                    break;
+                case TILE_ENTITIES:
+                    SchematicMetrics.recordNanos(phase, phaseNanos, tileEntities, 0);
+                    break;
+                default:
+                    SchematicMetrics.recordNanos(phase, phaseNanos, blocks, chunks);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.joeyoey.simpleschem.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide timings of schematic loads, saves, captures and pastes, broken down by
+ * {@link Phase}. Every phase keeps counters and a latency histogram, and every timing is passed on
+ * to the registered {@link MetricsListener}s, so a lag spike can be traced to chunk loading, block
+ * data parsing, block writes or tile entities.
+ * <p>
+ * Timings are taken with {@link System#nanoTime()}:
+ * <pre>{@code
+ * long start = System.nanoTime();
+ * ...
+ * SchematicMetrics.record(Phase.SAVE, start, schematic.getBlockCount(), 0);
+ * }</pre>
+ */
+public final class SchematicMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(SchematicMetrics.class.getName());
+
+    private static final PhaseStats[] STATS = new PhaseStats[Phase.values().length];
+    private static final List<MetricsListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    static {
+        for (Phase phase : Phase.values()) {
+            STATS[phase.ordinal()] = new PhaseStats(phase);
+        }
+    }
+
+    private SchematicMetrics() {
+    }
+
+    /**
+     * Record a phase that started at the given time and ends now
+     * @param phase the phase
+     * @param startNanos the {@link System#nanoTime()} the phase started at
+     * @param blocks the blocks it handled, or 0
+     * @param chunks the chunks it touched, or 0
+     */
+    public static void record(Phase phase, long startNanos, long blocks, int chunks) {
+        recordNanos(phase, System.nanoTime() - startNanos, blocks, chunks);
+    }
+
+    /**
+     * Record a phase that took the given time
+     * @param phase the phase
+     * @param nanos the time it took
+     * @param blocks the blocks it handled, or 0
+     * @param chunks the chunks it touched, or 0
+     */
+    public static void recordNanos(Phase phase, long nanos, long blocks, int chunks) {
+        STATS[phase.ordinal()].record(nanos, blocks, chunks);
+        for (MetricsListener listener : LISTENERS) {
+            try {
+                listener.record(phase, nanos, blocks, chunks);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Metrics listener failed", e);
+            }
+        }
+    }
+
+    public static PhaseStats get(Phase phase) {
+        return STATS[phase.ordinal()];
+    }
+
+    public static void addListener(MetricsListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(MetricsListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Zero the totals and histograms of every phase. Listeners stay registered.
+     */
+    public static void reset() {
+        for (PhaseStats stats : STATS) {
+            stats.reset();
+        }
+    }
+}
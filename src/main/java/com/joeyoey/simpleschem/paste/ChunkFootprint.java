@@ -0,0 +1,54 @@
+package com.joeyoey.simpleschem.paste;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import org.bukkit.Location;
+
+/**
+ * The chunks a schematic covers when pasted at a location, taken from its bounding box. Chunks are
+ * packed into longs, chunk x in the high and chunk z in the low 32 bits.
+ */
+public final class ChunkFootprint {
+
+    private ChunkFootprint() {
+    }
+
+    /**
+     * Get every chunk the bounding box of the schematic overlaps at the paste location, sorted by
+     * chunk x and then chunk z like the chunks of a {@link PastePlan}
+     * @param center the center of the paste
+     * @param schematic the schematic to paste
+     * @return the packed chunk keys, empty for an empty schematic
+     */
+    public static long[] of(Location center, Schematic schematic) {
+        if (schematic.getCellCount() == 0) {
+            return new long[0];
+        }
+        int minX = center.getBlockX() + schematic.getOriginX();
+        int minZ = center.getBlockZ() + schematic.getOriginZ();
+        int minChunkX = minX >> 4;
+        int minChunkZ = minZ >> 4;
+        int maxChunkX = (minX + schematic.getSizeX() - 1) >> 4;
+        int maxChunkZ = (minZ + schematic.getSizeZ() - 1) >> 4;
+
+        long[] keys = new long[(maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1)];
+        int i = 0;
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                keys[i++] = key(chunkX, chunkZ);
+            }
+        }
+        return keys;
+    }
+
+    public static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public static int chunkX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int chunkZ(long key) {
+        return (int) key;
+    }
+}
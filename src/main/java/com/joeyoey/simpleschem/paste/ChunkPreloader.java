@@ -0,0 +1,170 @@
+package com.joeyoey.simpleschem.paste;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads the chunks of a paste ahead of its cursor. Chunks are requested a bounded window ahead of
+ * the chunk being pasted and held with a plugin chunk ticket until {@link #release(int)}, so they
+ * stay loaded until the paste is done with them.
+ * <p>
+ * When the server offers {@code World#getChunkAtAsync} (Paper and its forks) chunks are loaded off
+ * the main thread, and the ticket is only added once the load completes, since adding a ticket
+ * loads the chunk synchronously. Plain Spigot has no asynchronous load, so read-ahead chunks are
+ * loaded on the main thread instead, a few per tick and only while the tick budget lasts, which
+ * keeps the synchronous loads out of the paste loop itself. Main thread only.
+ */
+public final class ChunkPreloader {
+
+    public static final int DEFAULT_WINDOW = 8;
+    public static final int DEFAULT_SYNC_LOADS_PER_TICK = 2;
+
+    private static final Logger LOGGER = Logger.getLogger(ChunkPreloader.class.getName());
+
+    private static final Method GET_CHUNK_AT_ASYNC = findAsyncLoader();
+
+    private final World world;
+    private final Plugin plugin;
+    private final long[] keys;
+    private final int window;
+    private final int syncLoadsPerTick;
+
+    private final Chunk[] chunks;
+    private final boolean[] requested;
+    private final boolean[] ticketed;
+
+    /**
+     * @param world the world to load chunks in
+     * @param plugin the plugin holding the chunk tickets, or null to load without tickets
+     * @param keys the chunks in paste order, packed as by {@link ChunkFootprint#key(int, int)}
+     * @param window how many chunks ahead of the cursor to keep loaded or loading
+     * @param syncLoadsPerTick how many read-ahead chunks to load per tick without asynchronous loading
+     */
+    public ChunkPreloader(World world, Plugin plugin, long[] keys, int window, int syncLoadsPerTick) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        }
+        this.world = world;
+        this.plugin = plugin;
+        this.keys = keys;
+        this.window = window;
+        this.syncLoadsPerTick = syncLoadsPerTick;
+        this.chunks = new Chunk[keys.length];
+        this.requested = new boolean[keys.length];
+        this.ticketed = new boolean[keys.length];
+    }
+
+    /**
+     * Request the chunks from the cursor to the end of the window
+     * @param cursor the index of the chunk being pasted
+     * @param deadline the {@link System#nanoTime()} after which no more synchronous loads start
+     */
+    public void advance(int cursor, long deadline) {
+        int syncLoads = 0;
+        int end = Math.min(keys.length, cursor + window);
+        for (int i = cursor; i < end; i++) {
+            if (chunks[i] != null || requested[i]) {
+                continue;
+            }
+            int chunkX = ChunkFootprint.chunkX(keys[i]);
+            int chunkZ = ChunkFootprint.chunkZ(keys[i]);
+            if (world.isChunkLoaded(chunkX, chunkZ)) {
+                hold(i);
+                chunks[i] = world.getChunkAt(chunkX, chunkZ);
+            } else if (GET_CHUNK_AT_ASYNC != null) {
+                requested[i] = true;
+                loadAsync(i, chunkX, chunkZ);
+            } else if (i > cursor && syncLoads < syncLoadsPerTick && System.nanoTime() - deadline < 0) {
+                hold(i);
+                chunks[i] = world.getChunkAt(chunkX, chunkZ);
+                syncLoads++;
+            }
+        }
+    }
+
+    /**
+     * Get a chunk, loading it now if it has not been requested yet
+     * @param index the index of the chunk
+     * @return the loaded chunk, or null while an asynchronous load is still running
+     */
+    public Chunk chunk(int index) {
+        Chunk chunk = chunks[index];
+        if (chunk != null || requested[index]) {
+            return chunk;
+        }
+        hold(index);
+        chunk = world.getChunkAt(ChunkFootprint.chunkX(keys[index]), ChunkFootprint.chunkZ(keys[index]));
+        chunks[index] = chunk;
+        return chunk;
+    }
+
+    /**
+     * Drop the ticket on a chunk the paste is done with. An asynchronous load still running for it
+     * is ignored when it completes.
+     */
+    public void release(int index) {
+        requested[index] = false;
+        if (ticketed[index]) {
+            ticketed[index] = false;
+            world.removePluginChunkTicket(ChunkFootprint.chunkX(keys[index]), ChunkFootprint.chunkZ(keys[index]), plugin);
+        }
+        chunks[index] = null;
+    }
+
+    /**
+     * Drop every ticket still held
+     */
+    public void releaseAll() {
+        for (int i = 0; i < keys.length; i++) {
+            release(i);
+        }
+    }
+
+    private void hold(int index) {
+        if (plugin != null && !ticketed[index]) {
+            ticketed[index] = world.addPluginChunkTicket(
+                    ChunkFootprint.chunkX(keys[index]), ChunkFootprint.chunkZ(keys[index]), plugin);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadAsync(int index, int chunkX, int chunkZ) {
+        try {
+            CompletableFuture<Chunk> future =
+                    (CompletableFuture<Chunk>) GET_CHUNK_AT_ASYNC.invoke(world, chunkX, chunkZ, true);
+            // Completes on the main thread
+            future.whenComplete((chunk, error) -> {
+                if (error != null) {
+                    LOGGER.log(Level.WARNING, "Failed to load chunk " + chunkX + "," + chunkZ + " ahead of paste", error);
+                }
+                if (!requested[index]) {
+                    return; // released while loading
+                }
+                requested[index] = false;
+                if (chunk != null) {
+                    // The chunk is loaded now, so the ticket does not load it again
+                    hold(index);
+                }
+                chunks[index] = chunk;
+            });
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            // Fall back to a load on first use
+            requested[index] = false;
+        }
+    }
+
+    private static Method findAsyncLoader() {
+        try {
+            return World.class.getMethod("getChunkAtAsync", int.class, int.class, boolean.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
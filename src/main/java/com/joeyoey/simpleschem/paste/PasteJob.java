@@ -0,0 +1,356 @@
+package com.joeyoey.simpleschem.paste;
+
+import com.joeyoey.simpleschem.jfr.SchematicEvents;
+import com.joeyoey.simpleschem.metrics.Phase;
+import com.joeyoey.simpleschem.metrics.PhaseTimer;
+import com.joeyoey.simpleschem.metrics.SchematicMetrics;
+import com.joeyoey.simpleschem.nms.NMSAbstraction;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.Vector;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A paste spread over server ticks. Every tick the job places blocks until its time budget is
+ * spent and then hands the thread back, so the paste never holds up a tick for longer than the
+ * budget no matter how large the schematic is.
+ * <p>
+ * The job walks a {@link PastePlan} chunk by chunk, without physics, while a {@link ChunkPreloader}
+ * loads the next chunks ahead of it. With an {@link NMSAbstraction} blocks go through
+ * {@link NMSAbstraction#setBlockSuperFast}, the tile entities of a chunk are written once all of its
+ * blocks are, and each chunk is refreshed once, as soon as it is done.
+ * The job runs on the main thread; its progress can be read from any thread.
+ * <p>
+ * A job started from a schematic first prepares its plan on the common pool, so building the plan
+ * never costs the main thread a tick. Until the plan is ready the job reports no progress, and it
+ * can already be cancelled.
+ * <p>
+ * Every tick reports its chunk loads, block writes, tile entities and refreshes to
+ * {@link SchematicMetrics}, and the job reports the time it spent over all ticks as
+ * {@link Phase#PASTE} once it completes.
+ */
+public final class PasteJob {
+
+    /**
+     * Time spent per tick when no budget is given, a tenth of a 50 ms tick
+     */
+    public static final long DEFAULT_TICK_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final Logger LOGGER = Logger.getLogger(PasteJob.class.getName());
+
+    /**
+     * Blocks placed between reads of the clock
+     */
+    private static final int CLOCK_INTERVAL = 64;
+
+    private final Plugin plugin;
+    private final NMSAbstraction nmsAbstraction;
+    private final long tickBudgetNanos;
+
+    // Set once the plan is ready
+    private World world;
+    private List<PastePlan.ChunkPlan> chunks;
+    private ChunkPreloader preloader;
+    private volatile int totalBlocks;
+    private volatile boolean preparing = true;
+
+    private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+    private BukkitTask task;
+    private Consumer<PasteJob> progressListener;
+    private int chunkIndex;
+    private Chunk chunk;
+    private Iterator<Map.Entry<Vector, BlockData>> blocks;
+    private volatile int blocksPlaced;
+    private long busyNanos;
+
+    private PasteJob(Plugin plugin, NMSAbstraction nmsAbstraction, long tickBudgetNanos) {
+        if (tickBudgetNanos <= 0) {
+            throw new IllegalArgumentException("Tick budget must be positive: " + tickBudgetNanos);
+        }
+        this.plugin = plugin;
+        this.nmsAbstraction = nmsAbstraction;
+        this.tickBudgetNanos = tickBudgetNanos;
+    }
+
+    PasteJob(Plugin plugin, PastePlan plan, NMSAbstraction nmsAbstraction, long tickBudgetNanos) {
+        this(plugin, nmsAbstraction, tickBudgetNanos);
+        attach(plan);
+    }
+
+    private void attach(PastePlan plan) {
+        this.world = plan.getWorld();
+        this.chunks = plan.getChunks();
+        long[] keys = new long[chunks.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ChunkFootprint.key(chunks.get(i).getChunkX(), chunks.get(i).getChunkZ());
+        }
+        this.preloader = new ChunkPreloader(plan.getWorld(), plugin, keys,
+                ChunkPreloader.DEFAULT_WINDOW, ChunkPreloader.DEFAULT_SYNC_LOADS_PER_TICK);
+        this.totalBlocks = plan.getBlockCount();
+        this.preparing = false;
+    }
+
+    /**
+     * Prepare a plan on the common pool and start pasting it on the main thread once it is ready
+     * @param plugin the plugin that owns the task and the chunk tickets
+     * @param center the center of the paste
+     * @param schematic the schematic to paste
+     * @param nmsAbstraction the NMS implementation to place blocks with, or null for the Bukkit API
+     * @param tickBudgetNanos the most time to spend placing blocks in one tick
+     * @return the job, which is preparing until the plan is ready
+     */
+    public static PasteJob start(Plugin plugin, Location center, Schematic schematic,
+                                 NMSAbstraction nmsAbstraction, long tickBudgetNanos) {
+        Executor mainThread = task -> plugin.getServer().getScheduler().runTask(plugin, task);
+        return start(plugin, PastePlan.prepareAsync(center, schematic, ForkJoinPool.commonPool()),
+                nmsAbstraction, tickBudgetNanos, mainThread);
+    }
+
+    /**
+     * Start pasting a plan once it is prepared
+     * @param mainThread runs the start of the job on the main thread
+     */
+    static PasteJob start(Plugin plugin, CompletableFuture<PastePlan> plan, NMSAbstraction nmsAbstraction,
+                          long tickBudgetNanos, Executor mainThread) {
+        PasteJob job = new PasteJob(plugin, nmsAbstraction, tickBudgetNanos);
+        plan.whenComplete((prepared, error) -> {
+            if (error != null) {
+                job.future.completeExceptionally(error);
+                return;
+            }
+            try {
+                mainThread.execute(() -> {
+                    // Cancelled while preparing
+                    if (!job.future.isDone()) {
+                        job.attach(prepared);
+                        job.schedule();
+                    }
+                });
+            } catch (RuntimeException e) {
+                job.future.completeExceptionally(e);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Start pasting a prepared plan on the next tick
+     * @param plugin the plugin that owns the task and the chunk tickets
+     * @param plan the plan to paste
+     * @param nmsAbstraction the NMS implementation to place blocks with, or null for the Bukkit API
+     * @param tickBudgetNanos the most time to spend placing blocks in one tick
+     * @return the running job
+     */
+    public static PasteJob start(Plugin plugin, PastePlan plan, NMSAbstraction nmsAbstraction, long tickBudgetNanos) {
+        PasteJob job = new PasteJob(plugin, plan, nmsAbstraction, tickBudgetNanos);
+        job.schedule();
+        return job;
+    }
+
+    private void schedule() {
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 0L, 1L);
+    }
+
+    /**
+     * Call the listener on the main thread after every tick of work, and once more when the job ends
+     */
+    public PasteJob onProgress(Consumer<PasteJob> listener) {
+        this.progressListener = listener;
+        return this;
+    }
+
+    /**
+     * Completes with the number of blocks placed, or is cancelled when the job is
+     */
+    public CompletableFuture<Integer> getFuture() {
+        return future;
+    }
+
+    public int getBlocksPlaced() {
+        return blocksPlaced;
+    }
+
+    /**
+     * @return the number of blocks the plan places, or 0 while it is being prepared
+     */
+    public int getTotalBlocks() {
+        return totalBlocks;
+    }
+
+    /**
+     * Whether the plan is still being prepared
+     */
+    public boolean isPreparing() {
+        return preparing;
+    }
+
+    /**
+     * Get the share of blocks placed so far, from 0 to 1
+     */
+    public double getProgress() {
+        if (preparing) {
+            return 0.0;
+        }
+        return totalBlocks == 0 ? 1.0 : (double) blocksPlaced / totalBlocks;
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Stop the job. Blocks already placed stay, and the chunk in progress is refreshed on the next
+     * tick.
+     * @return whether the job was still running
+     */
+    public boolean cancel() {
+        return future.cancel(false);
+    }
+
+    void tick() {
+        if (future.isDone()) {
+            // Cancelled since the last tick
+            finish();
+            notifyProgress();
+            return;
+        }
+
+        try {
+            PhaseTimer timer = new PhaseTimer();
+            Object event = SchematicEvents.beginPasteBatch();
+            int firstChunk = chunkIndex;
+            long deadline = System.nanoTime() + tickBudgetNanos;
+            preloader.advance(chunkIndex, deadline);
+            timer.lap(Phase.CHUNK_LOAD);
+            int placed = blocksPlaced;
+            int tileEntities = 0;
+            int chunksDone = 0;
+            int sinceClock = 0;
+
+            paste:
+            while (chunkIndex < chunks.size()) {
+                if (blocks == null) {
+                    chunk = preloader.chunk(chunkIndex);
+                    timer.lap(Phase.CHUNK_LOAD);
+                    if (chunk == null) {
+                        // Still loading, try again next tick
+                        break;
+                    }
+                    blocks = chunks.get(chunkIndex).getBlocks().entrySet().iterator();
+                }
+
+                while (blocks.hasNext()) {
+                    Map.Entry<Vector, BlockData> entry = blocks.next();
+                    Vector position = entry.getKey();
+                    place(chunk.getBlock(position.getBlockX(), position.getBlockY(), position.getBlockZ()), entry.getValue());
+                    placed++;
+                    if (++sinceClock == CLOCK_INTERVAL) {
+                        sinceClock = 0;
+                        if (System.nanoTime() - deadline >= 0) {
+                            break paste;
+                        }
+                    }
+                }
+
+                timer.lap(Phase.BLOCK_WRITE);
+                if (nmsAbstraction != null) {
+                    chunks.get(chunkIndex).applyTileEntities(chunk, nmsAbstraction);
+                    tileEntities += chunks.get(chunkIndex).getTileEntityCount();
+                    timer.lap(Phase.TILE_ENTITIES);
+                }
+                completeChunk();
+                timer.lap(Phase.CHUNK_REFRESH);
+                chunksDone++;
+                chunkIndex++;
+                preloader.advance(chunkIndex, deadline);
+                timer.lap(Phase.CHUNK_LOAD);
+            }
+            timer.lap(Phase.BLOCK_WRITE);
+            if (event != null) {
+                int touched = Math.min(chunks.size(), chunkIndex + (chunk != null ? 1 : 0));
+                SchematicEvents.endPasteBatch(event, world, placed - blocksPlaced, tileEntities,
+                        chunks.subList(firstChunk, Math.max(firstChunk, touched)));
+            }
+            timer.report(placed - blocksPlaced, tileEntities, chunksDone);
+            busyNanos += timer.getElapsedNanos();
+            blocksPlaced = placed;
+
+            if (chunkIndex >= chunks.size()) {
+                finish();
+                SchematicMetrics.recordNanos(Phase.PASTE, busyNanos, placed, chunks.size());
+                future.complete(placed);
+            }
+            notifyProgress();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Paste job failed", e);
+            finish();
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void place(Block block, BlockData blockData) {
+        if (nmsAbstraction == null) {
+            block.setBlockData(blockData, false);
+        } else {
+            nmsAbstraction.setBlockSuperFast(block, blockData, false);
+        }
+    }
+
+    /**
+     * Send the chunk in progress to clients and let it unload
+     */
+    private void completeChunk() {
+        if (nmsAbstraction != null) {
+            Object event = SchematicEvents.beginChunkRefresh();
+            nmsAbstraction.refreshChunk(chunk);
+            SchematicEvents.endChunkRefresh(event, chunk);
+        }
+        preloader.release(chunkIndex);
+        chunk = null;
+        blocks = null;
+    }
+
+    /**
+     * Stop the task, refresh a partly pasted chunk and drop every chunk ticket
+     */
+    private void finish() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        if (chunk != null) {
+            completeChunk();
+        }
+        if (preloader != null) {
+            preloader.releaseAll();
+        }
+    }
+
+    private void notifyProgress() {
+        if (progressListener == null) {
+            return;
+        }
+        try {
+            progressListener.accept(this);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Paste progress listener failed", e);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.joeyoey.simpleschem.paste;
+
+import com.joeyoey.simpleschem.jfr.SchematicEvents;
+import com.joeyoey.simpleschem.metrics.Phase;
+import com.joeyoey.simpleschem.metrics.PhaseTimer;
+import com.joeyoey.simpleschem.metrics.SchematicMetrics;
+import com.joeyoey.simpleschem.nms.NMSAbstraction;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.TileEntityStore;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.util.Vector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.IntFunction;
+
+/**
+ * A schematic resolved against a paste location: block data parsed, target coordinates computed
+ * and blocks and tile entities grouped by chunk, sorted by chunk x and then chunk z. Preparing a plan does not touch
+ * the world, so it can run on any thread; applying it only writes blocks and must run on the main
+ * thread. A plan does not change once prepared.
+ */
+public final class PastePlan {
+
+    private final World world;
+    private final List<ChunkPlan> chunks;
+    private final int blockCount;
+
+    private PastePlan(World world, List<ChunkPlan> chunks, int blockCount) {
+        this.world = world;
+        this.chunks = chunks;
+        this.blockCount = blockCount;
+    }
+
+    /**
+     * Prepare a plan on the calling thread
+     * @param center the center of the paste
+     * @param schematic the schematic to paste
+     * @return the plan
+     */
+    public static PastePlan prepare(Location center, Schematic schematic) {
+        World world = requireWorld(center);
+        return prepare(world, center.getBlockX(), center.getBlockY(), center.getBlockZ(),
+                schematic, schematic::getPaletteBlockData, 0, world.getMaxHeight());
+    }
+
+    /**
+     * Prepare a plan on an executor. The paste location is read on the calling thread.
+     * @param center the center of the paste
+     * @param schematic the schematic to paste
+     * @param executor the executor to prepare on
+     * @return a future completing with the plan
+     */
+    public static CompletableFuture<PastePlan> prepareAsync(Location center, Schematic schematic, Executor executor) {
+        World world = requireWorld(center);
+        int baseX = center.getBlockX();
+        int baseY = center.getBlockY();
+        int baseZ = center.getBlockZ();
+        int maxY = world.getMaxHeight();
+        return CompletableFuture.supplyAsync(() -> prepare(world, baseX, baseY, baseZ,
+                schematic, schematic::getPaletteBlockData, 0, maxY), executor);
+    }
+
+    /**
+     * Prepare a plan for a paste at the given block, keeping blocks with world y in [minY, maxY)
+     */
+    static PastePlan prepare(World world, int baseX, int baseY, int baseZ, Schematic schematic,
+                             IntFunction<BlockData> paletteBlockData, int minY, int maxY) {
+        long start = System.nanoTime();
+        long parseNanos = 0;
+        Map<Long, Map<Vector, BlockData>> buckets = new HashMap<>();
+        Map<Long, List<Integer>> tileBuckets = new HashMap<>();
+        BlockData[] decoded = new BlockData[schematic.getPaletteSize()];
+        int blockCount = 0;
+
+        int cell = 0;
+        for (int y = 0; y < schematic.getSizeY(); y++) {
+            int worldY = baseY + schematic.getOriginY() + y;
+            if (worldY < minY || worldY >= maxY) {
+                cell += schematic.getSizeX() * schematic.getSizeZ();
+                continue;
+            }
+            for (int z = 0; z < schematic.getSizeZ(); z++) {
+                int worldZ = baseZ + schematic.getOriginZ() + z;
+                // Cells run along x, so consecutive blocks share a chunk for up to 16 cells
+                long lastKey = 0;
+                Map<Vector, BlockData> bucket = null;
+                for (int x = 0; x < schematic.getSizeX(); x++, cell++) {
+                    int paletteIndex = schematic.getCell(cell);
+                    if (paletteIndex == Schematic.EMPTY) {
+                        continue;
+                    }
+                    int worldX = baseX + schematic.getOriginX() + x;
+                    long key = ChunkFootprint.key(worldX >> 4, worldZ >> 4);
+                    if (bucket == null || key != lastKey) {
+                        lastKey = key;
+                        bucket = buckets.computeIfAbsent(key, k -> new LinkedHashMap<>());
+                    }
+                    BlockData blockData = decoded[paletteIndex];
+                    if (blockData == null) {
+                        long parseStart = System.nanoTime();
+                        blockData = paletteBlockData.apply(paletteIndex);
+                        parseNanos += System.nanoTime() - parseStart;
+                        decoded[paletteIndex] = blockData;
+                    }
+                    bucket.put(new Vector(worldX & 15, worldY, worldZ & 15), blockData);
+                    blockCount++;
+                }
+            }
+        }
+
+        TileEntityStore tileEntities = schematic.getTileEntities();
+        for (int i = 0; i < tileEntities.size(); i++) {
+            int worldY = baseY + tileEntities.getY(i);
+            if (worldY < minY || worldY >= maxY) {
+                continue;
+            }
+            long key = ChunkFootprint.key((baseX + tileEntities.getX(i)) >> 4, (baseZ + tileEntities.getZ(i)) >> 4);
+            tileBuckets.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            buckets.computeIfAbsent(key, k -> new LinkedHashMap<>());
+        }
+
+        List<ChunkPlan> chunks = new ArrayList<>(buckets.size());
+        for (Map.Entry<Long, Map<Vector, BlockData>> bucket : buckets.entrySet()) {
+            long key = bucket.getKey();
+            List<Integer> tiles = tileBuckets.get(key);
+            int[] tileIndexes = new int[tiles == null ? 0 : tiles.size()];
+            int[] tilePositions = new int[tileIndexes.length * 3];
+            for (int i = 0; i < tileIndexes.length; i++) {
+                int index = tiles.get(i);
+                tileIndexes[i] = index;
+                tilePositions[i * 3] = (baseX + tileEntities.getX(index)) & 15;
+                tilePositions[i * 3 + 1] = baseY + tileEntities.getY(index);
+                tilePositions[i * 3 + 2] = (baseZ + tileEntities.getZ(index)) & 15;
+            }
+            chunks.add(new ChunkPlan(ChunkFootprint.chunkX(key), ChunkFootprint.chunkZ(key),
+                    Collections.unmodifiableMap(bucket.getValue()), tileEntities, tileIndexes, tilePositions));
+        }
+        chunks.sort(Comparator.comparingInt(ChunkPlan::getChunkX).thenComparingInt(ChunkPlan::getChunkZ));
+        SchematicMetrics.recordNanos(Phase.BLOCK_DATA, parseNanos, blockCount, 0);
+        SchematicMetrics.record(Phase.PLAN, start, blockCount, chunks.size());
+        return new PastePlan(world, Collections.unmodifiableList(chunks), blockCount);
+    }
+
+    /**
+     * Take a snapshot of every chunk the plan writes to, loading chunks as needed. The snapshots
+     * leave out height maps and biomes. Main thread only.
+     * @return the snapshots keyed as by {@link ChunkFootprint#key(int, int)}
+     */
+    public Map<Long, ChunkSnapshot> snapshotChunks() {
+        long start = System.nanoTime();
+        Map<Long, ChunkSnapshot> snapshots = new HashMap<>(chunks.size() * 2);
+        for (ChunkPlan plan : chunks) {
+            Chunk chunk = world.getChunkAt(plan.getChunkX(), plan.getChunkZ());
+            snapshots.put(ChunkFootprint.key(plan.getChunkX(), plan.getChunkZ()),
+                    chunk.getChunkSnapshot(false, false, false));
+        }
+        SchematicMetrics.record(Phase.CHUNK_LOAD, start, 0, chunks.size());
+        return snapshots;
+    }
+
+    /**
+     * Get a plan holding only the blocks whose current state differs from the planned one. Blocks
+     * sharing a palette entry share one block data instance, so each block costs one state
+     * comparison. Chunks without a snapshot are kept whole, and chunks left with no changes are
+     * dropped. Safe to call on any thread.
+     * @param snapshots the chunk snapshots from {@link #snapshotChunks()}
+     * @return the plan of changed blocks
+     */
+    public PastePlan changedBlocks(Map<Long, ChunkSnapshot> snapshots) {
+        List<ChunkPlan> changed = new ArrayList<>();
+        int changedCount = 0;
+        for (ChunkPlan plan : chunks) {
+            ChunkSnapshot snapshot = snapshots.get(ChunkFootprint.key(plan.getChunkX(), plan.getChunkZ()));
+            if (snapshot == null) {
+                changed.add(plan);
+                changedCount += plan.getBlocks().size();
+                continue;
+            }
+            // Tile entities are always written, a chest in place may still hold other items
+            Map<Vector, BlockData> blocks = new LinkedHashMap<>();
+            for (Map.Entry<Vector, BlockData> entry : plan.getBlocks().entrySet()) {
+                Vector position = entry.getKey();
+                BlockData current = snapshot.getBlockData(position.getBlockX(), position.getBlockY(), position.getBlockZ());
+                if (!entry.getValue().equals(current)) {
+                    blocks.put(position, entry.getValue());
+                }
+            }
+            if (!blocks.isEmpty() || plan.getTileEntityCount() > 0) {
+                changed.add(new ChunkPlan(plan.getChunkX(), plan.getChunkZ(), Collections.unmodifiableMap(blocks),
+                        plan.tileEntities, plan.tileIndexes, plan.tilePositions));
+                changedCount += blocks.size();
+            }
+        }
+        return new PastePlan(world, Collections.unmodifiableList(changed), changedCount);
+    }
+
+    /**
+     * Write the plan through the NMS bulk path: one {@link NMSAbstraction#setBlocksInChunk} call
+     * per chunk followed by the chunk's tile entities, then one {@link NMSAbstraction#refreshChunk}
+     * per chunk. Main thread only.
+     * @param nmsAbstraction the NMS implementation that writes the chunks
+     * @return the number of chunks written
+     */
+    public int apply(NMSAbstraction nmsAbstraction) {
+        PhaseTimer timer = new PhaseTimer();
+        Object event = SchematicEvents.beginPasteBatch();
+        List<Chunk> written = new ArrayList<>(chunks.size());
+        for (ChunkPlan plan : chunks) {
+            Chunk chunk = world.getChunkAt(plan.getChunkX(), plan.getChunkZ());
+            timer.lap(Phase.CHUNK_LOAD);
+            if (!plan.getBlocks().isEmpty()) {
+                nmsAbstraction.setBlocksInChunk(chunk, plan.getBlocks());
+            }
+            timer.lap(Phase.BLOCK_WRITE);
+            plan.applyTileEntities(chunk, nmsAbstraction);
+            timer.lap(Phase.TILE_ENTITIES);
+            written.add(chunk);
+        }
+        for (Chunk chunk : written) {
+            Object refresh = SchematicEvents.beginChunkRefresh();
+            nmsAbstraction.refreshChunk(chunk);
+            SchematicEvents.endChunkRefresh(refresh, chunk);
+        }
+        timer.lap(Phase.CHUNK_REFRESH);
+        SchematicEvents.endPasteBatch(event, world, blockCount, getTileEntityCount(), chunks);
+        timer.report(blockCount, getTileEntityCount(), written.size());
+        SchematicMetrics.recordNanos(Phase.PASTE, timer.getElapsedNanos(), blockCount, written.size());
+        return written.size();
+    }
+
+    /**
+     * Write the plan block by block through the Bukkit API, chunk after chunk. Tile entities are
+     * skipped. Main thread only.
+     * @param applyPhysics whether to apply physics to each block
+     */
+    public void applyWithBukkit(boolean applyPhysics) {
+        applyWithBukkit(applyPhysics, null);
+    }
+
+    /**
+     * Write the plan block by block through the Bukkit API, chunk after chunk, writing each chunk's
+     * tile entities right after its blocks. Main thread only.
+     * @param applyPhysics whether to apply physics to each block
+     * @param tileEntityWriter the NMS implementation that writes tile entities, or null to skip them
+     */
+    public void applyWithBukkit(boolean applyPhysics, NMSAbstraction tileEntityWriter) {
+        PhaseTimer timer = new PhaseTimer();
+        Object event = SchematicEvents.beginPasteBatch();
+        for (ChunkPlan plan : chunks) {
+            Chunk chunk = world.getChunkAt(plan.getChunkX(), plan.getChunkZ());
+            timer.lap(Phase.CHUNK_LOAD);
+            for (Map.Entry<Vector, BlockData> entry : plan.getBlocks().entrySet()) {
+                Vector position = entry.getKey();
+                chunk.getBlock(position.getBlockX(), position.getBlockY(), position.getBlockZ())
+                        .setBlockData(entry.getValue(), applyPhysics);
+            }
+            timer.lap(Phase.BLOCK_WRITE);
+            if (tileEntityWriter != null) {
+                plan.applyTileEntities(chunk, tileEntityWriter);
+                timer.lap(Phase.TILE_ENTITIES);
+            }
+        }
+        int tileEntities = tileEntityWriter == null ? 0 : getTileEntityCount();
+        SchematicEvents.endPasteBatch(event, world, blockCount, tileEntities, chunks);
+        timer.report(blockCount, tileEntities, chunks.size());
+        SchematicMetrics.recordNanos(Phase.PASTE, timer.getElapsedNanos(), blockCount, chunks.size());
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Get the chunks of the plan, sorted by chunk x and then chunk z
+     */
+    public List<ChunkPlan> getChunks() {
+        return chunks;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getTileEntityCount() {
+        int count = 0;
+        for (ChunkPlan plan : chunks) {
+            count += plan.getTileEntityCount();
+        }
+        return count;
+    }
+
+    private static World requireWorld(Location center) {
+        World world = center.getWorld();
+        if (world == null) {
+            throw new IllegalArgumentException("Paste location has no world");
+        }
+        return world;
+    }
+
+    /**
+     * The blocks and tile entities of a plan that land in one chunk. Tile entity payloads stay
+     * encoded in the schematic's {@link TileEntityStore} until they are written.
+     */
+    public static final class ChunkPlan {
+
+        private final int chunkX;
+        private final int chunkZ;
+        private final Map<Vector, BlockData> blocks;
+        private final TileEntityStore tileEntities;
+        private final int[] tileIndexes; // entries of the store in this chunk
+        private final int[] tilePositions; // chunk-local x, world y, chunk-local z per entry
+
+        ChunkPlan(int chunkX, int chunkZ, Map<Vector, BlockData> blocks) {
+            this(chunkX, chunkZ, blocks, TileEntityStore.EMPTY, new int[0], new int[0]);
+        }
+
+        ChunkPlan(int chunkX, int chunkZ, Map<Vector, BlockData> blocks,
+                  TileEntityStore tileEntities, int[] tileIndexes, int[] tilePositions) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.blocks = blocks;
+            this.tileEntities = tileEntities;
+            this.tileIndexes = tileIndexes;
+            this.tilePositions = tilePositions;
+        }
+
+        public int getChunkX() {
+            return chunkX;
+        }
+
+        public int getChunkZ() {
+            return chunkZ;
+        }
+
+        /**
+         * Get the blocks keyed by chunk-local position (x and z from 0 to 15, world y), in cell
+         * order. The block data instances are shared and must not be modified.
+         */
+        public Map<Vector, BlockData> getBlocks() {
+            return blocks;
+        }
+
+        public int getTileEntityCount() {
+            return tileIndexes.length;
+        }
+
+        /**
+         * Decode and write the tile entities of this chunk. Main thread only.
+         */
+        void applyTileEntities(Chunk chunk, NMSAbstraction nmsAbstraction) {
+            for (int i = 0; i < tileIndexes.length; i++) {
+                nmsAbstraction.setTileEntityData(
+                        chunk.getBlock(tilePositions[i * 3], tilePositions[i * 3 + 1], tilePositions[i * 3 + 2]),
+                        tileEntities.getData(tileIndexes[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.joeyoey.simpleschem.paste;
+
+import com.joeyoey.simpleschem.nms.NMSAbstraction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded history of {@link UndoSnapshot}s, newest last. The history holds at most a fixed number
+ * of snapshots and keeps the snapshots held in memory under a byte cap shared by all of them. Over
+ * the cap, the oldest snapshots in memory are spilled to the spill directory or, without one,
+ * dropped. The newest snapshot is never dropped for size, so the last paste can always be undone.
+ * Main thread only.
+ */
+public final class UndoHistory {
+
+    private static final Logger LOGGER = Logger.getLogger(UndoHistory.class.getName());
+
+    private final int capacity;
+    private final long maxBytes;
+    private final File spillDirectory;
+
+    private final Deque<UndoSnapshot> snapshots = new ArrayDeque<>();
+    private long memoryBytes;
+
+    /**
+     * @param capacity the most snapshots to keep
+     * @param maxBytes the most estimated bytes of snapshots to hold in memory
+     * @param spillDirectory the directory to spill snapshots to, or null to drop them instead
+     */
+    public UndoHistory(int capacity, long maxBytes, File spillDirectory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Capture the blocks a plan is about to overwrite and add them to the history, without tile
+     * entities. Call right before applying the plan.
+     * @param plan the plan about to be applied
+     * @return the recorded snapshot
+     */
+    public UndoSnapshot record(PastePlan plan) {
+        return record(plan, null);
+    }
+
+    /**
+     * Capture the blocks a plan is about to overwrite, with their tile entities, and add them to the
+     * history. Call right before applying the plan.
+     * @param plan the plan about to be applied
+     * @param nmsAbstraction the NMS implementation to read tile entity data with, or null to record
+     *                       block states only
+     * @return the recorded snapshot
+     */
+    public UndoSnapshot record(PastePlan plan, NMSAbstraction nmsAbstraction) {
+        UndoSnapshot snapshot = UndoSnapshot.capture(plan, nmsAbstraction);
+        push(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Add a snapshot as the newest entry, evicting or spilling older ones as needed
+     */
+    public void push(UndoSnapshot snapshot) {
+        snapshots.addLast(snapshot);
+        memoryBytes += snapshot.getByteSize();
+        while (snapshots.size() > capacity) {
+            remove(snapshots.removeFirst());
+        }
+        trim();
+    }
+
+    /**
+     * Restore the newest snapshot and remove it from the history
+     * @param nmsAbstraction the NMS implementation that writes the chunks
+     * @return whether a snapshot was restored
+     */
+    public boolean undo(NMSAbstraction nmsAbstraction) {
+        UndoSnapshot snapshot = snapshots.pollLast();
+        if (snapshot == null) {
+            return false;
+        }
+        try {
+            snapshot.restore(nmsAbstraction);
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to read spilled undo snapshot", e);
+            return false;
+        } finally {
+            remove(snapshot);
+        }
+    }
+
+    /**
+     * Drop every snapshot and delete their spill files
+     */
+    public void clear() {
+        while (!snapshots.isEmpty()) {
+            remove(snapshots.removeFirst());
+        }
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    /**
+     * Get the estimated bytes of the snapshots held in memory
+     */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    private void trim() {
+        Iterator<UndoSnapshot> oldestFirst = snapshots.iterator();
+        while (memoryBytes > maxBytes && oldestFirst.hasNext()) {
+            UndoSnapshot snapshot = oldestFirst.next();
+            if (snapshot.isSpilled()) {
+                continue;
+            }
+            if (spillDirectory != null && spill(snapshot)) {
+                memoryBytes -= snapshot.getByteSize();
+            } else if (oldestFirst.hasNext()) {
+                oldestFirst.remove();
+                remove(snapshot);
+            }
+        }
+    }
+
+    private boolean spill(UndoSnapshot snapshot) {
+        try {
+            if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+                throw new IOException("Could not create " + spillDirectory);
+            }
+            snapshot.spill(File.createTempFile("undo-", ".schem", spillDirectory));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to spill undo snapshot", e);
+            return false;
+        }
+    }
+
+    private void remove(UndoSnapshot snapshot) {
+        if (!snapshot.isSpilled()) {
+            memoryBytes -= snapshot.getByteSize();
+        }
+        snapshot.discard();
+    }
+}
@@ -0,0 +1,169 @@
+package com.joeyoey.simpleschem.paste;
+
+import com.joeyoey.simpleschem.io.CompactFormat;
+import com.joeyoey.simpleschem.io.SchematicCodec;
+import com.joeyoey.simpleschem.nms.NMSAbstraction;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.util.Vector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The states a paste is about to overwrite, kept as a {@link Schematic} in world coordinates. Only
+ * the blocks of the plan are recorded, and each distinct state is turned into a string once. A
+ * snapshot costs about two bytes per cell of the plan's bounding box plus its palette, or six bytes
+ * per block when the blocks are scattered thinly over the box, as in a diff paste. Tile
+ * entities the paste overwrites, such as chest contents, are recorded with them when an
+ * {@link NMSAbstraction} is given to read them. A snapshot can be spilled to a compact file and is read back when it is restored. Main thread only.
+ */
+public final class UndoSnapshot {
+
+    private final World world;
+    private final int blockCount;
+    private final long byteSize;
+
+    private Schematic schematic;
+    private File spillFile;
+
+    private UndoSnapshot(World world, Schematic schematic) {
+        this.world = world;
+        this.schematic = schematic;
+        this.blockCount = schematic.getBlockCount();
+        this.byteSize = schematic.getEstimatedByteSize();
+    }
+
+    /**
+     * Record the current state of every block a plan writes, before it is applied, without tile
+     * entities
+     * @param plan the plan about to be applied
+     * @return the snapshot
+     */
+    public static UndoSnapshot capture(PastePlan plan) {
+        return capture(plan, null);
+    }
+
+    /**
+     * Record the current state and tile entity data of every block a plan writes, before it is
+     * applied
+     * @param plan the plan about to be applied
+     * @param nmsAbstraction the NMS implementation to read tile entity data with, or null to record
+     *                       block states only
+     * @return the snapshot
+     */
+    public static UndoSnapshot capture(PastePlan plan, NMSAbstraction nmsAbstraction) {
+        // Unbounded, so the builder can keep scattered blocks without a cell for every empty one
+        SchematicBuilder builder = new SchematicBuilder();
+        Map<BlockData, Integer> paletteIds = new HashMap<>();
+        for (PastePlan.ChunkPlan chunkPlan : plan.getChunks()) {
+            Chunk chunk = plan.getWorld().getChunkAt(chunkPlan.getChunkX(), chunkPlan.getChunkZ());
+            int baseX = chunkPlan.getChunkX() << 4;
+            int baseZ = chunkPlan.getChunkZ() << 4;
+            for (Vector position : chunkPlan.getBlocks().keySet()) {
+                BlockData current = chunk.getBlock(position.getBlockX(), position.getBlockY(), position.getBlockZ()).getBlockData();
+                Integer paletteId = paletteIds.get(current);
+                if (paletteId == null) {
+                    paletteId = builder.paletteId(current.getAsString());
+                    paletteIds.put(current, paletteId);
+                }
+                builder.addBlock(baseX + position.getBlockX(), position.getBlockY(), baseZ + position.getBlockZ(), paletteId);
+            }
+            if (nmsAbstraction != null) {
+                captureTileEntities(chunk, chunkPlan, nmsAbstraction, builder);
+            }
+        }
+        return new UndoSnapshot(plan.getWorld(), builder.build());
+    }
+
+    /**
+     * Record the tile entities of a chunk that sit on blocks the plan overwrites. The chunk lists
+     * its tile entities, so only those blocks are asked for their data.
+     */
+    private static void captureTileEntities(Chunk chunk, PastePlan.ChunkPlan chunkPlan, NMSAbstraction nmsAbstraction,
+                                            SchematicBuilder builder) {
+        Map<Vector, BlockData> blocks = chunkPlan.getBlocks();
+        for (BlockState state : chunk.getTileEntities()) {
+            int x = state.getX() & 15;
+            int z = state.getZ() & 15;
+            if (!blocks.containsKey(new Vector(x, state.getY(), z))) {
+                continue;
+            }
+            String nbtData = nmsAbstraction.getTileEntityData(state.getBlock());
+            if (nbtData != null) {
+                builder.addTileEntity(state.getX(), state.getY(), state.getZ(), nbtData);
+            }
+        }
+    }
+
+    /**
+     * Put the recorded states back through the chunk path of {@link PastePlan#apply(NMSAbstraction)}
+     * @param nmsAbstraction the NMS implementation that writes the chunks
+     * @return the number of blocks restored
+     * @throws IOException if a spilled snapshot cannot be read back
+     */
+    public int restore(NMSAbstraction nmsAbstraction) throws IOException {
+        Schematic recorded = getSchematic();
+        PastePlan plan = PastePlan.prepare(world, 0, 0, 0, recorded, recorded::getPaletteBlockData, 0, world.getMaxHeight());
+        plan.apply(nmsAbstraction);
+        return plan.getBlockCount();
+    }
+
+    /**
+     * Get the recorded states in world coordinates, reading them back from disk if spilled
+     */
+    public Schematic getSchematic() throws IOException {
+        if (schematic == null) {
+            return CompactFormat.read(spillFile);
+        }
+        return schematic;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Get the estimated heap size of the snapshot while it is held in memory
+     */
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    public boolean isSpilled() {
+        return schematic == null;
+    }
+
+    /**
+     * Write the snapshot to a file and drop it from memory
+     */
+    void spill(File file) throws IOException {
+        try {
+            CompactFormat.write(file, schematic, SchematicCodec.FAST);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+        spillFile = file;
+        schematic = null;
+    }
+
+    /**
+     * Delete the spill file, if any
+     */
+    void discard() {
+        if (spillFile != null && !spillFile.delete()) {
+            spillFile.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+/**
+ * Block store on the heap, two bytes per cell
+ */
+final class ArrayBlockStore implements BlockStore {
+
+    private final short[] blocks;
+
+    ArrayBlockStore(short[] blocks) {
+        this.blocks = blocks;
+    }
+
+    @Override
+    public int size() {
+        return blocks.length;
+    }
+
+    @Override
+    public int get(int cell) {
+        return blocks[cell];
+    }
+
+    @Override
+    public long getHeapBytes() {
+        return 2L * blocks.length + 16;
+    }
+}
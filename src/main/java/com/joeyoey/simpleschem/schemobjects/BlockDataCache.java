@@ -0,0 +1,102 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+import org.bukkit.Bukkit;
+import org.bukkit.block.data.BlockData;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide cache of parsed {@link BlockData}, keyed by block data string and shared by every
+ * schematic. The cache is bounded and drops the least recently used state when full.
+ * <p>
+ * Instances handed out are shared, so callers must {@link BlockData#clone()} before modifying one.
+ */
+public final class BlockDataCache {
+
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    private static final Map<String, BlockData> CACHE = new LinkedHashMap<String, BlockData>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BlockData> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+
+    private BlockDataCache() {
+    }
+
+    /**
+     * Get the parsed block data for a block data string, parsing it on a miss
+     * @param blockData the block data string, e.g. {@code minecraft:oak_stairs[facing=east]}
+     * @return the shared parsed instance
+     */
+    public static BlockData get(String blockData) {
+        BlockData cached;
+        synchronized (CACHE) {
+            cached = CACHE.get(blockData);
+        }
+        if (cached != null) {
+            HITS.increment();
+            return cached;
+        }
+
+        MISSES.increment();
+        // Parse outside the lock, the first instance stored wins
+        BlockData parsed = Bukkit.createBlockData(blockData);
+        synchronized (CACHE) {
+            BlockData raced = CACHE.get(blockData);
+            if (raced != null) {
+                return raced;
+            }
+            CACHE.put(blockData, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Set the maximum number of states kept. Shrinking takes effect as new states are added.
+     */
+    public static void setMaxSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + size);
+        }
+        maxSize = size;
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    public static long getHits() {
+        return HITS.sum();
+    }
+
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+    /**
+     * Drop every cached state and reset the counters
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+        HITS.reset();
+        MISSES.reset();
+    }
+}
@@ -0,0 +1,27 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+/**
+ * Backing storage of a {@link Schematic}: one palette index per cell of the bounding box, cells
+ * ordered x fastest, then z, then y. Implementations must be safe for concurrent reads.
+ */
+public interface BlockStore {
+
+    /**
+     * @return the number of cells
+     */
+    int size();
+
+    /**
+     * @param cell the cell number
+     * @return the palette index of the cell, or {@link Schematic#EMPTY} if it holds no block
+     */
+    int get(int cell);
+
+    /**
+     * @return the estimated heap held by the store, leaving out anything shared or mapped
+     */
+    default long getHeapBytes() {
+        return 0;
+    }
+
+}
@@ -1,96 +1,339 @@
 package com.joeyoey.simpleschem.schemobjects;
 
-import org.bukkit.Bukkit;
 import org.bukkit.block.data.BlockData;
 import org.bukkit.util.Vector;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-public class Schematic {
+/**
+ * An immutable set of blocks relative to a center. Every field is final and the derived views are
+ * either built in the constructor or published safely on first use, so one instance can be shared
+ * by any number of threads, for example concurrent pastes of a cached template, without locking.
+ */
+public final class Schematic {
 
+    /**
+     * Palette index stored for cells of the bounding box that do not hold a block
+     */
+    public static final short EMPTY = -1;
 
-    private final Map<Vector, String> blockDataMap; // block relative location and its data
-    private Map<Short, String> blockPalette; // short ID to block data string mapping
-    private Map<Vector, Short> compactBlockData; // block relative location to short ID
 
-    private final Map<Vector, String> tileEntityData; // block relative location to tile entity NBT data
+    private final String[] palette; // palette index to block data string
+    private final BlockStore blocks; // palette index per cell of the bounding box, x fastest, then z, then y
 
-    private final transient Map<Vector, BlockData> trueMap = new HashMap<>();
+    private final int originX; // minimum corner of the bounding box, relative to the center
+    private final int originY;
+    private final int originZ;
+    private final int sizeX; // bounding box of the stored blocks
+    private final int sizeY;
+    private final int sizeZ;
+    private final int blockCount;
+
+    private final TileEntityStore tileEntities; // tile entity NBT payloads by relative location
 
     private final int width; // X axis
     private final int height; // y axis
     private final int length; // z axis
 
+    // read-only views over the store, stateless so built up front
+    private final Map<Vector, String> blockDataMap;
+    private final Map<Vector, Short> compactBlockData;
+    private final Map<Vector, BlockData> trueMap;
+    private final AtomicReferenceArray<BlockData> decodedPalette; // palette index to parsed block data
+    private final AtomicReferenceArray<Schematic> transformed; // views by transform index
+
+    // copies built on first use; racing threads build equal immutable maps
+    private volatile Map<Short, String> blockPalette;
+    private volatile Map<Vector, String> tileEntityData;
+
 
     public Schematic(Map<Vector, String> blockDataMap, int width, int height, int length) {
-        this.blockDataMap = blockDataMap;
-        this.width = width;
-        this.height = height;
-        this.length = length;
-        this.tileEntityData = new HashMap<>();
-        buildCompactFormat();
+        this(blockDataMap, null, width, height, length);
     }
 
     public Schematic(Map<Vector, String> blockDataMap, Map<Vector, String> tileEntityData, int width, int height, int length) {
-        this.blockDataMap = blockDataMap;
-        this.tileEntityData = tileEntityData != null ? tileEntityData : new HashMap<>();
+        this(fromMap(blockDataMap, tileEntityData, width, height, length));
+    }
+
+    /**
+     * Create a schematic over an existing block store, for example one backed by a mapped file.
+     * The palette is copied; the store is shared and must not change afterwards.
+     * @param palette palette index to block data string
+     * @param blocks the store, holding sizeX * sizeY * sizeZ cells
+     * @param originX minimum x of the bounding box, relative to the center
+     * @param originY minimum y of the bounding box, relative to the center
+     * @param originZ minimum z of the bounding box, relative to the center
+     * @param sizeX bounding box size along x
+     * @param sizeY bounding box size along y
+     * @param sizeZ bounding box size along z
+     * @param blockCount the number of cells that hold a block
+     * @param tileEntityData block relative location to tile entity NBT data
+     * @param width declared width
+     * @param height declared height
+     * @param length declared length
+     */
+    public Schematic(String[] palette, BlockStore blocks, int originX, int originY, int originZ,
+                     int sizeX, int sizeY, int sizeZ, int blockCount,
+                     Map<Vector, String> tileEntityData, int width, int height, int length) {
+        this(palette, blocks, originX, originY, originZ, sizeX, sizeY, sizeZ, blockCount,
+                toStore(tileEntityData), width, height, length);
+    }
+
+    /**
+     * Create a schematic over an existing block store and tile entity store
+     * @see #Schematic(String[], BlockStore, int, int, int, int, int, int, int, Map, int, int, int)
+     */
+    public Schematic(String[] palette, BlockStore blocks, int originX, int originY, int originZ,
+                     int sizeX, int sizeY, int sizeZ, int blockCount,
+                     TileEntityStore tileEntities, int width, int height, int length) {
+        if ((long) sizeX * sizeY * sizeZ != blocks.size()) {
+            throw new IllegalArgumentException("Block store holds " + blocks.size() + " cells, expected "
+                    + sizeX + "x" + sizeY + "x" + sizeZ);
+        }
+        this.palette = palette.clone();
+        this.blocks = blocks;
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.blockCount = blockCount;
+        this.tileEntities = tileEntities != null ? tileEntities : TileEntityStore.EMPTY;
         this.width = width;
         this.height = height;
         this.length = length;
-        buildCompactFormat();
-    }
-
-    private void buildCompactFormat() {
-        // Build block palette
-        this.blockPalette = new HashMap<>();
-        this.compactBlockData = new HashMap<>();
-        
-        Set<String> uniqueBlocks = new HashSet<>(blockDataMap.values());
-        short nextId = 0;
-        
-        for (String blockData : uniqueBlocks) {
-            blockPalette.put(nextId, blockData);
-            nextId++;
-        }
-        
-        // Convert block data to compact format
+        this.blockDataMap = new DenseView<String>() {
+            @Override
+            String value(int paletteIndex) {
+                return Schematic.this.palette[paletteIndex];
+            }
+        };
+        this.compactBlockData = new DenseView<Short>() {
+            @Override
+            Short value(int paletteIndex) {
+                return (short) paletteIndex;
+            }
+        };
+        this.trueMap = new DenseView<BlockData>() {
+            @Override
+            BlockData value(int paletteIndex) {
+                // Callers of the map view may modify what they get, so only the paste path shares
+                return getPaletteBlockData(paletteIndex).clone();
+            }
+        };
+        this.decodedPalette = new AtomicReferenceArray<>(this.palette.length);
+        this.transformed = new AtomicReferenceArray<>(8);
+    }
+
+    private Schematic(Schematic built) {
+        this(built.palette, built.blocks, built.originX, built.originY, built.originZ,
+                built.sizeX, built.sizeY, built.sizeZ, built.blockCount,
+                built.tileEntities, built.width, built.height, built.length);
+    }
+
+    private static Schematic fromMap(Map<Vector, String> blockDataMap, Map<Vector, String> tileEntityData, int width, int height, int length) {
+        SchematicBuilder builder = new SchematicBuilder().dimensions(width, height, length);
         for (Map.Entry<Vector, String> entry : blockDataMap.entrySet()) {
-            short blockId = getBlockId(entry.getValue());
-            compactBlockData.put(entry.getKey(), blockId);
+            Vector vector = entry.getKey();
+            builder.addBlock(vector.getBlockX(), vector.getBlockY(), vector.getBlockZ(), entry.getValue());
+        }
+        if (tileEntityData != null) {
+            for (Map.Entry<Vector, String> entry : tileEntityData.entrySet()) {
+                Vector vector = entry.getKey();
+                builder.addTileEntity(vector.getBlockX(), vector.getBlockY(), vector.getBlockZ(), entry.getValue());
+            }
+        }
+        return builder.build();
+    }
+
+    private static TileEntityStore toStore(Map<Vector, String> tileEntityData) {
+        if (tileEntityData == null || tileEntityData.isEmpty()) {
+            return TileEntityStore.EMPTY;
+        }
+        TileEntityStore.Builder builder = new TileEntityStore.Builder();
+        for (Map.Entry<Vector, String> entry : tileEntityData.entrySet()) {
+            Vector vector = entry.getKey();
+            builder.add(vector.getBlockX(), vector.getBlockY(), vector.getBlockZ(), entry.getValue());
         }
+        return builder.build();
     }
-    
-    private short getBlockId(String blockData) {
-        for (Map.Entry<Short, String> entry : blockPalette.entrySet()) {
-            if (entry.getValue().equals(blockData)) {
-                return entry.getKey();
+
+    private int cellOf(int x, int y, int z) {
+        return ((y - originY) * sizeZ + (z - originZ)) * sizeX + (x - originX);
+    }
+
+
+    /**
+     * Get the palette index of the block at a position relative to the center
+     * @param x relative x
+     * @param y relative y
+     * @param z relative z
+     * @return the palette index, or {@link #EMPTY} if there is no block there
+     */
+    public int getPaletteIndex(int x, int y, int z) {
+        if (x < originX || y < originY || z < originZ
+                || x >= originX + sizeX || y >= originY + sizeY || z >= originZ + sizeZ) {
+            return EMPTY;
+        }
+        return blocks.get(cellOf(x, y, z));
+    }
+
+    /**
+     * Get the palette index stored in a cell of the bounding box. Cells are ordered x fastest,
+     * then z, then y.
+     * @param cell the cell number, between 0 and {@link #getCellCount()}
+     * @return the palette index, or {@link #EMPTY} if the cell holds no block
+     */
+    public int getCell(int cell) {
+        return blocks.get(cell);
+    }
+
+    public int getCellCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Visit every stored block in cell order
+     * @param visitor the visitor receiving relative coordinates and palette indices
+     */
+    public void forEachBlock(BlockVisitor visitor) {
+        int cell = 0;
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                for (int x = 0; x < sizeX; x++, cell++) {
+                    int id = blocks.get(cell);
+                    if (id != EMPTY) {
+                        visitor.visit(originX + x, originY + y, originZ + z, id);
+                    }
+                }
             }
         }
-        return -1; // Should not happen
+    }
+
+    public String getPaletteEntry(int paletteIndex) {
+        return palette[paletteIndex];
+    }
+
+    /**
+     * Get the parsed block data of a palette entry. Each entry is parsed once, through the shared
+     * {@link BlockDataCache}; the instance returned is shared and must not be modified.
+     * @param paletteIndex the palette index
+     * @return the parsed block data
+     */
+    public BlockData getPaletteBlockData(int paletteIndex) {
+        BlockData blockData = decodedPalette.get(paletteIndex);
+        if (blockData == null) {
+            // The cache hands every thread the same instance, so a racing store is harmless
+            blockData = BlockDataCache.get(palette[paletteIndex]);
+            decodedPalette.set(paletteIndex, blockData);
+        }
+        return blockData;
+    }
+
+    public int getPaletteSize() {
+        return palette.length;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginY() {
+        return originY;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
     }
 
 
+    /**
+     * @return a read-only view of the block data string of every block
+     */
     public Map<Vector, String> getBlockDataMap() {
         return blockDataMap;
     }
 
+    /**
+     * @return a read-only copy of the palette, keyed by palette index
+     */
     public Map<Short, String> getBlockPalette() {
-        return blockPalette;
+        Map<Short, String> map = blockPalette;
+        if (map == null) {
+            Map<Short, String> built = new HashMap<>();
+            for (int i = 0; i < palette.length; i++) {
+                built.put((short) i, palette[i]);
+            }
+            map = Collections.unmodifiableMap(built);
+            blockPalette = map;
+        }
+        return map;
     }
 
+    /**
+     * @return a read-only view of the palette index of every block
+     */
     public Map<Vector, Short> getCompactBlockData() {
         return compactBlockData;
     }
 
+    /**
+     * Get the tile entities with their NBT data decoded. Built on first use; prefer
+     * {@link #getTileEntities()}, which decodes nothing.
+     */
     public Map<Vector, String> getTileEntityData() {
-        return tileEntityData;
+        Map<Vector, String> map = tileEntityData;
+        if (map == null) {
+            map = Collections.unmodifiableMap(tileEntities.toMap());
+            tileEntityData = map;
+        }
+        return map;
+    }
+
+    public TileEntityStore getTileEntities() {
+        return tileEntities;
     }
 
     public boolean hasTileEntities() {
-        return tileEntityData != null && !tileEntityData.isEmpty();
+        return !tileEntities.isEmpty();
+    }
+
+    /**
+     * Estimate the heap this schematic holds: the block store, the palette strings and the tile
+     * entities. Cells read from a mapped file or through another schematic's store count as free.
+     * @return the estimate in bytes
+     */
+    public long getEstimatedByteSize() {
+        long bytes = 96 + blocks.getHeapBytes() + tileEntities.getHeapBytes();
+        for (String entry : palette) {
+            bytes += 2L * entry.length() + 48;
+        }
+        return bytes;
     }
 
     public int getWidth() {
@@ -107,14 +350,148 @@ public class Schematic {
 
 
 
-    public Map<Vector, BlockData> getBlockData() {
-        if (trueMap.isEmpty()) {
-            for (Map.Entry<Vector, String> entry : this.blockDataMap.entrySet()) {
-                this.trueMap.put(entry.getKey(), Bukkit.createBlockData(entry.getValue()));
+    /**
+     * Get a rotated or mirrored view of this schematic. Blocks are not copied: the view reads this
+     * schematic's cells through the transform. Directional block states are transformed once per
+     * palette entry, and views are cached, so asking again for the same transform is free. Threads
+     * asking for the same transform at once all get the same view.
+     * @param transform the transform, applied about the coordinate origin, which is the point placed
+     *                  at the paste location, not about the center of the bounding box
+     * @return the view, or this schematic for {@link Transform#NONE}
+     */
+    public Schematic transform(Transform transform) {
+        if (blocks instanceof TransformedBlockStore) {
+            // Transform the original rather than stacking views
+            TransformedBlockStore view = (TransformedBlockStore) blocks;
+            return view.getSource().transform(view.getTransform().then(transform));
+        }
+        if (transform == Transform.NONE) {
+            return this;
+        }
+        Schematic view = transformed.get(transform.index());
+        if (view == null) {
+            view = createView(transform);
+            if (!transformed.compareAndSet(transform.index(), null, view)) {
+                view = transformed.get(transform.index());
             }
         }
+        return view;
+    }
+
+    private Schematic createView(Transform transform) {
+        int farX = originX + sizeX - 1;
+        int farZ = originZ + sizeZ - 1;
+        int viewOriginX = Math.min(transform.x(originX, originZ), transform.x(farX, farZ));
+        int viewOriginZ = Math.min(transform.z(originX, originZ), transform.z(farX, farZ));
+        boolean swap = transform.swapsAxes();
+
+        String[] viewPalette = new String[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            viewPalette[i] = transform.apply(palette[i]);
+        }
+
+        TileEntityStore.Builder viewTiles = new TileEntityStore.Builder();
+        for (int i = 0; i < tileEntities.size(); i++) {
+            int x = tileEntities.getX(i);
+            int z = tileEntities.getZ(i);
+            viewTiles.add(transform.x(x, z), tileEntities.getY(i), transform.z(x, z), tileEntities.getPayload(i));
+        }
+
+        return new Schematic(viewPalette, new TransformedBlockStore(this, blocks, transform, viewOriginX, viewOriginZ),
+                viewOriginX, originY, viewOriginZ,
+                swap ? sizeZ : sizeX, sizeY, swap ? sizeX : sizeZ, blockCount,
+                viewTiles.build(), swap ? length : width, height, swap ? width : length);
+    }
+
+    /**
+     * Get a view of the parsed block data of every block. Block data is parsed once per palette
+     * entry, and each lookup returns a copy the caller is free to modify. Use
+     * {@link #getPaletteBlockData(int)} to read the shared instances without copying.
+     * @return the read-only view
+     */
+    public Map<Vector, BlockData> getBlockData() {
         return trueMap;
     }
 
 
+    /**
+     * Receives the blocks of a schematic, see {@link #forEachBlock(BlockVisitor)}
+     */
+    public interface BlockVisitor {
+        void visit(int x, int y, int z, int paletteIndex);
+    }
+
+
+    /**
+     * Read-only map view over the dense store, keyed by relative position
+     */
+    private abstract class DenseView<V> extends AbstractMap<Vector, V> {
+
+        abstract V value(int paletteIndex);
+
+        @Override
+        public int size() {
+            return blockCount;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public V get(Object key) {
+            if (!(key instanceof Vector)) {
+                return null;
+            }
+            Vector vector = (Vector) key;
+            int id = getPaletteIndex(vector.getBlockX(), vector.getBlockY(), vector.getBlockZ());
+            return id == EMPTY ? null : value(id);
+        }
+
+        @Override
+        public Set<Entry<Vector, V>> entrySet() {
+            return new AbstractSet<Entry<Vector, V>>() {
+                @Override
+                public int size() {
+                    return blockCount;
+                }
+
+                @Override
+                public Iterator<Entry<Vector, V>> iterator() {
+                    return new Iterator<Entry<Vector, V>>() {
+                        private final int cells = blocks.size();
+                        private int cell = advance(0);
+
+                        private int advance(int from) {
+                            while (from < cells && blocks.get(from) == EMPTY) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return cell < cells;
+                        }
+
+                        @Override
+                        public Entry<Vector, V> next() {
+                            if (cell >= cells) {
+                                throw new NoSuchElementException();
+                            }
+                            int x = cell % sizeX;
+                            int z = (cell / sizeX) % sizeZ;
+                            int y = cell / (sizeX * sizeZ);
+                            Entry<Vector, V> entry = new SimpleImmutableEntry<>(
+                                    new Vector(originX + x, originY + y, originZ + z), value(blocks.get(cell)));
+                            cell = advance(cell + 1);
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+    }
+
 }
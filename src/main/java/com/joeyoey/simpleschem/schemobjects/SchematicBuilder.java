@@ -0,0 +1,241 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link Schematic} one block at a time. Palette ids are handed out from a reverse index as
+ * new block data strings are seen, so building is linear in the number of blocks.
+ * <p>
+ * A builder created with bounds writes straight into the dense store. Without bounds, blocks are
+ * buffered as coordinates and palette ids until {@link #build()} knows the bounding box; if they
+ * fill less than one cell in {@value #SPARSE_FRACTION} of it, only the filled cells are kept. A
+ * builder must not be used again after {@link #build()}.
+ */
+public class SchematicBuilder {
+
+    /**
+     * Unbounded builds filling less than one cell in this many are stored sparsely
+     */
+    static final int SPARSE_FRACTION = 8;
+
+    private final Map<String, Short> paletteIds = new HashMap<>();
+    private final List<String> palette = new ArrayList<>();
+    private final TileEntityStore.Builder tileEntities = new TileEntityStore.Builder();
+
+    // bounded mode
+    private final boolean bounded;
+    private int originX, originY, originZ;
+    private int sizeX, sizeY, sizeZ;
+    private short[] blocks;
+    private int blockCount;
+
+    // buffered mode
+    private int[] xs, ys, zs;
+    private short[] ids;
+    private int buffered;
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+    private int width = -1;
+    private int height = -1;
+    private int length = -1;
+
+
+    /**
+     * Create a builder that does not know its bounds up front
+     */
+    public SchematicBuilder() {
+        this.bounded = false;
+        this.xs = new int[64];
+        this.ys = new int[64];
+        this.zs = new int[64];
+        this.ids = new short[64];
+    }
+
+    /**
+     * Create a builder for blocks inside the given inclusive bounds, relative to the center
+     */
+    public SchematicBuilder(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        if (maxX < minX || maxY < minY || maxZ < minZ) {
+            throw new IllegalArgumentException("Invalid bounds: " + minX + "," + minY + "," + minZ + " to " + maxX + "," + maxY + "," + maxZ);
+        }
+        this.bounded = true;
+        this.originX = minX;
+        this.originY = minY;
+        this.originZ = minZ;
+        this.sizeX = maxX - minX + 1;
+        this.sizeY = maxY - minY + 1;
+        this.sizeZ = maxZ - minZ + 1;
+        this.blocks = newStore(sizeX, sizeY, sizeZ);
+    }
+
+    /**
+     * Get the palette id of a block data string, adding it to the palette if it is new
+     * @param blockData the block data string
+     * @return the palette id
+     */
+    public int paletteId(String blockData) {
+        Short id = paletteIds.get(blockData);
+        if (id == null) {
+            if (palette.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Schematic palette exceeds " + (Short.MAX_VALUE + 1) + " entries");
+            }
+            id = (short) palette.size();
+            paletteIds.put(blockData, id);
+            palette.add(blockData);
+        }
+        return id;
+    }
+
+    public SchematicBuilder addBlock(int x, int y, int z, String blockData) {
+        return addBlock(x, y, z, paletteId(blockData));
+    }
+
+    /**
+     * Add a block by a palette id previously returned from {@link #paletteId(String)}
+     */
+    public SchematicBuilder addBlock(int x, int y, int z, int paletteId) {
+        if (paletteId < 0 || paletteId >= palette.size()) {
+            throw new IllegalArgumentException("Unknown palette id: " + paletteId);
+        }
+        if (bounded) {
+            if (x < originX || y < originY || z < originZ
+                    || x >= originX + sizeX || y >= originY + sizeY || z >= originZ + sizeZ) {
+                throw new IllegalArgumentException("Block " + x + "," + y + "," + z + " is outside the builder bounds");
+            }
+            int cell = ((y - originY) * sizeZ + (z - originZ)) * sizeX + (x - originX);
+            if (blocks[cell] == Schematic.EMPTY) {
+                blockCount++;
+            }
+            blocks[cell] = (short) paletteId;
+            return this;
+        }
+
+        if (buffered == ids.length) {
+            int capacity = ids.length * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        xs[buffered] = x;
+        ys[buffered] = y;
+        zs[buffered] = z;
+        ids[buffered] = (short) paletteId;
+        buffered++;
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+        return this;
+    }
+
+    public SchematicBuilder addTileEntity(int x, int y, int z, String nbtData) {
+        tileEntities.add(x, y, z, nbtData);
+        return this;
+    }
+
+    /**
+     * Add a tile entity from its NBT data as raw UTF-8 bytes, which are kept without decoding
+     */
+    public SchematicBuilder addTileEntity(int x, int y, int z, byte[] payload) {
+        tileEntities.add(x, y, z, payload);
+        return this;
+    }
+
+    /**
+     * Set the declared dimensions. If not set, the size of the bounding box is used.
+     */
+    public SchematicBuilder dimensions(int width, int height, int length) {
+        this.width = width;
+        this.height = height;
+        this.length = length;
+        return this;
+    }
+
+    public Schematic build() {
+        String[] paletteArray = palette.toArray(new String[0]);
+        if (!bounded) {
+            if (buffered == 0) {
+                originX = originY = originZ = 0;
+                sizeX = sizeY = sizeZ = 0;
+            } else {
+                originX = minX;
+                originY = minY;
+                originZ = minZ;
+                sizeX = maxX - minX + 1;
+                sizeY = maxY - minY + 1;
+                sizeZ = maxZ - minZ + 1;
+            }
+            if ((long) buffered * SPARSE_FRACTION < (long) sizeX * sizeY * sizeZ) {
+                return build(paletteArray, buildSparse());
+            }
+            blocks = newStore(sizeX, sizeY, sizeZ);
+            blockCount = 0;
+            for (int i = 0; i < buffered; i++) {
+                int cell = ((ys[i] - originY) * sizeZ + (zs[i] - originZ)) * sizeX + (xs[i] - originX);
+                if (blocks[cell] == Schematic.EMPTY) {
+                    blockCount++;
+                }
+                blocks[cell] = ids[i];
+            }
+        }
+        return build(paletteArray, new ArrayBlockStore(blocks));
+    }
+
+    private Schematic build(String[] paletteArray, BlockStore store) {
+        return new Schematic(paletteArray, store, originX, originY, originZ, sizeX, sizeY, sizeZ, blockCount,
+                tileEntities.build(),
+                width < 0 ? sizeX : width,
+                height < 0 ? sizeY : height,
+                length < 0 ? sizeZ : length);
+    }
+
+    /**
+     * Keep only the filled cells of the buffered blocks, sorted by cell, the last block added to a
+     * cell winning
+     */
+    private SparseBlockStore buildSparse() {
+        int volume = checkVolume(sizeX, sizeY, sizeZ);
+        // Cell in the high half, order of addition in the low half
+        long[] order = new long[buffered];
+        for (int i = 0; i < buffered; i++) {
+            long cell = ((ys[i] - originY) * sizeZ + (zs[i] - originZ)) * sizeX + (xs[i] - originX);
+            order[i] = cell << 32 | i;
+        }
+        Arrays.sort(order);
+
+        int[] cells = new int[buffered];
+        short[] cellIds = new short[buffered];
+        blockCount = 0;
+        for (int i = 0; i < buffered; i++) {
+            if (i + 1 < buffered && order[i + 1] >>> 32 == order[i] >>> 32) {
+                continue;
+            }
+            cells[blockCount] = (int) (order[i] >>> 32);
+            cellIds[blockCount] = ids[(int) order[i]];
+            blockCount++;
+        }
+        return new SparseBlockStore(volume, Arrays.copyOf(cells, blockCount), Arrays.copyOf(cellIds, blockCount));
+    }
+
+    private static int checkVolume(int sizeX, int sizeY, int sizeZ) {
+        long volume = (long) sizeX * sizeY * sizeZ;
+        if (volume > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Schematic bounding box too large: " + sizeX + "x" + sizeY + "x" + sizeZ);
+        }
+        return (int) volume;
+    }
+
+    private static short[] newStore(int sizeX, int sizeY, int sizeZ) {
+        short[] store = new short[checkVolume(sizeX, sizeY, sizeZ)];
+        Arrays.fill(store, Schematic.EMPTY);
+        return store;
+    }
+}
@@ -0,0 +1,42 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+import java.util.Arrays;
+
+/**
+ * Block store holding only the filled cells, as sorted cell numbers and their palette indices.
+ * Six bytes per block rather than two per cell, for blocks scattered thinly over a large bounding
+ * box. Cells are found by binary search.
+ */
+final class SparseBlockStore implements BlockStore {
+
+    private final int size;
+    private final int[] cells;
+    private final short[] ids;
+
+    /**
+     * @param size the number of cells of the bounding box
+     * @param cells the filled cells, sorted ascending without duplicates
+     * @param ids the palette index of each filled cell
+     */
+    SparseBlockStore(int size, int[] cells, short[] ids) {
+        this.size = size;
+        this.cells = cells;
+        this.ids = ids;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int get(int cell) {
+        int index = Arrays.binarySearch(cells, cell);
+        return index < 0 ? Schematic.EMPTY : ids[index];
+    }
+
+    @Override
+    public long getHeapBytes() {
+        return 4L * cells.length + 2L * ids.length + 32;
+    }
+}
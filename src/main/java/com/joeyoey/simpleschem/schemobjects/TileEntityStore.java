@@ -0,0 +1,200 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+import org.bukkit.util.Vector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The tile entities of a {@link Schematic}: a position index and the NBT payloads as raw UTF-8
+ * bytes in one array. Entries are sorted like cells (x fastest, then z, then y), and a payload is
+ * only turned into a string when {@link #getData(int)} asks for it. Immutable.
+ */
+public final class TileEntityStore {
+
+    public static final TileEntityStore EMPTY = new TileEntityStore(new int[0], new int[1], new byte[0]);
+
+    private final int[] positions; // x, y, z per entry
+    private final int[] offsets; // payload start per entry, then the end of the last payload
+    private final byte[] payloads;
+
+    private TileEntityStore(int[] positions, int[] offsets, byte[] payloads) {
+        this.positions = positions;
+        this.offsets = offsets;
+        this.payloads = payloads;
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int getX(int index) {
+        return positions[index * 3];
+    }
+
+    public int getY(int index) {
+        return positions[index * 3 + 1];
+    }
+
+    public int getZ(int index) {
+        return positions[index * 3 + 2];
+    }
+
+    /**
+     * Decode the NBT data of an entry
+     */
+    public String getData(int index) {
+        return new String(payloads, offsets[index], getPayloadLength(index), StandardCharsets.UTF_8);
+    }
+
+    public int getPayloadLength(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * Copy the raw payload of an entry
+     */
+    public byte[] getPayload(int index) {
+        return Arrays.copyOfRange(payloads, offsets[index], offsets[index + 1]);
+    }
+
+    /**
+     * Copy the raw payload of an entry to a stream without decoding it
+     */
+    public void writePayload(int index, OutputStream out) throws IOException {
+        out.write(payloads, offsets[index], getPayloadLength(index));
+    }
+
+    /**
+     * @return the estimated heap held by the store
+     */
+    public long getHeapBytes() {
+        return payloads.length + 4L * (positions.length + offsets.length) + 48;
+    }
+
+    /**
+     * Find the entry at a position
+     * @return the entry index, or -1 if there is no tile entity there
+     */
+    public int indexOf(int x, int y, int z) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int order = compare(getX(mid), getY(mid), getZ(mid), x, y, z);
+            if (order < 0) {
+                low = mid + 1;
+            } else if (order > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decode every entry into a map of position to NBT data
+     */
+    public Map<Vector, String> toMap() {
+        Map<Vector, String> map = new HashMap<>();
+        for (int i = 0; i < size(); i++) {
+            map.put(new Vector(getX(i), getY(i), getZ(i)), getData(i));
+        }
+        return map;
+    }
+
+    private static int compare(int x1, int y1, int z1, int x2, int y2, int z2) {
+        if (y1 != y2) {
+            return Integer.compare(y1, y2);
+        }
+        if (z1 != z2) {
+            return Integer.compare(z1, z2);
+        }
+        return Integer.compare(x1, x2);
+    }
+
+    /**
+     * Collects tile entities for a store. Adding a second entry at a position replaces the first.
+     */
+    public static final class Builder {
+
+        private int[] positions = new int[24];
+        private byte[][] entries = new byte[8][];
+        private int count;
+
+        public Builder add(int x, int y, int z, String nbtData) {
+            return add(x, y, z, nbtData.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Add an entry from its raw UTF-8 payload, which is kept as is
+         */
+        public Builder add(int x, int y, int z, byte[] payload) {
+            if (count == entries.length) {
+                positions = Arrays.copyOf(positions, count * 6);
+                entries = Arrays.copyOf(entries, count * 2);
+            }
+            positions[count * 3] = x;
+            positions[count * 3 + 1] = y;
+            positions[count * 3 + 2] = z;
+            entries[count++] = payload;
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return count == 0;
+        }
+
+        public TileEntityStore build() {
+            if (count == 0) {
+                return EMPTY;
+            }
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            // Stable, so the last entry added at a position comes last among its duplicates
+            Arrays.sort(order, (a, b) -> compare(positions[a * 3], positions[a * 3 + 1], positions[a * 3 + 2],
+                    positions[b * 3], positions[b * 3 + 1], positions[b * 3 + 2]));
+
+            int[] sortedPositions = new int[count * 3];
+            int[] offsets = new int[count + 1];
+            int[] kept = new int[count];
+            int size = 0;
+            long bytes = 0;
+            for (int i = 0; i < count; i++) {
+                int entry = order[i];
+                if (i + 1 < count && compare(positions[entry * 3], positions[entry * 3 + 1], positions[entry * 3 + 2],
+                        positions[order[i + 1] * 3], positions[order[i + 1] * 3 + 1], positions[order[i + 1] * 3 + 2]) == 0) {
+                    continue;
+                }
+                kept[size++] = entry;
+                bytes += entries[entry].length;
+            }
+            if (bytes > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Tile entity data too large: " + bytes + " bytes");
+            }
+
+            byte[] payloads = new byte[(int) bytes];
+            int offset = 0;
+            for (int i = 0; i < size; i++) {
+                int entry = kept[i];
+                System.arraycopy(positions, entry * 3, sortedPositions, i * 3, 3);
+                offsets[i] = offset;
+                System.arraycopy(entries[entry], 0, payloads, offset, entries[entry].length);
+                offset += entries[entry].length;
+            }
+            offsets[size] = offset;
+            return new TileEntityStore(Arrays.copyOf(sortedPositions, size * 3), Arrays.copyOf(offsets, size + 1), payloads);
+        }
+    }
+}
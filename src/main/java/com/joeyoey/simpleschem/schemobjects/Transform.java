@@ -0,0 +1,250 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+/**
+ * A rotation about the y axis, optionally preceded by a mirror, as applied by
+ * {@link Schematic#transform(Transform)}. Rotations are clockwise seen from above, so a quarter turn
+ * takes north to east. There are eight transforms and each has a single shared instance.
+ * <p>
+ * Besides positions, a transform rewrites the directional properties of block data strings
+ * ({@code facing}, {@code axis}, {@code rotation}, the {@code north}/{@code east}/{@code south}/
+ * {@code west} connections, rail and stair {@code shape}, door {@code hinge}, chest {@code type}
+ * and jigsaw {@code orientation}).
+ */
+public final class Transform {
+
+    private static final String[] HORIZONTAL = {"north", "east", "south", "west"};
+    private static final Transform[] ALL = new Transform[8];
+
+    static {
+        for (int i = 0; i < ALL.length; i++) {
+            ALL[i] = new Transform(i >= 4, i & 3);
+        }
+    }
+
+    public static final Transform NONE = ALL[0];
+    public static final Transform ROTATE_90 = ALL[1];
+    public static final Transform ROTATE_180 = ALL[2];
+    public static final Transform ROTATE_270 = ALL[3];
+    /**
+     * Negate x, swapping east and west
+     */
+    public static final Transform MIRROR_X = ALL[4];
+    /**
+     * Negate z, swapping north and south
+     */
+    public static final Transform MIRROR_Z = ALL[6];
+
+    private final boolean mirrored; // x negated before rotating
+    private final int turns; // clockwise quarter turns
+
+    private Transform(boolean mirrored, int turns) {
+        this.mirrored = mirrored;
+        this.turns = turns;
+    }
+
+    /**
+     * Get the clockwise rotation by a multiple of 90 degrees
+     * @param degrees the angle, negative for counterclockwise
+     * @return the rotation
+     */
+    public static Transform rotate(int degrees) {
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees: " + degrees);
+        }
+        return ALL[Math.floorMod(degrees / 90, 4)];
+    }
+
+    /**
+     * Get the transform applying this one and then another
+     */
+    public Transform then(Transform next) {
+        // Mirroring reverses the direction of the rotations applied before it
+        int combined = next.turns + (next.mirrored ? -turns : turns);
+        return ALL[((mirrored != next.mirrored) ? 4 : 0) + (combined & 3)];
+    }
+
+    public Transform inverse() {
+        return mirrored ? this : ALL[(4 - turns) & 3];
+    }
+
+    public boolean isMirrored() {
+        return mirrored;
+    }
+
+    /**
+     * @return the clockwise rotation in degrees, applied after the mirror
+     */
+    public int getRotation() {
+        return turns * 90;
+    }
+
+    /**
+     * Whether the transform swaps the x and z axes
+     */
+    public boolean swapsAxes() {
+        return (turns & 1) != 0;
+    }
+
+    public int x(int x, int z) {
+        int mx = mirrored ? -x : x;
+        switch (turns) {
+            case 1:
+                return -z;
+            case 2:
+                return -mx;
+            case 3:
+                return z;
+            default:
+                return mx;
+        }
+    }
+
+    public int z(int x, int z) {
+        int mx = mirrored ? -x : x;
+        switch (turns) {
+            case 1:
+                return mx;
+            case 2:
+                return -z;
+            case 3:
+                return -mx;
+            default:
+                return z;
+        }
+    }
+
+    int index() {
+        return (mirrored ? 4 : 0) + turns;
+    }
+
+    /**
+     * Rewrite the directional properties of a block data string
+     * @param blockData the block data string, e.g. {@code minecraft:oak_stairs[facing=east,shape=inner_left]}
+     * @return the transformed string, or the same instance if nothing changes
+     */
+    public String apply(String blockData) {
+        int open = blockData.indexOf('[');
+        if (this == NONE || open < 0 || !blockData.endsWith("]")) {
+            return blockData;
+        }
+        StringBuilder out = new StringBuilder(blockData.length() + 8).append(blockData, 0, open + 1);
+        String[] properties = blockData.substring(open + 1, blockData.length() - 1).split(",");
+        for (int i = 0; i < properties.length; i++) {
+            String property = properties[i];
+            int equals = property.indexOf('=');
+            if (i > 0) {
+                out.append(',');
+            }
+            if (equals < 0) {
+                out.append(property);
+                continue;
+            }
+            String key = property.substring(0, equals);
+            String value = property.substring(equals + 1);
+            int connection = horizontal(key);
+            if (connection >= 0) {
+                // Fence, pane, wall and redstone connections move with their side
+                out.append(HORIZONTAL[direction(connection)]).append('=').append(value);
+            } else {
+                out.append(key).append('=').append(value(key, value));
+            }
+        }
+        return out.append(']').toString();
+    }
+
+    private String value(String key, String value) {
+        switch (key) {
+            case "facing":
+                return direction(value);
+            case "axis":
+                if (swapsAxes()) {
+                    return value.equals("x") ? "z" : value.equals("z") ? "x" : value;
+                }
+                return value;
+            case "rotation":
+                return rotation(value);
+            case "shape":
+                return value.contains("left") || value.contains("right") ? handedness(value) : railShape(value);
+            case "hinge":
+            case "type":
+                return handedness(value);
+            case "orientation":
+                int split = value.indexOf('_');
+                return split < 0 ? value
+                        : direction(value.substring(0, split)) + '_' + direction(value.substring(split + 1));
+            default:
+                return value;
+        }
+    }
+
+    private int direction(int horizontal) {
+        int mirroredDirection = mirrored ? (4 - horizontal) & 3 : horizontal;
+        return (mirroredDirection + turns) & 3;
+    }
+
+    private String direction(String value) {
+        int horizontal = horizontal(value);
+        return horizontal < 0 ? value : HORIZONTAL[direction(horizontal)];
+    }
+
+    /**
+     * Sixteen step rotation of signs, banners and heads: 0 is south, counting clockwise
+     */
+    private String rotation(String value) {
+        int rotation;
+        try {
+            rotation = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+        int mirroredRotation = mirrored ? (16 - rotation) & 15 : rotation;
+        return Integer.toString((mirroredRotation + turns * 4) & 15);
+    }
+
+    private String handedness(String value) {
+        if (!mirrored) {
+            return value;
+        }
+        if (value.contains("left")) {
+            return value.replace("left", "right");
+        }
+        return value.replace("right", "left");
+    }
+
+    private String railShape(String value) {
+        if (value.startsWith("ascending_")) {
+            return "ascending_" + direction(value.substring("ascending_".length()));
+        }
+        int split = value.indexOf('_');
+        if (split < 0) {
+            return value;
+        }
+        int first = horizontal(value.substring(0, split));
+        int second = horizontal(value.substring(split + 1));
+        if (first < 0 || second < 0) {
+            return value;
+        }
+        first = direction(first);
+        second = direction(second);
+        if ((first & 1) == (second & 1)) {
+            return (first & 1) == 0 ? "north_south" : "east_west";
+        }
+        // Curves are named north or south first
+        return (first & 1) == 0 ? HORIZONTAL[first] + '_' + HORIZONTAL[second]
+                : HORIZONTAL[second] + '_' + HORIZONTAL[first];
+    }
+
+    private static int horizontal(String name) {
+        for (int i = 0; i < HORIZONTAL.length; i++) {
+            if (HORIZONTAL[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "Transform{rotation=" + getRotation() + ", mirrored=" + mirrored + '}';
+    }
+}
@@ -0,0 +1,64 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+/**
+ * Block store reading the cells of another schematic through a {@link Transform}. Nothing is
+ * copied: each cell is mapped back to its source cell when read.
+ */
+final class TransformedBlockStore implements BlockStore {
+
+    private final Schematic source;
+    private final Transform transform;
+    private final BlockStore blocks;
+    private final int sizeX; // size of the transformed bounding box
+    private final int sizeZ;
+    private final int cells;
+    // source cell = base + x * stepX + z * stepZ + y * stepY, for a cell at (x, y, z) of the transformed box
+    private final int base;
+    private final int stepX;
+    private final int stepZ;
+    private final int stepY;
+
+    TransformedBlockStore(Schematic source, BlockStore blocks, Transform transform, int originX, int originZ) {
+        this.source = source;
+        this.transform = transform;
+        this.blocks = blocks;
+        this.sizeX = transform.swapsAxes() ? source.getSizeZ() : source.getSizeX();
+        this.sizeZ = transform.swapsAxes() ? source.getSizeX() : source.getSizeZ();
+        this.cells = blocks.size();
+
+        // The transform is orthogonal, so its inverse reads the forward images of the axes backwards
+        int xx = transform.x(1, 0);
+        int zx = transform.z(1, 0);
+        int xz = transform.x(0, 1);
+        int zz = transform.z(0, 1);
+        int sourceSizeX = source.getSizeX();
+        this.stepX = xx + xz * sourceSizeX;
+        this.stepZ = zx + zz * sourceSizeX;
+        this.stepY = source.getSizeX() * source.getSizeZ();
+        int sourceX = xx * originX + zx * originZ;
+        int sourceZ = xz * originX + zz * originZ;
+        this.base = (sourceX - source.getOriginX()) + (sourceZ - source.getOriginZ()) * sourceSizeX;
+    }
+
+    Schematic getSource() {
+        return source;
+    }
+
+    Transform getTransform() {
+        return transform;
+    }
+
+    @Override
+    public int size() {
+        return cells;
+    }
+
+    @Override
+    public int get(int cell) {
+        int x = cell % sizeX;
+        int row = cell / sizeX;
+        int z = row % sizeZ;
+        int y = row / sizeZ;
+        return blocks.get(base + x * stepX + z * stepZ + y * stepY);
+    }
+}
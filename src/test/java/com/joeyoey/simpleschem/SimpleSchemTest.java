@@ -1,5 +1,6 @@
 package com.joeyoey.simpleschem;
 
+import com.joeyoey.simpleschem.io.SchematicCodec;
 import com.joeyoey.simpleschem.schemobjects.Schematic;
 import org.bukkit.Location;
 import org.bukkit.block.Block;
@@ -211,4 +212,55 @@ public class SimpleSchemTest {
             Files.deleteIfExists(tempFile);
         }
     }
+
+    @Test
+    public void testCompressedAtomizeRoundTrip() throws IOException {
+        // Arrange
+        Map<Vector, String> blockData = new HashMap<>();
+        for (int x = 0; x < 16; x++) {
+            blockData.put(new Vector(x, 0, 0), "minecraft:stone");
+        }
+        Schematic schematic = new Schematic(blockData, 16, 1, 1);
+
+        Path plainFile = Files.createTempFile("test_schematic_plain", ".json");
+        Path compressedFile = Files.createTempFile("test_schematic_deflate", ".json");
+
+        try {
+            // Act
+            assertTrue(SimpleSchem.atomizeSchematicToFile(plainFile.toFile(), schematic));
+            assertTrue(SimpleSchem.atomizeSchematicToFile(compressedFile.toFile(), schematic, SchematicCodec.DEFLATE));
+            Schematic loaded = SimpleSchem.schematicFromAtoms(compressedFile.toFile());
+
+            // Assert
+            assertTrue(Files.size(compressedFile) < Files.size(plainFile));
+            assertNotNull(loaded);
+            assertEquals(schematic.getBlockDataMap(), loaded.getBlockDataMap());
+        } finally {
+            Files.deleteIfExists(plainFile);
+            Files.deleteIfExists(compressedFile);
+        }
+    }
+
+    @Test
+    public void testMappableSaveRefusesTileEntities() throws IOException {
+        // Arrange
+        Map<Vector, String> blockData = new HashMap<>();
+        blockData.put(new Vector(0, 0, 0), "minecraft:chest[facing=north]");
+        Map<Vector, String> tileData = new HashMap<>();
+        tileData.put(new Vector(0, 0, 0), "{Items:[]}");
+        Schematic schematic = new Schematic(blockData, tileData, 1, 1, 1);
+        Path file = Files.createTempFile("test_schematic_mappable", ".schem");
+        Files.write(file, new byte[]{1, 2, 3});
+
+        try {
+            // Act
+            boolean saved = SimpleSchem.saveMappableSchematic(file.toFile(), schematic);
+
+            // Assert - refused before the existing file was touched
+            assertFalse(saved);
+            assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package com.joeyoey.simpleschem;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+
+/**
+ * Schematics shared by several tests
+ */
+public final class TestSchematics {
+
+    private TestSchematics() {
+    }
+
+    /**
+     * A row of stone along x starting at the origin, one block thick
+     * @param blocks the length of the row
+     */
+    public static Schematic stoneRow(int blocks) {
+        SchematicBuilder builder = new SchematicBuilder();
+        for (int x = 0; x < blocks; x++) {
+            builder.addBlock(x, 0, 0, "minecraft:stone");
+        }
+        return builder.build();
+    }
+}
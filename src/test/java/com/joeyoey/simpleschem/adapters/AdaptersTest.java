@@ -179,4 +179,85 @@ public class AdaptersTest {
         assertEquals(originalBlockData.getAsString(), block1.getAsString());
         assertEquals(block1.getAsString(), block2.getAsString());
     }
+
+    @Test
+    public void testStreamingAdapterPaletteLayout() {
+        // Arrange
+        Gson streaming = new GsonBuilder()
+                .registerTypeAdapter(Schematic.class, new SchematicTypeAdapter())
+                .create();
+        Map<Vector, String> blockData = new HashMap<>();
+        for (int x = -2; x < 30; x++) {
+            blockData.put(new Vector(x, 1, 3), "minecraft:oak_stairs[facing=east,half=bottom]");
+        }
+        blockData.put(new Vector(5, 4, 0), "minecraft:dirt");
+        Schematic original = new Schematic(blockData, 32, 4, 4);
+
+        // Act
+        String json = streaming.toJson(original);
+        Schematic deserialized = streaming.fromJson(json, Schematic.class);
+
+        // Assert - each state string is written once
+        assertEquals(json.indexOf("oak_stairs"), json.lastIndexOf("oak_stairs"));
+        assertEquals(original.getWidth(), deserialized.getWidth());
+        assertEquals(original.getBlockDataMap(), deserialized.getBlockDataMap());
+    }
+
+    @Test
+    public void testStreamingAdapterReadsLegacyLayouts() {
+        // Arrange
+        Gson streaming = new GsonBuilder()
+                .registerTypeAdapter(Schematic.class, new SchematicTypeAdapter())
+                .create();
+        String arrayLayout = "{\"blocks\":[{\"x\":0.0,\"y\":0.0,\"z\":0.0,\"bd\":\"minecraft:stone\"}],"
+                + "\"width\":1,\"height\":1,\"length\":1}";
+        String mapLayout = "{\"blocks\":{\"1,0,0\":\"minecraft:dirt\"},\"width\":2,\"height\":1,\"length\":1}";
+
+        // Act
+        Schematic fromArray = streaming.fromJson(arrayLayout, Schematic.class);
+        Schematic fromMap = streaming.fromJson(mapLayout, Schematic.class);
+
+        // Assert
+        assertEquals("minecraft:stone", fromArray.getBlockDataMap().get(new Vector(0, 0, 0)));
+        assertEquals("minecraft:dirt", fromMap.getBlockDataMap().get(new Vector(1, 0, 0)));
+        assertEquals(2, fromMap.getWidth());
+    }
+
+    @Test
+    public void testTreeAdapterReadsPaletteLayout() {
+        // Arrange
+        Gson streaming = new GsonBuilder()
+                .registerTypeAdapter(Schematic.class, new SchematicTypeAdapter())
+                .create();
+        Map<Vector, String> blockData = new HashMap<>();
+        blockData.put(new Vector(0, 0, 0), "minecraft:stone");
+        Schematic original = new Schematic(blockData, 1, 1, 1);
+
+        // Act
+        Schematic deserialized = gson.fromJson(streaming.toJson(original), Schematic.class);
+
+        // Assert
+        assertEquals(original.getBlockDataMap(), deserialized.getBlockDataMap());
+    }
+
+    @Test
+    public void testTileEntitiesSurviveBothAdapters() {
+        // Arrange
+        Gson streaming = new GsonBuilder()
+                .registerTypeAdapter(Schematic.class, new SchematicTypeAdapter())
+                .create();
+        Map<Vector, String> blockData = new HashMap<>();
+        blockData.put(new Vector(0, 0, 0), "minecraft:chest");
+        Map<Vector, String> tileEntityData = new HashMap<>();
+        tileEntityData.put(new Vector(0, 0, 0), "{Items:[],CustomName:'{\"text\":\"Loot\"}'}");
+        Schematic original = new Schematic(blockData, tileEntityData, 1, 1, 1);
+
+        // Act
+        Schematic fromStreaming = streaming.fromJson(streaming.toJson(original), Schematic.class);
+        Schematic fromTree = gson.fromJson(gson.toJson(original), Schematic.class);
+
+        // Assert
+        assertEquals(tileEntityData, fromStreaming.getTileEntityData());
+        assertEquals(tileEntityData, fromTree.getTileEntityData());
+    }
 }
@@ -0,0 +1,136 @@
+package com.joeyoey.simpleschem.capture;
+
+import com.joeyoey.simpleschem.io.CompactFormat;
+import com.joeyoey.simpleschem.io.SchematicCodec;
+import com.joeyoey.simpleschem.metrics.Phase;
+import com.joeyoey.simpleschem.metrics.SchematicMetrics;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.util.Vector;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class RegionCaptureTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private World world;
+    private ChunkSnapshot snapshot;
+
+    @Before
+    public void setUp() {
+        BlockData air = mock(BlockData.class);
+        when(air.getAsString()).thenReturn("minecraft:air");
+        BlockData stone = mock(BlockData.class);
+        when(stone.getAsString()).thenReturn("minecraft:stone");
+
+        // Stone on layer 0, air above it
+        snapshot = mock(ChunkSnapshot.class);
+        when(snapshot.getBlockData(anyInt(), anyInt(), anyInt())).thenReturn(air);
+        when(snapshot.getBlockData(anyInt(), eq(0), anyInt())).thenReturn(stone);
+        Chunk chunk = mock(Chunk.class);
+        when(chunk.getChunkSnapshot(false, false, false)).thenReturn(snapshot);
+
+        world = mock(World.class);
+        when(world.getMaxHeight()).thenReturn(256);
+        when(world.getChunkAt(anyInt(), anyInt())).thenReturn(chunk);
+    }
+
+    @Test
+    public void testCapturesEveryBlockRelativeToMinCorner() {
+        // Act: corners given in any order, crossing three chunks along x and two along z
+        Schematic schematic = RegionCapture.capture(world, new Vector(20, 3, 5), new Vector(-4, -2, 20), Runnable::run).join();
+
+        // Assert: y below 0 is clipped without shifting positions
+        verify(world, times(6)).getChunkAt(anyInt(), anyInt());
+        assertEquals(25, schematic.getSizeX());
+        assertEquals(4, schematic.getSizeY());
+        assertEquals(16, schematic.getSizeZ());
+        assertEquals(2, schematic.getOriginY());
+        assertEquals(25 * 4 * 16, schematic.getBlockCount());
+        assertEquals(2, schematic.getPaletteSize());
+        assertEquals("minecraft:stone", schematic.getPaletteEntry(schematic.getPaletteIndex(0, 2, 0)));
+        assertEquals("minecraft:air", schematic.getPaletteEntry(schematic.getPaletteIndex(24, 5, 15)));
+    }
+
+    @Test
+    public void testReadsSnapshotsWithChunkLocalCoordinates() {
+        // Act
+        RegionCapture.capture(world, new Vector(-1, 0, 16), new Vector(-1, 0, 16), Runnable::run).join();
+
+        // Assert
+        verify(world).getChunkAt(-1, 1);
+        verify(snapshot).getBlockData(15, 0, 0);
+    }
+
+    @Test
+    public void testRegionOutsideWorldHeightIsEmpty() {
+        SchematicMetrics.reset();
+        Schematic schematic = RegionCapture.capture(world, new Vector(0, 300, 0), new Vector(5, 310, 5), Runnable::run).join();
+        assertEquals(0, schematic.getBlockCount());
+        verify(world, never()).getChunkAt(anyInt(), anyInt());
+        // Empty captures are still reported
+        assertEquals(1, SchematicMetrics.get(Phase.CAPTURE).getCount());
+        assertEquals(0, SchematicMetrics.get(Phase.CAPTURE).getChunks());
+        SchematicMetrics.reset();
+    }
+
+    @Test
+    public void testCaptureToFileMatchesInMemoryCapture() throws Exception {
+        // Arrange
+        Vector min = new Vector(-21, -5, 7);
+        Vector max = new Vector(45, 40, 70);
+        File file = tempFolder.newFile("region.schem");
+        Schematic expected = RegionCapture.capture(world, min, max, Runnable::run).join();
+
+        // Act
+        RegionCapture.captureToFile(world, min, max, file, SchematicCodec.FAST, Runnable::run, Runnable::run).join();
+        Schematic actual = CompactFormat.read(file);
+
+        // Assert
+        assertEquals(expected.getOriginY(), actual.getOriginY());
+        assertEquals(expected.getSizeX(), actual.getSizeX());
+        assertEquals(expected.getSizeY(), actual.getSizeY());
+        assertEquals(expected.getSizeZ(), actual.getSizeZ());
+        assertEquals(expected.getBlockCount(), actual.getBlockCount());
+        for (int cell = 0; cell < expected.getCellCount(); cell++) {
+            assertEquals(expected.getPaletteEntry(expected.getCell(cell)), actual.getPaletteEntry(actual.getCell(cell)));
+        }
+    }
+
+    @Test
+    public void testFailedCaptureToFileKeepsPreviousFile() throws Exception {
+        // Arrange - the chunks at x 2 fail to snapshot, well after the first sections are written
+        File file = tempFolder.newFile("region.schem");
+        Files.write(file.toPath(), "previous".getBytes(StandardCharsets.UTF_8));
+        when(world.getChunkAt(eq(2), anyInt())).thenThrow(new IllegalStateException("Chunk unloaded"));
+
+        // Act
+        try {
+            RegionCapture.captureToFile(world, new Vector(-21, 0, 7), new Vector(45, 40, 70), file,
+                    SchematicCodec.FAST, Runnable::run, Runnable::run).join();
+            fail("Expected the capture to fail");
+        } catch (CompletionException expected) {
+            // the snapshot failed
+        }
+
+        // Assert - no partial capture replaced the file and no temporary file is left behind
+        assertEquals("previous", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertArrayEquals(new String[]{"region.schem"}, tempFolder.getRoot().list());
+    }
+}
@@ -0,0 +1,216 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CompactFormatTest {
+
+    private static Schematic roundTrip(Schematic schematic) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompactFormat.write(out, schematic);
+        return CompactFormat.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void assertSameBlocks(Schematic expected, Schematic actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getLength(), actual.getLength());
+        assertEquals(expected.getBlockCount(), actual.getBlockCount());
+        for (Map.Entry<Vector, String> entry : expected.getBlockDataMap().entrySet()) {
+            assertEquals(entry.getValue(), actual.getBlockDataMap().get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testVersion2RoundTripWithGaps() throws IOException {
+        // Arrange - sparse blocks with negative coordinates and empty cells
+        SchematicBuilder builder = new SchematicBuilder().dimensions(10, 10, 10);
+        builder.addBlock(-3, 0, 2, "minecraft:stone");
+        builder.addBlock(4, 2, -1, "minecraft:dirt");
+        builder.addBlock(0, 1, 0, "minecraft:oak_stairs[facing=east]");
+        Schematic original = builder.build();
+
+        // Act
+        Schematic loaded = roundTrip(original);
+
+        // Assert
+        assertSameBlocks(original, loaded);
+        assertEquals(original.getOriginX(), loaded.getOriginX());
+        assertEquals(original.getSizeZ(), loaded.getSizeZ());
+    }
+
+    @Test
+    public void testVersion2RunLengthEncodesUniformRegions() throws IOException {
+        // Arrange - a solid 32x32x32 cube of one state
+        SchematicBuilder builder = new SchematicBuilder(0, 0, 0, 31, 31, 31);
+        int stone = builder.paletteId("minecraft:stone");
+        for (int y = 0; y < 32; y++) {
+            for (int z = 0; z < 32; z++) {
+                for (int x = 0; x < 32; x++) {
+                    builder.addBlock(x, y, z, stone);
+                }
+            }
+        }
+        Schematic original = builder.build();
+
+        // Act
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompactFormat.write(out, original);
+        Schematic loaded = CompactFormat.read(new ByteArrayInputStream(out.toByteArray()));
+
+        // Assert - one run instead of 32768 blocks
+        assertTrue("file too large: " + out.size(), out.size() < 100);
+        assertSameBlocks(original, loaded);
+    }
+
+    @Test
+    public void testVersion2RoundTripWithLargePalette() throws IOException {
+        // Arrange - more palette entries than fit in a byte
+        SchematicBuilder builder = new SchematicBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.addBlock(i % 10, i / 100, (i / 10) % 10, "minecraft:state_" + (i * 7 % 300));
+        }
+        Schematic original = builder.build();
+
+        // Act
+        Schematic loaded = roundTrip(original);
+
+        // Assert
+        assertEquals(300, loaded.getPaletteSize());
+        assertSameBlocks(original, loaded);
+    }
+
+    @Test
+    public void testVersion2RoundTripEmpty() throws IOException {
+        Schematic loaded = roundTrip(new SchematicBuilder().dimensions(0, 0, 0).build());
+        assertEquals(0, loaded.getBlockCount());
+        assertTrue(loaded.getBlockDataMap().isEmpty());
+    }
+
+    @Test
+    public void testReadsVersion1() throws IOException {
+        // Arrange - a version 1 file written field by field
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeInt(CompactFormat.MAGIC);
+        dos.writeShort(CompactFormat.VERSION_1);
+        dos.writeInt(2);
+        dos.writeInt(1);
+        dos.writeInt(1);
+        dos.writeShort(2);
+        for (short id = 0; id < 2; id++) {
+            byte[] data = (id == 0 ? "minecraft:stone" : "minecraft:dirt").getBytes(StandardCharsets.UTF_8);
+            dos.writeShort(id + 5);
+            dos.writeShort(data.length);
+            dos.write(data);
+        }
+        dos.writeInt(2);
+        dos.writeInt(0);
+        dos.writeInt(0);
+        dos.writeInt(0);
+        dos.writeShort(5);
+        dos.writeInt(1);
+        dos.writeInt(0);
+        dos.writeInt(0);
+        dos.writeShort(6);
+
+        // Act
+        Schematic loaded = CompactFormat.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        // Assert
+        assertEquals(2, loaded.getWidth());
+        assertEquals("minecraft:stone", loaded.getBlockDataMap().get(new Vector(0, 0, 0)));
+        assertEquals("minecraft:dirt", loaded.getBlockDataMap().get(new Vector(1, 0, 0)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsWrongMagic() throws IOException {
+        CompactFormat.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 0, 2}));
+    }
+
+    @Test
+    public void testCodecsRoundTrip() throws IOException {
+        // Arrange - noisy data so every codec has work to do
+        SchematicBuilder builder = new SchematicBuilder();
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < 4096; i++) {
+            builder.addBlock(i % 16, i / 256, (i / 16) % 16, "minecraft:state_" + random.nextInt(5));
+        }
+        Schematic original = builder.build();
+
+        for (SchematicCodec codec : new SchematicCodec[]{SchematicCodec.NONE, SchematicCodec.FAST,
+                SchematicCodec.DEFLATE, SchematicCodec.SMALLEST, SchematicCodec.deflate(3)}) {
+            // Act
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            CompactFormat.write(out, original, codec);
+            Schematic loaded = CompactFormat.read(new ByteArrayInputStream(out.toByteArray()));
+
+            // Assert
+            assertEquals(codec.getId(), out.toByteArray()[6]);
+            assertSameBlocks(original, loaded);
+        }
+    }
+
+    @Test
+    public void testDeflateShrinksRepetitiveData() throws IOException {
+        // Arrange - a repeating pattern that run-length encoding alone does not catch
+        SchematicBuilder builder = new SchematicBuilder();
+        for (int i = 0; i < 32768; i++) {
+            builder.addBlock(i % 32, i / 1024, (i / 32) % 32, "minecraft:state_" + (i % 3));
+        }
+        Schematic original = builder.build();
+
+        // Act
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        CompactFormat.write(plain, original, SchematicCodec.NONE);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        CompactFormat.write(deflated, original, SchematicCodec.DEFLATE);
+
+        // Assert
+        assertTrue(deflated.size() * 5 < plain.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidDeflateLevel() {
+        SchematicCodec.deflate(10);
+    }
+
+    @Test
+    public void testStreamLayoutsRefuseTileEntities() {
+        // Arrange
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(0, 0, 0, "minecraft:chest[facing=north]");
+        builder.addTileEntity(0, 0, 0, "{Items:[{Slot:0b,id:\"minecraft:diamond\",Count:1b}]}");
+        Schematic chest = builder.build();
+
+        for (boolean packed : new boolean[]{false, true}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            // Act
+            try {
+                if (packed) {
+                    CompactFormat.writePacked(out, chest, SchematicCodec.NONE);
+                } else {
+                    CompactFormat.write(out, chest, SchematicCodec.FAST);
+                }
+                fail("Expected the tile entity to be refused");
+            } catch (IOException expected) {
+                // the layout has no tile entity section
+            }
+
+            // Assert - nothing was written
+            assertEquals(0, out.size());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MappedSchematicLoaderTest {
+
+    private static Schematic sample() {
+        SchematicBuilder builder = new SchematicBuilder().dimensions(20, 5, 20);
+        for (int x = -3; x < 17; x++) {
+            for (int z = 0; z < 20; z++) {
+                builder.addBlock(x, 0, z, "minecraft:state_" + ((x * 31 + z) % 37));
+                if ((x + z) % 3 == 0) {
+                    builder.addBlock(x, 4, z, "minecraft:stone");
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static Schematic writeAndMap(Schematic schematic, boolean packed, SchematicCodec codec) throws IOException {
+        Path file = Files.createTempFile("test_mapped", ".schem");
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                if (packed) {
+                    CompactFormat.writePacked(out, schematic, codec);
+                } else {
+                    CompactFormat.write(out, schematic, codec);
+                }
+            }
+            return MappedSchematicLoader.load(file.toFile());
+        } finally {
+            // The mapping keeps the data reachable; deleting can fail on some platforms
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    private static void assertSameBlocks(Schematic expected, Schematic actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getBlockCount(), actual.getBlockCount());
+        assertEquals(expected.getCellCount(), actual.getCellCount());
+        assertEquals(expected.getBlockDataMap().size(), actual.getBlockDataMap().size());
+        for (Map.Entry<Vector, String> entry : expected.getBlockDataMap().entrySet()) {
+            assertEquals(entry.getValue(), actual.getBlockDataMap().get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testMapsPackedFile() throws IOException {
+        // Arrange
+        Schematic original = sample();
+
+        // Act
+        Schematic mapped = writeAndMap(original, true, SchematicCodec.NONE);
+
+        // Assert
+        assertSameBlocks(original, mapped);
+        assertEquals(Schematic.EMPTY, mapped.getPaletteIndex(0, 2, 0));
+    }
+
+    @Test
+    public void testFallsBackForCompressedAndRunLengthFiles() throws IOException {
+        Schematic original = sample();
+        assertSameBlocks(original, writeAndMap(original, true, SchematicCodec.DEFLATE));
+        assertSameBlocks(original, writeAndMap(original, false, SchematicCodec.NONE));
+    }
+
+    @Test
+    public void testPackedLayoutReadsAsStream() throws IOException {
+        // Arrange
+        Schematic original = sample();
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        CompactFormat.writePacked(out, original, SchematicCodec.NONE);
+
+        // Act
+        Schematic loaded = CompactFormat.read(new java.io.ByteArrayInputStream(out.toByteArray()));
+
+        // Assert
+        assertSameBlocks(original, loaded);
+    }
+
+    @Test
+    public void testRejectsCellsPastThePalette() throws IOException {
+        // Arrange - two palette entries need two bits per cell, so the last cell can be set to 3
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(0, 0, 0, "minecraft:stone");
+        builder.addBlock(1, 0, 0, "minecraft:dirt");
+        builder.addBlock(2, 0, 0, "minecraft:stone");
+        Path file = Files.createTempFile("test_mapped", ".schem");
+        file.toFile().deleteOnExit();
+        try (OutputStream out = Files.newOutputStream(file)) {
+            CompactFormat.writePacked(out, builder.build(), SchematicCodec.NONE);
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] |= 0x0C;
+        Files.write(file, bytes);
+
+        Schematic mapped = MappedSchematicLoader.load(file.toFile());
+
+        // Act
+        try {
+            mapped.getCell(2);
+            fail("Expected the corrupt cell to be rejected");
+        } catch (IllegalStateException expected) {
+            // Assert
+            assertTrue(expected.getMessage().contains("cell 2"));
+        }
+        assertEquals(0, mapped.getCell(0));
+    }
+}
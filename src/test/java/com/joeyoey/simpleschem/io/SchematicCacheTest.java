@@ -0,0 +1,149 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.joeyoey.simpleschem.TestSchematics.stoneRow;
+import static org.junit.Assert.*;
+
+public class SchematicCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File write(String name, Schematic schematic) throws IOException {
+        File file = new File(tempFolder.getRoot(), name);
+        CompactFormat.write(file, schematic, SchematicCodec.FAST);
+        return file;
+    }
+
+    @Test
+    public void testRepeatedLoadsShareOneSchematic() throws IOException {
+        // Arrange
+        File file = write("a.schem", stoneRow(10));
+        SchematicCache cache = new SchematicCache(Long.MAX_VALUE);
+
+        // Act
+        Schematic first = cache.get(file);
+        Schematic second = cache.get(new File(tempFolder.getRoot(), "./a.schem"));
+
+        // Assert
+        assertSame(first, second);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(first.getEstimatedByteSize(), cache.getRetainedBytes());
+    }
+
+    @Test
+    public void testChangedFileIsReloaded() throws IOException {
+        // Arrange
+        File file = write("a.schem", stoneRow(10));
+        SchematicCache cache = new SchematicCache(Long.MAX_VALUE);
+        Schematic before = cache.get(file);
+
+        // Act: a different size is a change even within the same modification time
+        write("a.schem", stoneRow(200));
+        Schematic after = cache.get(file);
+
+        // Assert
+        assertNotSame(before, after);
+        assertEquals(200, after.getBlockCount());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+        assertEquals(after.getEstimatedByteSize(), cache.getRetainedBytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByBytes() throws IOException {
+        // Arrange: room for two of the three schematics
+        File a = write("a.schem", stoneRow(100));
+        File b = write("b.schem", stoneRow(100));
+        File c = write("c.schem", stoneRow(100));
+        long each = stoneRow(100).getEstimatedByteSize();
+        SchematicCache cache = new SchematicCache(2 * each);
+
+        // Act
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+
+        // Assert: b was the least recently used
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+        assertEquals(2 * each, cache.getRetainedBytes());
+        cache.get(a);
+        assertEquals(2, cache.getHits());
+        cache.get(b);
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneLoad() throws Exception {
+        // Arrange
+        File file = write("a.schem", stoneRow(10));
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        SchematicCache cache = new SchematicCache(Long.MAX_VALUE, tasks::add);
+
+        // Act
+        CompletableFuture<Schematic> first = cache.getAsync(file);
+        CompletableFuture<Schematic> second = cache.getAsync(file);
+
+        // Assert
+        assertEquals(1, tasks.size());
+        assertFalse(first.isDone());
+        tasks.poll().run();
+        assertSame(first.get(), second.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws IOException {
+        // Arrange
+        SchematicCache cache = new SchematicCache(Long.MAX_VALUE);
+        File file = tempFolder.newFile("broken.schem");
+
+        // Act
+        try {
+            cache.get(file);
+            fail("Expected the empty file to fail");
+        } catch (IOException expected) {
+            // Assert
+            assertEquals(0, cache.size());
+        }
+        assertEquals(0, cache.getRetainedBytes());
+    }
+
+    @Test
+    public void testRejectedLoadIsNotCached() throws Exception {
+        // Arrange
+        File file = write("a.schem", stoneRow(10));
+        SchematicCache cache = new SchematicCache(Long.MAX_VALUE, task -> {
+            throw new RejectedExecutionException("Shut down");
+        });
+
+        // Act
+        CompletableFuture<Schematic> future = cache.getAsync(file);
+
+        // Assert - the request fails instead of waiting forever, and the next one loads again
+        try {
+            future.get();
+            fail("Expected the rejected load to fail");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(0, cache.size());
+        assertEquals(10, cache.get(file).getBlockCount());
+    }
+}
@@ -0,0 +1,166 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SchematicInfoTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static Schematic sample() {
+        SchematicBuilder builder = new SchematicBuilder().dimensions(30, 5, 20);
+        for (int x = -3; x < 27; x++) {
+            builder.addBlock(x, 2, 4, "minecraft:stone");
+            builder.addBlock(x, 4, 8, "minecraft:dirt");
+        }
+        return builder.build();
+    }
+
+    private static void assertHeader(Schematic expected, SchematicInfo info, int version) {
+        assertEquals(version, info.getVersion());
+        assertEquals(expected.getWidth(), info.getWidth());
+        assertEquals(expected.getHeight(), info.getHeight());
+        assertEquals(expected.getLength(), info.getLength());
+        assertEquals(expected.getOriginX(), info.getOriginX());
+        assertEquals(expected.getOriginY(), info.getOriginY());
+        assertEquals(expected.getOriginZ(), info.getOriginZ());
+        assertEquals(expected.getSizeX(), info.getSizeX());
+        assertEquals(expected.getSizeY(), info.getSizeY());
+        assertEquals(expected.getSizeZ(), info.getSizeZ());
+        assertEquals(expected.getBlockCount(), info.getBlockCount());
+    }
+
+    @Test
+    public void testReadsEveryLayout() throws IOException {
+        // Arrange
+        Schematic schematic = sample();
+        File compressed = tempFolder.newFile("v3.schem");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(compressed.toPath()))) {
+            CompactFormat.write(out, schematic, SchematicCodec.DEFLATE);
+        }
+        File packed = tempFolder.newFile("v4.schem");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(packed.toPath()))) {
+            CompactFormat.writePacked(out, schematic, SchematicCodec.NONE);
+        }
+        File sectioned = tempFolder.newFile("v5.schem");
+        CompactFormat.write(sectioned, schematic, SchematicCodec.FAST);
+
+        // Act & Assert
+        assertHeader(schematic, SchematicInfo.read(compressed), CompactFormat.VERSION_3);
+        assertHeader(schematic, SchematicInfo.read(packed), CompactFormat.VERSION_4);
+        assertHeader(schematic, SchematicInfo.read(sectioned), CompactFormat.VERSION_5);
+    }
+
+    @Test
+    public void testReadsVersion1BlockCount() throws IOException {
+        // Arrange
+        File file = tempFolder.newFile("v1.schem");
+        try (DataOutputStream dos = new DataOutputStream(Files.newOutputStream(file.toPath()))) {
+            dos.writeInt(CompactFormat.MAGIC);
+            dos.writeShort(CompactFormat.VERSION_1);
+            dos.writeInt(2);
+            dos.writeInt(1);
+            dos.writeInt(1);
+            dos.writeShort(1);
+            byte[] data = "minecraft:stone".getBytes(StandardCharsets.UTF_8);
+            dos.writeShort(0);
+            dos.writeShort(data.length);
+            dos.write(data);
+            dos.writeInt(2);
+        }
+
+        // Act
+        SchematicInfo info = SchematicInfo.read(file);
+
+        // Assert: the block list itself is never read
+        assertEquals(CompactFormat.VERSION_1, info.getVersion());
+        assertEquals(2, info.getWidth());
+        assertEquals(2, info.getBlockCount());
+        assertEquals(1, info.getPaletteSize());
+        assertEquals("minecraft:stone", info.getPaletteEntry(0));
+        assertFalse(info.hasPaletteCounts());
+    }
+
+    @Test
+    public void testSectionedFilesStorePaletteCounts() throws IOException {
+        // Arrange
+        Schematic schematic = sample();
+        File file = tempFolder.newFile("v5.schem");
+        CompactFormat.write(file, schematic, SchematicCodec.FAST);
+
+        // Act
+        SchematicInfo info = SchematicInfo.read(file);
+
+        // Assert
+        assertTrue(info.hasPaletteCounts());
+        assertEquals(2, info.getPaletteSize());
+        for (int i = 0; i < info.getPaletteSize(); i++) {
+            assertEquals(30, info.getPaletteCount(i));
+        }
+    }
+
+    @Test
+    public void testRewrittenSectionReplacesItsCounts() throws IOException {
+        // Arrange
+        File file = tempFolder.newFile("rewritten.schem");
+        int[] cells = new int[2 * 16 * 16];
+        try (SectionedWriter writer = new SectionedWriter(file, SchematicCodec.NONE, 0, 0, 0, 2, 16, 16)) {
+            int stone = writer.paletteId("minecraft:stone");
+            int dirt = writer.paletteId("minecraft:dirt");
+            Arrays.fill(cells, stone);
+            writer.writeSection(0, 0, 0, cells);
+
+            // Act
+            Arrays.fill(cells, Schematic.EMPTY);
+            cells[0] = dirt;
+            cells[1] = stone;
+            writer.writeSection(0, 0, 0, cells);
+        }
+        SchematicInfo info = SchematicInfo.read(file);
+
+        // Assert
+        assertEquals(2, info.getBlockCount());
+        assertEquals(1, info.getPaletteCount(0));
+        assertEquals(1, info.getPaletteCount(1));
+    }
+
+    @Test
+    public void testOtherLayoutsReadPaletteWithoutCounts() throws IOException {
+        // Arrange
+        File file = tempFolder.newFile("v3.schem");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            CompactFormat.write(out, sample(), SchematicCodec.DEFLATE);
+        }
+
+        // Act
+        SchematicInfo info = SchematicInfo.read(file);
+
+        // Assert
+        assertEquals(2, info.getPaletteSize());
+        assertEquals("minecraft:stone", info.getPaletteEntry(0));
+        assertFalse(info.hasPaletteCounts());
+        assertEquals(-1, info.getPaletteCount(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        File file = tempFolder.newFile("other.schem");
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        SchematicInfo.read(file);
+    }
+}
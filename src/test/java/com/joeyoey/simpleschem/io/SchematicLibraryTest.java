@@ -0,0 +1,113 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.joeyoey.simpleschem.TestSchematics.stoneRow;
+import static org.junit.Assert.*;
+
+public class SchematicLibraryTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File library() throws IOException {
+        File root = tempFolder.newFolder("library");
+        for (int i = 1; i <= 20; i++) {
+            File folder = new File(root, i % 2 == 0 ? "even" : "odd");
+            folder.mkdirs();
+            CompactFormat.write(new File(folder, "plot" + i + ".schem"), stoneRow(i), SchematicCodec.FAST);
+        }
+        Files.write(new File(root, "broken.schem").toPath(), new byte[]{0, 1, 2});
+        Files.write(new File(root, "notes.txt").toPath(), new byte[]{0});
+        return root;
+    }
+
+    @Test
+    public void testIndexesEveryFileInParallel() throws Exception {
+        // Arrange
+        File root = library();
+        SchematicCache cache = new SchematicCache(Long.MAX_VALUE);
+        Set<Integer> reported = ConcurrentHashMap.newKeySet();
+
+        try (SchematicLibrary library = new SchematicLibrary(root, cache, 4)) {
+            // Act
+            library.load(Collections.singleton("even/plot4"), (done, total) -> reported.add(done)).get();
+
+            // Assert: the broken file is counted but left out
+            assertEquals(21, library.getTotal());
+            assertEquals(21, library.getLoaded());
+            assertEquals(1, library.getFailed());
+            assertEquals(21, reported.size());
+            assertEquals(20, library.getNames().size());
+            assertEquals(7, library.getInfo("odd/plot7").getBlockCount());
+            assertNull(library.getInfo("broken"));
+            assertNull(library.get("missing"));
+        }
+    }
+
+    @Test
+    public void testHotSchematicsAreDecodedUpFront() throws Exception {
+        // Arrange
+        File root = library();
+        SchematicCache cache = new SchematicCache(Long.MAX_VALUE);
+
+        try (SchematicLibrary library = new SchematicLibrary(root, cache, 2)) {
+            library.load(new HashSet<>(Arrays.asList("even/plot4", "odd/plot9"))).get();
+
+            // Act
+            Schematic hot = library.get("even/plot4");
+            Schematic cold = library.get("odd/plot3");
+            Schematic coldAgain = library.getAsync("odd/plot3").get();
+
+            // Assert
+            assertTrue(library.isHot("odd/plot9"));
+            assertFalse(library.isHot("odd/plot3"));
+            assertEquals(4, hot.getBlockCount());
+            assertSame(hot, library.get("even/plot4"));
+            assertSame(cold, coldAgain);
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void testReloadKeepsPreviousIndexUntilDone() throws Exception {
+        // Arrange
+        File root = library();
+        SchematicCache cache = new SchematicCache(Long.MAX_VALUE);
+        AtomicInteger smallest = new AtomicInteger(Integer.MAX_VALUE);
+
+        try (SchematicLibrary library = new SchematicLibrary(root, cache, 4)) {
+            library.load(Collections.singleton("even/plot4")).get();
+            CompactFormat.write(new File(root, "added.schem"), stoneRow(3), SchematicCodec.FAST);
+
+            // Act
+            library.load(Collections.singleton("even/plot4"),
+                    (done, total) -> smallest.accumulateAndGet(library.getNames().size(), Math::min)).get();
+
+            // Assert: lookups during the reload saw the old index, and the new one is complete
+            assertEquals(20, smallest.get());
+            assertEquals(21, library.getNames().size());
+            SchematicInfo hot = library.getInfo("even/plot4");
+            SchematicInfo read = SchematicInfo.read(hot.getFile());
+            assertEquals(read.getVersion(), hot.getVersion());
+            assertEquals(read.getBlockCount(), hot.getBlockCount());
+            assertEquals(read.getSizeX(), hot.getSizeX());
+            assertEquals(read.getPaletteEntry(0), hot.getPaletteEntry(0));
+            assertEquals(read.getPaletteCount(0), hot.getPaletteCount(0));
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.joeyoey.simpleschem.io;
+
+import com.joeyoey.simpleschem.schemobjects.BlockStore;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import com.joeyoey.simpleschem.schemobjects.TileEntityStore;
+import org.bukkit.util.Vector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SectionedSchematicFileTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // Spans 3x2x3 sections, with partial sections at the far edges
+    private static Schematic sample() {
+        SchematicBuilder builder = new SchematicBuilder().dimensions(40, 20, 40);
+        for (int x = -5; x < 35; x++) {
+            for (int z = 2; z < 42; z++) {
+                builder.addBlock(x, 0, z, "minecraft:stone");
+                builder.addBlock(x, 1, z, "minecraft:state_" + ((x * 7 + z) & 15));
+                if ((x ^ z) % 5 == 0) {
+                    builder.addBlock(x, 19, z, "minecraft:glass");
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static File write(Schematic schematic, SchematicCodec codec) throws IOException {
+        File file = Files.createTempFile("test_sectioned", ".schem").toFile();
+        file.deleteOnExit();
+        CompactFormat.write(file, schematic, codec);
+        return file;
+    }
+
+    @Test
+    public void testRoundTripWithEachCodec() throws IOException {
+        // Arrange
+        Schematic original = sample();
+
+        for (SchematicCodec codec : new SchematicCodec[]{SchematicCodec.NONE, SchematicCodec.FAST, SchematicCodec.SMALLEST}) {
+            // Act
+            Schematic loaded = CompactFormat.read(write(original, codec));
+
+            // Assert
+            assertEquals(original.getWidth(), loaded.getWidth());
+            assertEquals(original.getHeight(), loaded.getHeight());
+            assertEquals(original.getLength(), loaded.getLength());
+            assertEquals(original.getBlockCount(), loaded.getBlockCount());
+            assertEquals(original.getBlockDataMap(), loaded.getBlockDataMap());
+        }
+    }
+
+    @Test
+    public void testHeaderAndEmptySections() throws IOException {
+        // Arrange
+        File file = write(sample(), SchematicCodec.FAST);
+
+        // Act
+        try (SectionedSchematicFile sectioned = SectionedSchematicFile.open(file)) {
+            // Assert
+            assertEquals(SchematicCodec.ID_DEFLATE, sectioned.getCodec().getId());
+            assertEquals(-5, sectioned.getOriginX());
+            assertEquals(40, sectioned.getSizeX());
+            assertEquals(20, sectioned.getSizeY());
+            assertEquals(18, sectioned.getSectionCount());
+            assertEquals(sample().getBlockCount(), sectioned.getBlockCount());
+            assertTrue(sectioned.getSectionLength(0, 0, 0) > 0);
+            assertTrue(sectioned.getSectionLength(0, 1, 0) > 0);
+        }
+    }
+
+    @Test
+    public void testRegionReadsOnlyBlocksInsideTheBox() throws IOException {
+        // Arrange
+        Schematic original = sample();
+        File file = write(original, SchematicCodec.FAST);
+
+        // Act
+        Schematic region;
+        try (SectionedSchematicFile sectioned = SectionedSchematicFile.open(file)) {
+            region = sectioned.readRegion(10, 0, 10, 20, 1, 30);
+        }
+
+        // Assert
+        assertEquals(11, region.getWidth());
+        assertEquals(2, region.getHeight());
+        assertEquals(21, region.getLength());
+        assertEquals(11 * 2 * 21, region.getBlockCount());
+        for (Map.Entry<Vector, String> entry : region.getBlockDataMap().entrySet()) {
+            assertEquals(entry.getValue(), original.getBlockDataMap().get(entry.getKey()));
+        }
+        assertEquals("minecraft:stone", region.getBlockDataMap().get(new Vector(20, 0, 30)));
+        assertNull(region.getBlockDataMap().get(new Vector(21, 0, 30)));
+    }
+
+    @Test
+    public void testRegionOutsideBoundsIsEmpty() throws IOException {
+        try (SectionedSchematicFile sectioned = SectionedSchematicFile.open(write(sample(), SchematicCodec.NONE))) {
+            Schematic region = sectioned.readRegion(100, 0, 100, 120, 10, 120);
+            assertEquals(0, region.getBlockCount());
+        }
+    }
+
+    @Test
+    public void testWriterAcceptsSectionsOutOfOrder() throws IOException {
+        // Arrange
+        File file = Files.createTempFile("test_sectioned", ".schem").toFile();
+        file.deleteOnExit();
+        try (SectionedWriter writer = new SectionedWriter(file, SchematicCodec.FAST, 0, 0, 0, 20, 1, 1)) {
+            int stone = writer.paletteId("minecraft:stone");
+            int dirt = writer.paletteId("minecraft:dirt");
+            int[] cells = new int[16];
+            Arrays.fill(cells, Schematic.EMPTY);
+            cells[3] = dirt;
+            writer.writeSection(1, 0, 0, cells); // cells 16..19 of the row
+            cells[3] = stone;
+            cells[0] = stone;
+            writer.writeSection(0, 0, 0, cells);
+        }
+
+        // Act
+        Schematic loaded = CompactFormat.read(file);
+
+        // Assert
+        assertEquals(3, loaded.getBlockCount());
+        assertEquals("minecraft:stone", loaded.getBlockDataMap().get(new Vector(3, 0, 0)));
+        assertEquals("minecraft:dirt", loaded.getBlockDataMap().get(new Vector(19, 0, 0)));
+    }
+
+    @Test
+    public void testEmptySchematicRoundTrip() throws IOException {
+        Schematic empty = new SchematicBuilder().dimensions(3, 3, 3).build();
+        Schematic loaded = CompactFormat.read(write(empty, SchematicCodec.FAST));
+        assertEquals(0, loaded.getBlockCount());
+        assertEquals(3, loaded.getWidth());
+    }
+
+    @Test(expected = IOException.class)
+    public void testStreamReadRejectsSectionedFile() throws IOException {
+        byte[] bytes = Files.readAllBytes(write(sample(), SchematicCodec.NONE).toPath());
+        CompactFormat.read(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void testTileEntitiesRoundTrip() throws IOException {
+        // Arrange
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(0, 0, 0, "minecraft:chest");
+        builder.addBlock(30, 5, 30, "minecraft:chest");
+        builder.addTileEntity(0, 0, 0, "{Items:[{Slot:0b,id:\"minecraft:diamond\",Count:3b}]}");
+        builder.addTileEntity(30, 5, 30, "{Items:[]}");
+        File file = write(builder.build(), SchematicCodec.FAST);
+
+        // Act
+        Schematic whole = CompactFormat.read(file);
+        Schematic region;
+        int count;
+        try (SectionedSchematicFile sectioned = SectionedSchematicFile.open(file)) {
+            count = sectioned.getTileEntityCount();
+            region = sectioned.readRegion(20, 0, 20, 40, 10, 40);
+        }
+
+        // Assert
+        assertEquals(2, count);
+        assertEquals(2, whole.getTileEntities().size());
+        assertEquals("{Items:[{Slot:0b,id:\"minecraft:diamond\",Count:3b}]}",
+                whole.getTileEntityData().get(new Vector(0, 0, 0)));
+        assertEquals(1, region.getTileEntities().size());
+        assertEquals("{Items:[]}", region.getTileEntityData().get(new Vector(30, 5, 30)));
+    }
+
+    @Test
+    public void testFailedWriteKeepsPreviousFile() throws IOException {
+        // Arrange - a store that breaks halfway through the second section
+        File file = new File(tempFolder.getRoot(), "kept.schem");
+        Schematic original = sample();
+        CompactFormat.write(file, original, SchematicCodec.FAST);
+        BlockStore broken = new BlockStore() {
+            @Override
+            public int size() {
+                return 40 * 20 * 40;
+            }
+
+            @Override
+            public int get(int cell) {
+                if (cell > 20 * 40) {
+                    throw new IllegalStateException("Store went away");
+                }
+                return 0;
+            }
+        };
+        Schematic failing = new Schematic(new String[]{"minecraft:dirt"}, broken, 0, 0, 0, 40, 20, 40,
+                40 * 20 * 40, TileEntityStore.EMPTY, 40, 20, 40);
+
+        // Act
+        try {
+            CompactFormat.write(file, failing, SchematicCodec.FAST);
+            fail("Expected the write to fail");
+        } catch (IllegalStateException expected) {
+            // the store failed
+        }
+
+        // Assert - the old file is untouched and no temporary file is left behind
+        assertEquals(original.getBlockDataMap(), CompactFormat.read(file).getBlockDataMap());
+        assertArrayEquals(new String[]{"kept.schem"}, tempFolder.getRoot().list());
+    }
+
+    @Test
+    public void testAbortedWriterLeavesNoFile() throws IOException {
+        // Arrange
+        File file = new File(tempFolder.getRoot(), "aborted.schem");
+        SectionedWriter writer = new SectionedWriter(file, SchematicCodec.FAST, 0, 0, 0, 20, 1, 1);
+        int[] cells = new int[16];
+        Arrays.fill(cells, writer.paletteId("minecraft:stone"));
+        writer.writeSection(0, 0, 0, cells);
+
+        // Act
+        writer.abort();
+        writer.close();
+
+        // Assert
+        assertFalse(file.exists());
+        assertEquals(0, tempFolder.getRoot().list().length);
+    }
+}
@@ -0,0 +1,111 @@
+package com.joeyoey.simpleschem.jfr;
+
+import com.joeyoey.simpleschem.SimpleSchem;
+import com.joeyoey.simpleschem.io.SchematicCache;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class SchematicEventsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        assumeTrue(SchematicEvents.isAvailable());
+    }
+
+    private static Schematic sample() {
+        SchematicBuilder builder = new SchematicBuilder();
+        for (int x = 0; x < 12; x++) {
+            builder.addBlock(x, 0, x % 2, "minecraft:stone");
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testNoEventWithoutRecording() {
+        // Act
+        Object load = SchematicEvents.beginLoad();
+        Object refresh = SchematicEvents.beginChunkRefresh();
+
+        // Assert
+        assertNull(load);
+        assertNull(refresh);
+        SchematicEvents.endLoad(load, "json", 0, null);
+    }
+
+    @Test
+    public void testSaveAndLoadAreRecorded() throws IOException {
+        // Arrange
+        File file = new File(tempFolder.getRoot(), "recorded.schem");
+        Schematic schematic = sample();
+        Path dump = tempFolder.newFile("recording.jfr").toPath();
+
+        // Act
+        try (Recording recording = new Recording()) {
+            recording.enable("com.joeyoey.simpleschem.Save");
+            recording.enable("com.joeyoey.simpleschem.Load");
+            recording.start();
+            assertTrue(SimpleSchem.saveCompactSchematic(file, schematic));
+            assertNotNull(SimpleSchem.loadCompactSchematic(file));
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        // Assert
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        assertEquals(2, events.size());
+        RecordedEvent save = events.get(0);
+        assertEquals("com.joeyoey.simpleschem.Save", save.getEventType().getName());
+        assertEquals(file.getPath(), save.getString("target"));
+        assertEquals(file.length(), save.getLong("bytes"));
+        assertEquals(12, save.getLong("blockCount"));
+        assertEquals(12, save.getInt("sizeX"));
+        assertEquals(2, save.getInt("sizeZ"));
+        RecordedEvent load = events.get(1);
+        assertEquals("com.joeyoey.simpleschem.Load", load.getEventType().getName());
+        assertEquals(file.length(), load.getLong("size"));
+        assertEquals(1, load.getInt("paletteSize"));
+    }
+
+    @Test
+    public void testCacheHitsEmitNoLoadEvent() throws IOException {
+        // Arrange
+        File file = new File(tempFolder.getRoot(), "cached.schem");
+        assertTrue(SimpleSchem.saveCompactSchematic(file, sample()));
+        SchematicCache cache = new SchematicCache(Long.MAX_VALUE);
+        Path dump = tempFolder.newFile("recording.jfr").toPath();
+
+        // Act
+        try (Recording recording = new Recording()) {
+            recording.enable("com.joeyoey.simpleschem.Load");
+            recording.start();
+            for (int i = 0; i < 3; i++) {
+                assertNotNull(SimpleSchem.loadCompactSchematic(file, cache));
+            }
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        // Assert
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        assertEquals(1, events.size());
+        assertEquals(file.length(), events.get(0).getLong("size"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.joeyoey.simpleschem.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testValuesLandInPowerOfTwoBuckets() {
+        // Arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // Act
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(1023);
+        histogram.record(1024);
+        histogram.record(Long.MAX_VALUE);
+
+        // Assert
+        assertEquals(2, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(9));
+        assertEquals(1, histogram.getBucketCount(10));
+        assertEquals(1, histogram.getBucketCount(62));
+        assertEquals(5, histogram.getCount());
+        assertEquals(1023, LatencyHistogram.bucketUpperBound(9));
+    }
+
+    @Test
+    public void testPercentilesReadBucketUpperBounds() {
+        // Arrange: 90 fast samples and 10 slow ones
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(1_000_000);
+        }
+
+        // Act
+        long median = histogram.getPercentileNanos(50);
+        long p90 = histogram.getPercentileNanos(90);
+        long p99 = histogram.getPercentileNanos(99);
+
+        // Assert
+        assertEquals(1023, median);
+        assertEquals(1023, p90);
+        assertEquals((1L << 20) - 1, p99);
+        assertTrue(p99 >= 1_000_000 && p99 < 2_000_000);
+    }
+
+    @Test
+    public void testEmptyAndReset() {
+        // Arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(99));
+        histogram.record(5);
+
+        // Act
+        histogram.reset();
+
+        // Assert
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+    }
+}
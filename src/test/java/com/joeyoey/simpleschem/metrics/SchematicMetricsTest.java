@@ -0,0 +1,149 @@
+package com.joeyoey.simpleschem.metrics;
+
+import com.joeyoey.simpleschem.SimpleSchem;
+import com.joeyoey.simpleschem.io.SchematicCache;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.joeyoey.simpleschem.TestSchematics.stoneRow;
+import static org.junit.Assert.*;
+
+public class SchematicMetricsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final List<Phase> phases = new ArrayList<>();
+    private final List<Long> blocks = new ArrayList<>();
+    private final MetricsListener listener = (phase, nanos, blockCount, chunks) -> {
+        phases.add(phase);
+        blocks.add(blockCount);
+    };
+
+    @Before
+    public void setUp() {
+        SchematicMetrics.reset();
+        SchematicMetrics.addListener(listener);
+    }
+
+    @After
+    public void tearDown() {
+        SchematicMetrics.removeListener(listener);
+        SchematicMetrics.reset();
+    }
+
+    @Test
+    public void testRecordKeepsTotalsAndNotifiesListeners() {
+        // Act
+        SchematicMetrics.recordNanos(Phase.BLOCK_WRITE, 2_000_000, 1000, 2);
+        SchematicMetrics.recordNanos(Phase.BLOCK_WRITE, 3_000_000, 500, 1);
+
+        // Assert
+        PhaseStats stats = SchematicMetrics.get(Phase.BLOCK_WRITE);
+        assertEquals(2, stats.getCount());
+        assertEquals(5_000_000, stats.getTotalNanos());
+        assertEquals(3_000_000, stats.getMaxNanos());
+        assertEquals(1500, stats.getBlocks());
+        assertEquals(3, stats.getChunks());
+        assertEquals(300_000, stats.getBlocksPerSecond(), 1e-6);
+        assertEquals(2, stats.getHistogram().getCount());
+        assertEquals(0, SchematicMetrics.get(Phase.PASTE).getCount());
+        assertEquals(2, phases.size());
+    }
+
+    @Test
+    public void testFailingListenerDoesNotStopRecording() {
+        // Arrange
+        MetricsListener failing = (phase, nanos, blockCount, chunks) -> {
+            throw new IllegalStateException("monitoring is down");
+        };
+        SchematicMetrics.addListener(failing);
+
+        // Act
+        try {
+            SchematicMetrics.recordNanos(Phase.SAVE, 10, 1, 0);
+        } finally {
+            SchematicMetrics.removeListener(failing);
+        }
+
+        // Assert
+        assertEquals(1, SchematicMetrics.get(Phase.SAVE).getCount());
+        assertEquals(1, phases.size());
+    }
+
+    @Test
+    public void testCompactSaveAndLoadAreRecorded() {
+        // Arrange
+        File file = new File(tempFolder.getRoot(), "metrics.schem");
+        Schematic schematic = stoneRow(40);
+
+        // Act
+        assertTrue(SimpleSchem.saveCompactSchematic(file, schematic));
+        assertNotNull(SimpleSchem.loadCompactSchematic(file));
+
+        // Assert
+        assertEquals(1, SchematicMetrics.get(Phase.SAVE).getCount());
+        assertEquals(40, SchematicMetrics.get(Phase.SAVE).getBlocks());
+        assertEquals(1, SchematicMetrics.get(Phase.LOAD).getCount());
+        assertEquals(40, SchematicMetrics.get(Phase.LOAD).getBlocks());
+        assertEquals(Phase.SAVE, phases.get(0));
+        assertEquals(Phase.LOAD, phases.get(1));
+    }
+
+    @Test
+    public void testCacheHitsAreNotRecordedAsLoads() {
+        // Arrange
+        File file = new File(tempFolder.getRoot(), "cached.schem");
+        assertTrue(SimpleSchem.saveCompactSchematic(file, stoneRow(25)));
+        SchematicCache cache = new SchematicCache(Long.MAX_VALUE);
+
+        // Act
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(SimpleSchem.loadCompactSchematic(file, cache));
+        }
+
+        // Assert - only the miss read the file
+        assertEquals(1, SchematicMetrics.get(Phase.LOAD).getCount());
+        assertEquals(25, SchematicMetrics.get(Phase.LOAD).getBlocks());
+    }
+
+    @Test
+    public void testFailedLoadIsNotRecorded() {
+        // Act
+        Schematic schematic = SimpleSchem.loadCompactSchematic(new File(tempFolder.getRoot(), "missing.schem"));
+
+        // Assert
+        assertNull(schematic);
+        assertEquals(0, SchematicMetrics.get(Phase.LOAD).getCount());
+        assertTrue(phases.isEmpty());
+    }
+
+    @Test
+    public void testPhaseTimerReportsOnlyChargedPhases() {
+        // Arrange
+        PhaseTimer timer = new PhaseTimer();
+
+        // Act
+        timer.lap(Phase.CHUNK_LOAD);
+        timer.lap(Phase.BLOCK_WRITE);
+        timer.lap(Phase.CHUNK_LOAD);
+        timer.report(64, 3, 2);
+
+        // Assert
+        assertEquals(2, phases.size());
+        assertEquals(Phase.CHUNK_LOAD, phases.get(0));
+        assertEquals(Phase.BLOCK_WRITE, phases.get(1));
+        assertEquals(2, SchematicMetrics.get(Phase.CHUNK_LOAD).getChunks());
+        assertEquals(0, SchematicMetrics.get(Phase.CHUNK_LOAD).getBlocks());
+        assertEquals(64, SchematicMetrics.get(Phase.BLOCK_WRITE).getBlocks());
+        assertEquals(timer.getElapsedNanos(), timer.getNanos(Phase.CHUNK_LOAD) + timer.getNanos(Phase.BLOCK_WRITE));
+    }
+}
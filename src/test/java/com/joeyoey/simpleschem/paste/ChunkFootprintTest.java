@@ -0,0 +1,42 @@
+package com.joeyoey.simpleschem.paste;
+
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.bukkit.Location;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChunkFootprintTest {
+
+    @Test
+    public void testFootprintFollowsBoundsAndOffset() {
+        // Arrange
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(-20, 0, 0, "minecraft:stone");
+        builder.addBlock(10, 5, 17, "minecraft:stone");
+        Schematic schematic = builder.build();
+
+        // Act
+        long[] keys = ChunkFootprint.of(new Location(null, 8, 64, -1), schematic);
+
+        // Assert: x from -12 to 18, z from -1 to 16
+        assertEquals(3 * 3, keys.length);
+        assertEquals(ChunkFootprint.key(-1, -1), keys[0]);
+        assertEquals(ChunkFootprint.key(-1, 0), keys[1]);
+        assertEquals(ChunkFootprint.key(1, 1), keys[8]);
+    }
+
+    @Test
+    public void testKeyRoundTrip() {
+        long key = ChunkFootprint.key(-5, 123456);
+        assertEquals(-5, ChunkFootprint.chunkX(key));
+        assertEquals(123456, ChunkFootprint.chunkZ(key));
+    }
+
+    @Test
+    public void testEmptySchematicHasNoChunks() {
+        Schematic empty = new SchematicBuilder().build();
+        assertEquals(0, ChunkFootprint.of(new Location(null, 0, 0, 0), empty).length);
+    }
+}
@@ -0,0 +1,210 @@
+package com.joeyoey.simpleschem.paste;
+
+import com.joeyoey.simpleschem.nms.NMSAbstraction;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.bukkit.Chunk;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static com.joeyoey.simpleschem.TestSchematics.stoneRow;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class PasteJobTest {
+
+    private World world;
+    private Chunk chunk;
+    private Block block;
+    private BlockData blockData;
+
+    @Before
+    public void setUp() {
+        world = mock(World.class);
+        chunk = mock(Chunk.class);
+        block = mock(Block.class);
+        blockData = mock(BlockData.class);
+        when(world.getChunkAt(anyInt(), anyInt())).thenReturn(chunk);
+        when(chunk.getBlock(anyInt(), anyInt(), anyInt())).thenReturn(block);
+    }
+
+    private PastePlan plan(Schematic schematic) {
+        return PastePlan.prepare(world, 0, 64, 0, schematic, i -> blockData, 0, 256);
+    }
+
+    // A 40x1x1 row crossing three chunks
+    private static Schematic row() {
+        return stoneRow(40);
+    }
+
+    @Test
+    public void testSpreadsWorkOverTicksWithinBudget() throws Exception {
+        // Arrange
+        SchematicBuilder builder = new SchematicBuilder();
+        for (int x = 0; x < 200; x++) {
+            builder.addBlock(x, 0, 0, "minecraft:stone");
+        }
+        PasteJob job = new PasteJob(null, plan(builder.build()), null, 1);
+
+        // Act
+        int ticks = 0;
+        while (!job.isDone()) {
+            job.tick();
+            ticks++;
+        }
+
+        // Assert
+        assertTrue("a 1 ns budget should need several ticks", ticks > 1);
+        assertEquals(200, (int) job.getFuture().get());
+        assertEquals(200, job.getBlocksPlaced());
+        assertEquals(1.0, job.getProgress(), 0.0);
+        verify(block, times(200)).setBlockData(blockData, false);
+    }
+
+    @Test
+    public void testRefreshesEachChunkOnceWhenDone() throws Exception {
+        // Arrange
+        NMSAbstraction nms = mock(NMSAbstraction.class);
+        PasteJob job = new PasteJob(null, plan(row()), nms, PasteJob.DEFAULT_TICK_BUDGET_NANOS);
+
+        // Act
+        job.tick();
+
+        // Assert
+        assertEquals(40, (int) job.getFuture().get());
+        verify(nms, times(40)).setBlockSuperFast(block, blockData, false);
+        verify(nms, times(3)).refreshChunk(chunk);
+    }
+
+    @Test
+    public void testHoldsAndReleasesChunkTickets() throws Exception {
+        // Arrange
+        Plugin plugin = mock(Plugin.class);
+        when(world.addPluginChunkTicket(anyInt(), anyInt(), eq(plugin))).thenReturn(true);
+        PasteJob job = new PasteJob(plugin, plan(row()), null, PasteJob.DEFAULT_TICK_BUDGET_NANOS);
+
+        // Act
+        job.tick();
+
+        // Assert
+        assertTrue(job.isDone());
+        for (int chunkX = 0; chunkX < 3; chunkX++) {
+            verify(world).addPluginChunkTicket(chunkX, 0, plugin);
+            verify(world).removePluginChunkTicket(chunkX, 0, plugin);
+        }
+    }
+
+    @Test
+    public void testCancelStopsBeforeTheNextTick() {
+        // Arrange
+        PasteJob job = new PasteJob(null, plan(row()), null, PasteJob.DEFAULT_TICK_BUDGET_NANOS);
+
+        // Act
+        boolean cancelled = job.cancel();
+        job.tick();
+
+        // Assert
+        assertTrue(cancelled);
+        assertTrue(job.getFuture().isCancelled());
+        assertEquals(0, job.getBlocksPlaced());
+        verify(block, never()).setBlockData(any(BlockData.class), anyBoolean());
+    }
+
+    @Test
+    public void testSkipsBlocksOutsideWorldHeight() throws Exception {
+        // Arrange
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(0, 0, 0, "minecraft:stone");
+        builder.addBlock(0, 300, 0, "minecraft:stone");
+        PasteJob job = new PasteJob(null, plan(builder.build()), null, PasteJob.DEFAULT_TICK_BUDGET_NANOS);
+
+        // Act
+        job.tick();
+
+        // Assert
+        assertEquals(1, (int) job.getFuture().get());
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testFailureCompletesExceptionally() throws Exception {
+        // Arrange
+        doThrow(new IllegalStateException("boom")).when(block).setBlockData(any(BlockData.class), anyBoolean());
+        PasteJob job = new PasteJob(null, plan(row()), null, PasteJob.DEFAULT_TICK_BUDGET_NANOS);
+
+        // Act
+        job.tick();
+
+        // Assert
+        job.getFuture().get();
+    }
+
+    private BukkitScheduler scheduler(Plugin plugin) {
+        Server server = mock(Server.class);
+        BukkitScheduler scheduler = mock(BukkitScheduler.class);
+        when(plugin.getServer()).thenReturn(server);
+        when(server.getScheduler()).thenReturn(scheduler);
+        return scheduler;
+    }
+
+    @Test
+    public void testStartsOnceThePlanIsPrepared() {
+        // Arrange
+        Plugin plugin = mock(Plugin.class);
+        BukkitScheduler scheduler = scheduler(plugin);
+        CompletableFuture<PastePlan> preparing = new CompletableFuture<>();
+
+        // Act
+        PasteJob job = PasteJob.start(plugin, preparing, null, PasteJob.DEFAULT_TICK_BUDGET_NANOS, Runnable::run);
+
+        // Assert - nothing is scheduled until the plan is ready
+        assertTrue(job.isPreparing());
+        assertFalse(job.isDone());
+        assertEquals(0.0, job.getProgress(), 0.0);
+        verify(scheduler, never()).runTaskTimer(any(Plugin.class), any(Runnable.class), anyLong(), anyLong());
+        preparing.complete(plan(row()));
+        assertFalse(job.isPreparing());
+        assertEquals(40, job.getTotalBlocks());
+        verify(scheduler).runTaskTimer(eq(plugin), any(Runnable.class), eq(0L), eq(1L));
+    }
+
+    @Test
+    public void testCancelWhilePreparingNeverStarts() {
+        // Arrange
+        Plugin plugin = mock(Plugin.class);
+        BukkitScheduler scheduler = scheduler(plugin);
+        CompletableFuture<PastePlan> preparing = new CompletableFuture<>();
+        PasteJob job = PasteJob.start(plugin, preparing, null, PasteJob.DEFAULT_TICK_BUDGET_NANOS, Runnable::run);
+
+        // Act
+        boolean cancelled = job.cancel();
+        preparing.complete(plan(row()));
+
+        // Assert
+        assertTrue(cancelled);
+        assertTrue(job.getFuture().isCancelled());
+        verify(scheduler, never()).runTaskTimer(any(Plugin.class), any(Runnable.class), anyLong(), anyLong());
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testFailedPrepareCompletesExceptionally() throws Exception {
+        // Arrange
+        CompletableFuture<PastePlan> preparing = new CompletableFuture<>();
+        PasteJob job = PasteJob.start(mock(Plugin.class), preparing, null, PasteJob.DEFAULT_TICK_BUDGET_NANOS, Runnable::run);
+
+        // Act
+        preparing.completeExceptionally(new IllegalArgumentException("No world"));
+
+        // Assert
+        job.getFuture().get();
+    }
+}
@@ -0,0 +1,196 @@
+package com.joeyoey.simpleschem.paste;
+
+import com.joeyoey.simpleschem.metrics.Phase;
+import com.joeyoey.simpleschem.metrics.SchematicMetrics;
+import com.joeyoey.simpleschem.nms.NMSAbstraction;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class PastePlanTest {
+
+    private static Schematic sample() {
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(-1, 0, 0, "minecraft:stone");
+        builder.addBlock(0, 0, 0, "minecraft:stone");
+        builder.addBlock(15, 0, 0, "minecraft:dirt");
+        builder.addBlock(16, 0, 0, "minecraft:dirt");
+        builder.addBlock(0, 0, 16, "minecraft:dirt");
+        builder.addBlock(16, 500, 0, "minecraft:dirt"); // above the world
+        return builder.build();
+    }
+
+    @Test
+    public void testGroupsBlocksBySortedTargetChunk() {
+        // Arrange
+        Schematic schematic = sample();
+        BlockData[] decoded = new BlockData[schematic.getPaletteSize()];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = mock(BlockData.class);
+        }
+
+        // Act
+        PastePlan plan = PastePlan.prepare(mock(World.class), 0, 64, 0, schematic, i -> decoded[i], 0, 256);
+
+        // Assert
+        List<PastePlan.ChunkPlan> chunks = plan.getChunks();
+        assertEquals(5, plan.getBlockCount());
+        assertEquals(4, chunks.size());
+        assertEquals(-1, chunks.get(0).getChunkX());
+        assertEquals(0, chunks.get(1).getChunkX());
+        assertEquals(0, chunks.get(1).getChunkZ());
+        assertEquals(0, chunks.get(2).getChunkX());
+        assertEquals(1, chunks.get(2).getChunkZ());
+        assertEquals(1, chunks.get(3).getChunkX());
+
+        int stone = schematic.getPaletteIndex(0, 0, 0);
+        Map<Vector, BlockData> origin = chunks.get(1).getBlocks();
+        assertEquals(2, origin.size());
+        assertSame(decoded[stone], origin.get(new Vector(0, 64, 0)));
+        assertSame(decoded[stone], chunks.get(0).getBlocks().get(new Vector(15, 64, 0)));
+        assertTrue(origin.containsKey(new Vector(15, 64, 0)));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPlanIsUnmodifiable() {
+        PastePlan plan = PastePlan.prepare(mock(World.class), 0, 64, 0, sample(), i -> null, 0, 256);
+        plan.getChunks().get(0).getBlocks().clear();
+    }
+
+    @Test
+    public void testApplyWritesEachChunkOnceThenRefreshes() {
+        // Arrange
+        World world = mock(World.class);
+        when(world.getChunkAt(anyInt(), anyInt())).thenReturn(mock(Chunk.class));
+        NMSAbstraction nms = mock(NMSAbstraction.class);
+        PastePlan plan = PastePlan.prepare(world, 0, 64, 0, sample(), i -> mock(BlockData.class), 0, 256);
+
+        // Act
+        int chunks = plan.apply(nms);
+
+        // Assert
+        assertEquals(4, chunks);
+        verify(nms, times(4)).setBlocksInChunk(any(Chunk.class), anyMap());
+        verify(nms, times(4)).refreshChunk(any(Chunk.class));
+        verify(nms, never()).setBlockSuperFast(any(), any(), anyBoolean());
+    }
+
+    @Test
+    public void testChangedBlocksKeepsOnlyDifferingBlocks() {
+        // Arrange
+        Schematic schematic = sample();
+        BlockData[] decoded = new BlockData[schematic.getPaletteSize()];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = mock(BlockData.class);
+        }
+        int stone = schematic.getPaletteIndex(0, 0, 0);
+        PastePlan plan = PastePlan.prepare(mock(World.class), 0, 64, 0, schematic, i -> decoded[i], 0, 256);
+
+        // Chunk (0,0) already holds stone everywhere, chunk (-1,0) holds air
+        ChunkSnapshot stoneChunk = mock(ChunkSnapshot.class);
+        when(stoneChunk.getBlockData(anyInt(), anyInt(), anyInt())).thenReturn(decoded[stone]);
+        ChunkSnapshot airChunk = mock(ChunkSnapshot.class);
+        when(airChunk.getBlockData(anyInt(), anyInt(), anyInt())).thenReturn(mock(BlockData.class));
+        Map<Long, ChunkSnapshot> snapshots = new HashMap<>();
+        snapshots.put(ChunkFootprint.key(0, 0), stoneChunk);
+        snapshots.put(ChunkFootprint.key(-1, 0), airChunk);
+
+        // Act
+        PastePlan changed = plan.changedBlocks(snapshots);
+
+        // Assert: the dirt at (15,0,0) differs, chunks without snapshots are kept whole
+        List<PastePlan.ChunkPlan> chunks = changed.getChunks();
+        assertEquals(4, changed.getBlockCount());
+        assertEquals(4, chunks.size());
+        assertEquals(1, chunks.get(0).getBlocks().size());
+        assertEquals(1, chunks.get(1).getBlocks().size());
+        assertTrue(chunks.get(1).getBlocks().containsKey(new Vector(15, 64, 0)));
+    }
+
+    @Test
+    public void testChangedBlocksDropsUnchangedChunks() {
+        // Arrange
+        BlockData stone = mock(BlockData.class);
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(0, 0, 0, "minecraft:stone");
+        PastePlan plan = PastePlan.prepare(mock(World.class), 0, 64, 0, builder.build(), i -> stone, 0, 256);
+        ChunkSnapshot snapshot = mock(ChunkSnapshot.class);
+        when(snapshot.getBlockData(0, 64, 0)).thenReturn(stone);
+        Map<Long, ChunkSnapshot> snapshots = new HashMap<>();
+        snapshots.put(ChunkFootprint.key(0, 0), snapshot);
+
+        // Act
+        PastePlan changed = plan.changedBlocks(snapshots);
+
+        // Assert
+        assertEquals(0, changed.getBlockCount());
+        assertTrue(changed.getChunks().isEmpty());
+    }
+
+    @Test
+    public void testTileEntitiesAreWrittenWithTheirChunk() {
+        // Arrange: one tile entity beside a block, one in a chunk without blocks
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(0, 0, 0, "minecraft:chest");
+        builder.addTileEntity(0, 0, 0, "{Items:[]}");
+        builder.addTileEntity(-3, 1, 0, "{Text1:'\"hi\"'}");
+        Chunk chunk = mock(Chunk.class);
+        Block block = mock(Block.class);
+        when(chunk.getBlock(anyInt(), anyInt(), anyInt())).thenReturn(block);
+        World world = mock(World.class);
+        when(world.getChunkAt(anyInt(), anyInt())).thenReturn(chunk);
+        NMSAbstraction nms = mock(NMSAbstraction.class);
+        PastePlan plan = PastePlan.prepare(world, 0, 64, 0, builder.build(), i -> mock(BlockData.class), 0, 256);
+
+        // Act
+        int chunks = plan.apply(nms);
+
+        // Assert
+        assertEquals(2, chunks);
+        assertEquals(2, plan.getTileEntityCount());
+        assertEquals(1, plan.getChunks().get(0).getTileEntityCount());
+        assertTrue(plan.getChunks().get(0).getBlocks().isEmpty());
+        verify(nms, times(1)).setBlocksInChunk(any(Chunk.class), anyMap());
+        verify(chunk).getBlock(0, 64, 0);
+        verify(chunk).getBlock(13, 65, 0);
+        verify(nms).setTileEntityData(block, "{Items:[]}");
+        verify(nms).setTileEntityData(block, "{Text1:'\"hi\"'}");
+    }
+
+    @Test
+    public void testApplyRecordsEachPhase() {
+        // Arrange
+        World world = mock(World.class);
+        when(world.getChunkAt(anyInt(), anyInt())).thenReturn(mock(Chunk.class));
+        SchematicMetrics.reset();
+        PastePlan plan = PastePlan.prepare(world, 0, 64, 0, sample(), i -> mock(BlockData.class), 0, 256);
+
+        // Act
+        plan.apply(mock(NMSAbstraction.class));
+
+        // Assert
+        assertEquals(1, SchematicMetrics.get(Phase.PLAN).getCount());
+        assertEquals(5, SchematicMetrics.get(Phase.BLOCK_DATA).getBlocks());
+        assertEquals(4, SchematicMetrics.get(Phase.CHUNK_LOAD).getChunks());
+        assertEquals(5, SchematicMetrics.get(Phase.BLOCK_WRITE).getBlocks());
+        assertEquals(1, SchematicMetrics.get(Phase.TILE_ENTITIES).getCount());
+        assertEquals(4, SchematicMetrics.get(Phase.CHUNK_REFRESH).getChunks());
+        assertEquals(5, SchematicMetrics.get(Phase.PASTE).getBlocks());
+        assertEquals(4, SchematicMetrics.get(Phase.PASTE).getChunks());
+        SchematicMetrics.reset();
+    }
+}
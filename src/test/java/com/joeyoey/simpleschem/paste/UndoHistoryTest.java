@@ -0,0 +1,169 @@
+package com.joeyoey.simpleschem.paste;
+
+import com.joeyoey.simpleschem.nms.NMSAbstraction;
+import com.joeyoey.simpleschem.schemobjects.Schematic;
+import com.joeyoey.simpleschem.schemobjects.SchematicBuilder;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.util.Vector;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class UndoHistoryTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Chunk chunk;
+    private World world;
+    private PastePlan plan;
+
+    @Before
+    public void setUp() {
+        BlockData air = mock(BlockData.class);
+        when(air.getAsString()).thenReturn("minecraft:air");
+        Block block = mock(Block.class);
+        when(block.getBlockData()).thenReturn(air);
+        chunk = mock(Chunk.class);
+        when(chunk.getBlock(anyInt(), anyInt(), anyInt())).thenReturn(block);
+        when(chunk.getTileEntities()).thenReturn(new BlockState[0]);
+        world = mock(World.class);
+        when(world.getMaxHeight()).thenReturn(256);
+        when(world.getChunkAt(anyInt(), anyInt())).thenReturn(chunk);
+
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(0, 0, 0, "minecraft:stone");
+        builder.addBlock(20, 0, 0, "minecraft:stone");
+        plan = PastePlan.prepare(world, 0, 64, 0, builder.build(), i -> mock(BlockData.class), 0, 256);
+    }
+
+    @Test
+    public void testCaptureRecordsOnlyOverwrittenBlocks() throws Exception {
+        // Act
+        Schematic recorded = UndoSnapshot.capture(plan).getSchematic();
+
+        // Assert: world coordinates, one palette entry for the shared state
+        assertEquals(2, recorded.getBlockCount());
+        assertEquals(1, recorded.getPaletteSize());
+        assertEquals("minecraft:air", recorded.getPaletteEntry(0));
+        assertEquals(0, recorded.getPaletteIndex(0, 64, 0));
+        assertEquals(0, recorded.getPaletteIndex(20, 64, 0));
+        assertEquals(Schematic.EMPTY, recorded.getPaletteIndex(10, 64, 0));
+    }
+
+    @Test
+    public void testScatteredBlocksAreRecordedSparsely() throws Exception {
+        // Arrange - two changed blocks 300 blocks apart, as a diff paste leaves them
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(0, 0, 0, "minecraft:stone");
+        builder.addBlock(300, 100, 300, "minecraft:stone");
+        PastePlan scattered = PastePlan.prepare(world, 0, 64, 0, builder.build(), i -> mock(BlockData.class), 0, 256);
+
+        // Act
+        UndoSnapshot snapshot = UndoSnapshot.capture(scattered);
+
+        // Assert - no cell is kept for the empty space between them
+        assertEquals(2, snapshot.getSchematic().getBlockCount());
+        assertEquals(0, snapshot.getSchematic().getPaletteIndex(300, 164, 300));
+        assertTrue(snapshot.getByteSize() < 1024);
+    }
+
+    @Test
+    public void testSpillsOldestSnapshotsOverTheByteCap() throws Exception {
+        // Arrange
+        File spillDirectory = tempFolder.newFolder("undo");
+        long snapshotBytes = UndoSnapshot.capture(plan).getByteSize();
+        UndoHistory history = new UndoHistory(10, snapshotBytes, spillDirectory);
+
+        // Act
+        UndoSnapshot first = history.record(plan);
+        UndoSnapshot second = history.record(plan);
+        UndoSnapshot third = history.record(plan);
+
+        // Assert
+        assertEquals(3, history.size());
+        assertTrue(first.isSpilled());
+        assertTrue(second.isSpilled());
+        assertFalse(third.isSpilled());
+        assertEquals(snapshotBytes, history.getMemoryBytes());
+        assertEquals(2, spillDirectory.list().length);
+        assertEquals(0, first.getSchematic().getPaletteIndex(20, 64, 0));
+
+        history.clear();
+        assertEquals(0, spillDirectory.list().length);
+        assertEquals(0, history.getMemoryBytes());
+    }
+
+    @Test
+    public void testDropsOldestWithoutSpillDirectory() {
+        // Arrange
+        UndoHistory history = new UndoHistory(10, 1, null);
+
+        // Act
+        history.record(plan);
+        history.record(plan);
+        UndoSnapshot newest = history.record(plan);
+
+        // Assert: the newest snapshot is kept even above the cap
+        assertEquals(1, history.size());
+        assertEquals(newest.getByteSize(), history.getMemoryBytes());
+    }
+
+    @Test
+    public void testCapacityEvictsOldest() {
+        UndoHistory history = new UndoHistory(2, Long.MAX_VALUE, null);
+        history.record(plan);
+        history.record(plan);
+        history.record(plan);
+        assertEquals(2, history.size());
+    }
+
+    @Test
+    public void testUndoOnEmptyHistory() {
+        assertFalse(new UndoHistory(1, 1, null).undo(null));
+    }
+
+    @Test
+    public void testTileEntitiesOfOverwrittenBlocksAreRestored() throws Exception {
+        // Arrange - a chest under the paste and a sign next to it
+        String contents = "{Items:[{Slot:0b,id:\"minecraft:diamond\",Count:3b}]}";
+        Block chestBlock = mock(Block.class);
+        BlockState chest = tileState(chestBlock, 0, 64, 0);
+        Block signBlock = mock(Block.class);
+        BlockState sign = tileState(signBlock, 5, 64, 5);
+        when(chunk.getTileEntities()).thenReturn(new BlockState[]{chest, sign});
+        NMSAbstraction nms = mock(NMSAbstraction.class);
+        when(nms.getTileEntityData(chestBlock)).thenReturn(contents);
+        UndoHistory history = new UndoHistory(1, Long.MAX_VALUE, null);
+
+        // Act - restore through the chunk path undo uses, without parsing block data
+        Schematic recorded = history.record(plan, nms).getSchematic();
+        PastePlan.prepare(world, 0, 0, 0, recorded, i -> mock(BlockData.class), 0, 256).apply(nms);
+
+        // Assert - only the overwritten chest is recorded, and its contents are written back
+        assertEquals(1, recorded.getTileEntities().size());
+        assertEquals(contents, recorded.getTileEntityData().get(new Vector(0, 64, 0)));
+        verify(nms, never()).getTileEntityData(signBlock);
+        verify(nms).setTileEntityData(any(Block.class), eq(contents));
+    }
+
+    private static BlockState tileState(Block block, int x, int y, int z) {
+        BlockState state = mock(BlockState.class);
+        when(state.getBlock()).thenReturn(block);
+        when(state.getX()).thenReturn(x);
+        when(state.getY()).thenReturn(y);
+        when(state.getZ()).thenReturn(z);
+        return state;
+    }
+}
@@ -0,0 +1,105 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SchematicBuilderTest {
+
+    @Test
+    public void testPaletteIdsAreStable() {
+        // Arrange
+        SchematicBuilder builder = new SchematicBuilder();
+
+        // Act
+        int stone = builder.paletteId("minecraft:stone");
+        int dirt = builder.paletteId("minecraft:dirt");
+
+        // Assert
+        assertEquals(0, stone);
+        assertEquals(1, dirt);
+        assertEquals(stone, builder.paletteId("minecraft:stone"));
+    }
+
+    @Test
+    public void testBufferedBuildDerivesBounds() {
+        // Arrange
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(-1, 0, 2, "minecraft:stone");
+        builder.addBlock(3, 4, 0, "minecraft:dirt");
+        builder.addBlock(0, 1, 1, "minecraft:stone");
+
+        // Act
+        Schematic schematic = builder.build();
+
+        // Assert
+        assertEquals(5, schematic.getWidth());
+        assertEquals(5, schematic.getHeight());
+        assertEquals(3, schematic.getLength());
+        assertEquals(3, schematic.getBlockCount());
+        assertEquals(2, schematic.getPaletteSize());
+        assertEquals("minecraft:dirt", schematic.getBlockDataMap().get(new Vector(3, 4, 0)));
+    }
+
+    @Test
+    public void testBoundedBuildWritesDenseStore() {
+        // Arrange
+        SchematicBuilder builder = new SchematicBuilder(0, 0, 0, 1, 1, 1).dimensions(2, 2, 2);
+        int stone = builder.paletteId("minecraft:stone");
+        builder.addBlock(0, 0, 0, stone);
+        builder.addBlock(1, 1, 1, stone);
+        builder.addBlock(1, 1, 1, "minecraft:dirt"); // overwrite keeps the count
+
+        // Act
+        Schematic schematic = builder.build();
+
+        // Assert
+        assertEquals(8, schematic.getCellCount());
+        assertEquals(2, schematic.getBlockCount());
+        assertEquals("minecraft:dirt", schematic.getPaletteEntry(schematic.getPaletteIndex(1, 1, 1)));
+    }
+
+    @Test
+    public void testScatteredBuildKeepsOnlyFilledCells() {
+        // Arrange - three blocks at the corners of a 101x51x101 box, one of them set twice
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(0, 0, 0, "minecraft:stone");
+        builder.addBlock(100, 50, 100, "minecraft:dirt");
+        builder.addBlock(100, 0, 0, "minecraft:stone");
+        builder.addBlock(0, 0, 0, "minecraft:dirt");
+
+        // Act
+        Schematic schematic = builder.build();
+
+        // Assert - the last block added to a cell wins, and the empty cells cost nothing
+        assertEquals(101 * 51 * 101, schematic.getCellCount());
+        assertEquals(3, schematic.getBlockCount());
+        assertEquals(1, schematic.getPaletteIndex(0, 0, 0));
+        assertEquals(1, schematic.getPaletteIndex(100, 50, 100));
+        assertEquals(0, schematic.getPaletteIndex(100, 0, 0));
+        assertEquals(Schematic.EMPTY, schematic.getPaletteIndex(50, 25, 50));
+        assertEquals(3, schematic.getBlockDataMap().size());
+        assertTrue(schematic.getEstimatedByteSize() < 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBoundedBuildRejectsOutsideBlocks() {
+        new SchematicBuilder(0, 0, 0, 1, 1, 1).addBlock(2, 0, 0, "minecraft:stone");
+    }
+
+    @Test
+    public void testTileEntitiesAreKept() {
+        // Arrange
+        SchematicBuilder builder = new SchematicBuilder();
+        builder.addBlock(0, 0, 0, "minecraft:chest");
+        builder.addTileEntity(0, 0, 0, "{Items:[]}");
+
+        // Act
+        Schematic schematic = builder.build();
+
+        // Assert
+        assertTrue(schematic.hasTileEntities());
+        assertEquals("{Items:[]}", schematic.getTileEntityData().get(new Vector(0, 0, 0)));
+    }
+}
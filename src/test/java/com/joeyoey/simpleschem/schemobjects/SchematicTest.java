@@ -6,9 +6,16 @@ import org.bukkit.util.Vector;
 import org.junit.Test;
 import org.junit.Assume;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 
@@ -170,7 +177,7 @@ public class SchematicTest {
     }
 
     @Test
-    public void testGetBlockDataMapReturnsOriginal() {
+    public void testGetBlockDataMapMatchesOriginal() {
         // Arrange
         Map<Vector, String> originalBlockData = new HashMap<>();
         originalBlockData.put(new Vector(0, 0, 0), "minecraft:stone");
@@ -181,9 +188,163 @@ public class SchematicTest {
         // Act
         Map<Vector, String> retrievedBlockData = schematic.getBlockDataMap();
 
-        // Assert
-        assertSame(originalBlockData, retrievedBlockData);
+        // Assert - the map is a view over the dense store, not the map passed in
+        assertEquals(originalBlockData, retrievedBlockData);
+        assertSame(retrievedBlockData, schematic.getBlockDataMap());
         assertEquals(originalBlockData.size(), retrievedBlockData.size());
         assertEquals(originalBlockData.get(new Vector(0, 0, 0)), retrievedBlockData.get(new Vector(0, 0, 0)));
     }
+
+    @Test
+    public void testDenseStoreBoundsAndLookup() {
+        // Arrange - sparse blocks with negative coordinates
+        Map<Vector, String> blockData = new HashMap<>();
+        blockData.put(new Vector(-2, 5, 3), "minecraft:stone");
+        blockData.put(new Vector(1, 7, -1), "minecraft:dirt");
+
+        // Act
+        Schematic schematic = new Schematic(blockData, 4, 3, 5);
+
+        // Assert
+        assertEquals(-2, schematic.getOriginX());
+        assertEquals(5, schematic.getOriginY());
+        assertEquals(-1, schematic.getOriginZ());
+        assertEquals(4, schematic.getSizeX());
+        assertEquals(3, schematic.getSizeY());
+        assertEquals(5, schematic.getSizeZ());
+        assertEquals(60, schematic.getCellCount());
+        assertEquals(2, schematic.getBlockCount());
+        assertEquals("minecraft:stone", schematic.getPaletteEntry(schematic.getPaletteIndex(-2, 5, 3)));
+        assertEquals("minecraft:dirt", schematic.getPaletteEntry(schematic.getPaletteIndex(1, 7, -1)));
+        assertEquals(Schematic.EMPTY, schematic.getPaletteIndex(0, 6, 0));
+        assertEquals(Schematic.EMPTY, schematic.getPaletteIndex(100, 100, 100));
+        assertNull(schematic.getBlockDataMap().get(new Vector(0, 6, 0)));
+    }
+
+    @Test
+    public void testForEachBlockVisitsInCellOrder() {
+        // Arrange
+        Map<Vector, String> blockData = new HashMap<>();
+        blockData.put(new Vector(1, 1, 0), "minecraft:stone");
+        blockData.put(new Vector(0, 0, 1), "minecraft:dirt");
+        blockData.put(new Vector(1, 0, 0), "minecraft:stone");
+        Schematic schematic = new Schematic(blockData, 2, 2, 2);
+
+        // Act
+        StringBuilder order = new StringBuilder();
+        schematic.forEachBlock((x, y, z, paletteIndex) -> order.append(x).append(y).append(z).append(' '));
+
+        // Assert - x fastest, then z, then y
+        assertEquals("100 001 110 ", order.toString());
+    }
+
+    @Test
+    public void testBlockDataDecodedOncePerPaletteEntry() {
+        // Skip if no Bukkit server initialized
+        Assume.assumeTrue(Bukkit.getServer() != null);
+        // Arrange
+        Map<Vector, String> blockData = new HashMap<>();
+        for (int x = 0; x < 100; x++) {
+            blockData.put(new Vector(x, 0, 0), x % 2 == 0 ? "minecraft:stone" : "minecraft:dirt");
+        }
+        Schematic schematic = new Schematic(blockData, 100, 1, 1);
+        BlockDataCache.clear();
+
+        // Act
+        Map<Vector, BlockData> decoded = schematic.getBlockData();
+        for (BlockData ignored : decoded.values()) {
+            // touch every block
+        }
+
+        // Assert - two states, two cache lookups; the view hands out copies of the shared instances
+        assertEquals(2, BlockDataCache.getHits() + BlockDataCache.getMisses());
+        assertSame(schematic.getPaletteBlockData(0), schematic.getPaletteBlockData(0));
+        assertNotSame(decoded.get(new Vector(0, 0, 0)), decoded.get(new Vector(2, 0, 0)));
+        assertEquals(decoded.get(new Vector(0, 0, 0)), decoded.get(new Vector(2, 0, 0)));
+    }
+
+    @Test
+    public void testViewsAreReadOnly() {
+        // Arrange
+        Map<Vector, String> blockData = new HashMap<>();
+        blockData.put(new Vector(0, 0, 0), "minecraft:chest[facing=north]");
+        Map<Vector, String> tileData = new HashMap<>();
+        tileData.put(new Vector(0, 0, 0), "{Items:[]}");
+        Schematic schematic = new Schematic(blockData, tileData, 1, 1, 1);
+        Vector position = new Vector(1, 0, 0);
+
+        // Act & Assert
+        assertRejectsPut(schematic.getBlockDataMap(), position, "minecraft:stone");
+        assertRejectsPut(schematic.getCompactBlockData(), position, (short) 0);
+        assertRejectsPut(schematic.getBlockPalette(), (short) 1, "minecraft:stone");
+        assertRejectsPut(schematic.getTileEntityData(), position, "{}");
+        assertEquals(1, schematic.getBlockDataMap().size());
+    }
+
+    private static <K, V> void assertRejectsPut(Map<K, V> map, K key, V value) {
+        try {
+            map.put(key, value);
+            fail("Expected " + map.getClass().getName() + " to be read-only");
+        } catch (UnsupportedOperationException expected) {
+            // read-only
+        }
+    }
+
+    @Test
+    public void testPaletteIsCopied() {
+        // Arrange
+        String[] palette = {"minecraft:stone"};
+        Schematic schematic = new Schematic(palette, new ArrayBlockStore(new short[]{0}),
+                0, 0, 0, 1, 1, 1, 1, (Map<Vector, String>) null, 1, 1, 1);
+
+        // Act
+        palette[0] = "minecraft:dirt";
+
+        // Assert
+        assertEquals("minecraft:stone", schematic.getPaletteEntry(0));
+        assertEquals("minecraft:stone", schematic.getBlockDataMap().get(new Vector(0, 0, 0)));
+    }
+
+    @Test
+    public void testConcurrentReadersShareOneInstance() throws Exception {
+        // Arrange
+        SchematicBuilder builder = new SchematicBuilder();
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                builder.addBlock(x, 0, z, "minecraft:oak_stairs[facing=" + (x % 2 == 0 ? "north" : "east") + "]");
+            }
+        }
+        Schematic schematic = builder.build();
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Schematic>> results = new ArrayList<>();
+
+        // Act - every worker starts at once and reads the lazily built state
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Schematic>() {
+                    @Override
+                    public Schematic call() throws Exception {
+                        start.await();
+                        Schematic rotated = schematic.transform(Transform.ROTATE_90);
+                        assertEquals(2, schematic.getBlockPalette().size());
+                        assertEquals(256, rotated.getBlockDataMap().entrySet().size());
+                        return rotated;
+                    }
+                }));
+            }
+            start.countDown();
+
+            // Assert
+            Schematic first = results.get(0).get();
+            for (Future<Schematic> result : results) {
+                assertSame(first, result.get());
+            }
+            assertSame(first, schematic.transform(Transform.ROTATE_90));
+            assertSame(schematic.getBlockPalette(), schematic.getBlockPalette());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,66 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TileEntityStoreTest {
+
+    @Test
+    public void testEntriesAreSortedInCellOrder() {
+        // Arrange
+        TileEntityStore.Builder builder = new TileEntityStore.Builder()
+                .add(5, 1, 0, "{b}")
+                .add(0, 0, 3, "{a}")
+                .add(-2, 1, 0, "{c}");
+
+        // Act
+        TileEntityStore store = builder.build();
+
+        // Assert: y first, then z, then x
+        assertEquals(3, store.size());
+        assertEquals("{a}", store.getData(0));
+        assertEquals(-2, store.getX(1));
+        assertEquals("{b}", store.getData(2));
+        assertEquals(2, store.indexOf(5, 1, 0));
+        assertEquals(-1, store.indexOf(5, 1, 1));
+    }
+
+    @Test
+    public void testLastEntryAtAPositionWins() {
+        TileEntityStore store = new TileEntityStore.Builder()
+                .add(1, 2, 3, "{old}")
+                .add(0, 0, 0, "{other}")
+                .add(1, 2, 3, "{new}")
+                .build();
+        assertEquals(2, store.size());
+        assertEquals("{new}", store.getData(store.indexOf(1, 2, 3)));
+    }
+
+    @Test
+    public void testRawPayloadIsKeptAsIs() throws Exception {
+        // Arrange
+        byte[] payload = "{Text:\"h\u00e9\"}".getBytes(StandardCharsets.UTF_8);
+        TileEntityStore store = new TileEntityStore.Builder().add(0, 0, 0, payload).build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        store.writePayload(0, out);
+
+        // Assert
+        assertArrayEquals(payload, out.toByteArray());
+        assertEquals(payload.length, store.getPayloadLength(0));
+        assertEquals("{Text:\"h\u00e9\"}", store.getData(0));
+        assertEquals("{Text:\"h\u00e9\"}", store.toMap().get(new Vector(0, 0, 0)));
+    }
+
+    @Test
+    public void testEmptyBuilderGivesEmptyStore() {
+        assertSame(TileEntityStore.EMPTY, new TileEntityStore.Builder().build());
+        assertTrue(TileEntityStore.EMPTY.isEmpty());
+    }
+}
@@ -0,0 +1,122 @@
+package com.joeyoey.simpleschem.schemobjects;
+
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TransformTest {
+
+    private static final Transform[] ALL = {
+            Transform.NONE, Transform.ROTATE_90, Transform.ROTATE_180, Transform.ROTATE_270,
+            Transform.MIRROR_X, Transform.MIRROR_X.then(Transform.ROTATE_90),
+            Transform.MIRROR_Z, Transform.MIRROR_Z.then(Transform.ROTATE_90)
+    };
+
+    private static Schematic sample() {
+        SchematicBuilder builder = new SchematicBuilder().dimensions(5, 2, 3);
+        builder.addBlock(-2, 0, -1, "minecraft:stone");
+        builder.addBlock(2, 0, 1, "minecraft:oak_stairs[facing=north,half=bottom,shape=inner_left]");
+        builder.addBlock(1, 1, -1, "minecraft:oak_fence[east=true,north=false,south=false,west=true]");
+        builder.addBlock(0, 1, 0, "minecraft:dirt");
+        builder.addTileEntity(2, 0, 1, "{Items:[]}");
+        return builder.build();
+    }
+
+    @Test
+    public void testViewsMatchCopiedTransform() {
+        Schematic source = sample();
+        for (Transform transform : ALL) {
+            // Arrange: the expected schematic, built block by block
+            Map<Vector, String> expected = new HashMap<>();
+            for (Map.Entry<Vector, String> entry : source.getBlockDataMap().entrySet()) {
+                Vector v = entry.getKey();
+                expected.put(new Vector(transform.x(v.getBlockX(), v.getBlockZ()), v.getBlockY(),
+                        transform.z(v.getBlockX(), v.getBlockZ())), transform.apply(entry.getValue()));
+            }
+
+            // Act
+            Schematic view = source.transform(transform);
+
+            // Assert
+            assertEquals(transform.toString(), expected, view.getBlockDataMap());
+            assertEquals(source.getBlockCount(), view.getBlockCount());
+            assertEquals(source.getCellCount(), view.getCellCount());
+            assertEquals(transform.swapsAxes() ? 3 : 5, view.getWidth());
+            assertEquals("{Items:[]}", view.getTileEntityData().get(new Vector(transform.x(2, 1), 0, transform.z(2, 1))));
+        }
+    }
+
+    @Test
+    public void testViewsAreCachedAndComposed() {
+        // Arrange
+        Schematic source = sample();
+
+        // Act
+        Schematic quarter = source.transform(Transform.ROTATE_90);
+
+        // Assert
+        assertSame(quarter, source.transform(Transform.rotate(90)));
+        assertSame(source.transform(Transform.ROTATE_180), quarter.transform(Transform.ROTATE_90));
+        assertSame(source, quarter.transform(Transform.rotate(-90)));
+        assertSame(source, source.transform(Transform.MIRROR_X).transform(Transform.MIRROR_X));
+        assertSame(source.transform(Transform.MIRROR_Z),
+                source.transform(Transform.MIRROR_X).transform(Transform.ROTATE_180));
+    }
+
+    @Test
+    public void testCompositionMatchesApplyingInTurn() {
+        for (Transform first : ALL) {
+            for (Transform second : ALL) {
+                Transform combined = first.then(second);
+                int x = first.x(3, -7);
+                int z = first.z(3, -7);
+                assertEquals(second.x(x, z), combined.x(3, -7));
+                assertEquals(second.z(x, z), combined.z(3, -7));
+                assertEquals(second.apply(first.apply("minecraft:oak_sign[rotation=3]")),
+                        combined.apply("minecraft:oak_sign[rotation=3]"));
+            }
+            assertSame(Transform.NONE, first.then(first.inverse()));
+        }
+    }
+
+    @Test
+    public void testRotatesBlockStates() {
+        Transform transform = Transform.ROTATE_90;
+        assertEquals("minecraft:oak_stairs[facing=east,half=bottom,shape=inner_left]",
+                transform.apply("minecraft:oak_stairs[facing=north,half=bottom,shape=inner_left]"));
+        assertEquals("minecraft:oak_log[axis=z]", transform.apply("minecraft:oak_log[axis=x]"));
+        assertEquals("minecraft:oak_sign[rotation=4,waterlogged=false]",
+                transform.apply("minecraft:oak_sign[rotation=0,waterlogged=false]"));
+        assertEquals("minecraft:oak_fence[south=true,east=false,west=false,north=true]",
+                transform.apply("minecraft:oak_fence[east=true,north=false,south=false,west=true]"));
+        assertEquals("minecraft:rail[shape=south_west]", transform.apply("minecraft:rail[shape=south_east]"));
+        assertEquals("minecraft:rail[shape=east_west]", transform.apply("minecraft:rail[shape=north_south]"));
+        assertEquals("minecraft:rail[shape=ascending_south]", transform.apply("minecraft:rail[shape=ascending_east]"));
+        assertEquals("minecraft:jigsaw[orientation=down_south]", transform.apply("minecraft:jigsaw[orientation=down_east]"));
+        assertEquals("minecraft:stone", transform.apply("minecraft:stone"));
+    }
+
+    @Test
+    public void testMirrorsBlockStates() {
+        Transform transform = Transform.MIRROR_X;
+        assertEquals("minecraft:oak_stairs[facing=west,shape=outer_right]",
+                transform.apply("minecraft:oak_stairs[facing=east,shape=outer_left]"));
+        assertEquals("minecraft:oak_door[facing=north,hinge=right]",
+                transform.apply("minecraft:oak_door[facing=north,hinge=left]"));
+        assertEquals("minecraft:chest[facing=south,type=left]",
+                transform.apply("minecraft:chest[facing=south,type=right]"));
+        assertEquals("minecraft:oak_slab[type=top]", transform.apply("minecraft:oak_slab[type=top]"));
+        assertEquals("minecraft:oak_sign[rotation=4]", transform.apply("minecraft:oak_sign[rotation=12]"));
+        assertEquals("minecraft:oak_log[axis=x]", transform.apply("minecraft:oak_log[axis=x]"));
+        assertEquals("minecraft:rail[shape=north_west]", transform.apply("minecraft:rail[shape=north_east]"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsPartialTurns() {
+        Transform.rotate(45);
+    }
+}